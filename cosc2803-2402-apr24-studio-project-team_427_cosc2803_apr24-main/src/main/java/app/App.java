@@ -21,6 +21,21 @@ public class App {
     public static final String      IMAGES_DIR      = "images/";
 
     public static void main(String[] args) {
+        // Reuse results cached on disk by a previous run (if the database is unchanged)
+        ResultCache.loadFromDisk();
+
+        // Compute the index page statistics once up front
+        DataSnapshot.load();
+
+        // Parse the page templates and encode their static parts so no request pays for it
+        Templates.preload();
+        Layout.preload();
+
+        // Optionally fill the result caches before the port is opened
+        if (CacheWarmer.MODE.equalsIgnoreCase("before")) {
+            new CacheWarmer().run();
+        }
+
         // Create our HTTP server and listen in port 7000
         Javalin app = Javalin.create(config -> {
             config.registerPlugin(new RouteOverviewPlugin("/help/routes"));
@@ -35,9 +50,22 @@ public class App {
 
         // Configure Web Routes
         configureRoutes(app);
+
+        // Or fill them in the background once the server is up
+        if (CacheWarmer.MODE.equalsIgnoreCase("after")) {
+            Thread warmup = new Thread(new CacheWarmer(), "cache-warmup");
+            warmup.setDaemon(true);
+            warmup.start();
+        }
+
+        // Load FoodLoss extracts dropped into a directory, if one is configured
+        DropWatcher.start();
     }
 
     public static void configureRoutes(Javalin app) {
+        // Reject bad form input before it reaches the page handlers
+        InputValidator.register(app);
+
         // All webpages are listed here as GET pages
         app.get(PageIndex.URL, new PageIndex());
         app.get(PageMission.URL, new PageMission());
@@ -53,6 +81,25 @@ public class App {
         app.post(PageST2B.URL, new PageST2B());
         app.post(PageST3A.URL, new PageST3A());
         app.post(PageST3B.URL, new PageST3B());
+
+        // Result blocks that pages 3A and 3B load after the page itself
+        app.get(PageST3A.FRAGMENT_URL, PageST3A::fragment);
+        app.get(PageST3B.FRAGMENT_URL, PageST3B::fragment);
+
+        // JSON versions of the analyses, for dashboards
+        JsonApi.register(app);
+
+        // Page 3A's "both" rankings, sent as they are scored
+        SimilarityStream.register(app);
+
+        // CSV downloads of the loss events behind the 2A and 2B tables
+        CsvExport.register(app);
+
+        // Template cache hit rates and render times
+        app.get(Templates.STATUS_URL, context -> context.result(Templates.status()));
+
+        // Backlog and progress of the dropped extracts being loaded
+        app.get(DropWatcher.STATUS_URL, context -> context.result(DropWatcher.status()));
     }
 
 }
@@ -0,0 +1,107 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fills the ResultCache with the results pages 2A and 3A show for their default inputs.
+ * <p>
+ * Every country and region is run through the analysis methods with the default
+ * year and number of groups from the page forms, using a fixed number of threads
+ * so the database is not flooded. Progress and the total time are printed to the console.
+ * <p>
+ * Configured with system properties:
+ *    -Dwarmup=after    (default) warm up in the background once the port is open
+ *    -Dwarmup=before   warm up before the port is opened
+ *    -Dwarmup=off      no warm up
+ *    -Dwarmup.threads=4
+ */
+public class CacheWarmer implements Runnable {
+
+    // Default inputs of the page 2A and 3A forms
+    public static final String DEFAULT_YEAR_START = "1966";
+    public static final String DEFAULT_YEAR_END = "2022";
+    public static final String DEFAULT_NUM_GROUPS = "5";
+
+    public static final String MODE = System.getProperty("warmup", "after");
+    public static final int THREADS = Integer.getInteger("warmup.threads", 4);
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+
+        ArrayList<String> countries = new ArrayList<String>();
+        for (Country country : new JDBCConnection().getAllCountries()) {
+            countries.add(country.getName());
+        }
+        ArrayList<String> regions = JDBCConnection.getAllRegions();
+
+        int total = countries.size() + regions.size();
+        AtomicInteger done = new AtomicInteger();
+        System.out.println("Cache warm-up: " + countries.size() + " countries and " + regions.size()
+                           + " regions on " + THREADS + " threads");
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "cache-warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (String country : countries) {
+            pool.execute(() -> {
+                warmCountry(country);
+                reportProgress(done.incrementAndGet(), total);
+            });
+        }
+        for (String region : regions) {
+            pool.execute(() -> {
+                warmRegion(region);
+                reportProgress(done.incrementAndGet(), total);
+            });
+        }
+
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println("Cache warm-up finished in " + elapsed + " ms, " + ResultCache.size() + " results cached");
+    }
+
+    private static void warmCountry(String country) {
+        ResultCache.get2ADifference(country, DEFAULT_YEAR_START, DEFAULT_YEAR_END);
+        ResultCache.get2AYear(country, DEFAULT_YEAR_START);
+        ResultCache.get2AYear(country, DEFAULT_YEAR_END);
+
+        ResultCache.get3APercentageCountry(country, DEFAULT_YEAR_START, DEFAULT_NUM_GROUPS);
+        ResultCache.get3AABS(country, DEFAULT_YEAR_START, DEFAULT_NUM_GROUPS);
+        ResultCache.get3AOVC(country, DEFAULT_YEAR_START, DEFAULT_NUM_GROUPS);
+        ResultCache.getbotha(country, DEFAULT_YEAR_START, DEFAULT_NUM_GROUPS);
+        ResultCache.getbothp(country, DEFAULT_YEAR_START, DEFAULT_NUM_GROUPS);
+        ResultCache.getA1(country, DEFAULT_YEAR_START, DEFAULT_NUM_GROUPS);
+        ResultCache.get2A(country, DEFAULT_YEAR_START);
+    }
+
+    private static void warmRegion(String region) {
+        ResultCache.get3APercentageRegion(region, DEFAULT_YEAR_START, DEFAULT_NUM_GROUPS);
+        ResultCache.get3AABSR(region, DEFAULT_YEAR_START, DEFAULT_NUM_GROUPS);
+        ResultCache.get3AOVCR(region, DEFAULT_YEAR_START, DEFAULT_NUM_GROUPS);
+        ResultCache.getA11(region, DEFAULT_YEAR_START, DEFAULT_NUM_GROUPS);
+        ResultCache.get2A1(region, DEFAULT_YEAR_START);
+    }
+
+    private static void reportProgress(int done, int total) {
+        // Report roughly every 10%, and always the last one
+        int step = Math.max(1, total / 10);
+        if (done % step == 0 || done == total) {
+            System.out.println("Cache warm-up: " + done + "/" + total + " locations (" + (done * 100 / total) + "%)");
+        }
+    }
+}
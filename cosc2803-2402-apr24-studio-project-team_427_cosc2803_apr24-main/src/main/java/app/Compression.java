@@ -0,0 +1,267 @@
+package app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import io.javalin.http.Context;
+
+/**
+ * Compresses the dynamic responses (pages, JSON and CSV) that are streamed to the browser.
+ * <p>
+ * The encoding is negotiated from Accept-Encoding: gzip is preferred, then deflate.
+ * Brotli is not offered, as the JDK has no brotli encoder.
+ * <p>
+ * Pages are streamed, so their size is not known up front. The first -Dcompress.minSize
+ * bytes (default 1024) are held back. A response that ends within them is sent as it is,
+ * because compressing it would save less than the header costs. Longer responses are
+ * compressed at a level that drops as they grow: best compression up to 64KB, the default
+ * level up to 1MB and the fastest level after that, so large result tables don't tie up
+ * the CPU. Each thread reuses its own Deflater for every response it serves.
+ * Set -Dcompress.disabled=true to turn compression off.
+ */
+public class Compression {
+
+    public static final int MIN_SIZE = Integer.getInteger("compress.minSize", 1024);
+    public static final boolean DISABLED = Boolean.getBoolean("compress.disabled");
+
+    // Uncompressed sizes at which the level drops
+    private static final long MEDIUM_SIZE = 64 * 1024;
+    private static final long LARGE_SIZE = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // One Deflater per thread for each encoding: gzip wraps raw deflate data, deflate uses the zlib format
+    private static final ThreadLocal<Deflater> GZIP = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private static final ThreadLocal<Deflater> DEFLATE = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, false));
+
+    private static final AtomicLong COMPRESSED = new AtomicLong();
+    private static final AtomicLong UNCOMPRESSED = new AtomicLong();
+    private static final AtomicLong BYTES_IN = new AtomicLong();
+    private static final AtomicLong BYTES_OUT = new AtomicLong();
+
+    /**
+     * The response body for this request, compressed if the client accepts it.
+     * The stream must be closed to finish the response.
+     */
+    public static OutputStream open(Context context) throws IOException {
+        OutputStream out = context.res.getOutputStream();
+        if (DISABLED) {
+            return out;
+        }
+        context.header("Vary", "Accept-Encoding");
+        String encoding = negotiate(context.header("Accept-Encoding"));
+        if (encoding == null) {
+            UNCOMPRESSED.incrementAndGet();
+            return out;
+        }
+        return new CompressingStream(context, out, encoding);
+    }
+
+    /**
+     * One line summary for the status page.
+     */
+    public static String status() {
+        long in = BYTES_IN.get();
+        long out = BYTES_OUT.get();
+        return String.format("Compression: %d responses compressed (%d KB to %d KB, %.1f%%), %d sent as is%n",
+                             COMPRESSED.get(), in / 1024, out / 1024, in == 0 ? 0 : 100.0 * out / in, UNCOMPRESSED.get());
+    }
+
+    /**
+     * Pick gzip or deflate from an Accept-Encoding header, or null for neither.
+     * Encodings with q=0 are refused; otherwise gzip is preferred as deflate is less widely handled.
+     */
+    static String negotiate(String accepted) {
+        if (accepted == null) {
+            return null;
+        }
+        boolean deflate = false;
+        for (String part : accepted.split(",")) {
+            String[] fields = part.trim().split(";");
+            String name = fields[0].trim().toLowerCase();
+            if (refused(fields)) {
+                continue;
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                return "gzip";
+            }
+            deflate |= name.equals("deflate");
+        }
+        return deflate ? "deflate" : null;
+    }
+
+    private static boolean refused(String[] fields) {
+        for (int i = 1; i < fields.length; i++) {
+            String parameter = fields[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int levelFor(long size) {
+        if (size < MEDIUM_SIZE) {
+            return Deflater.BEST_COMPRESSION;
+        }
+        return size < LARGE_SIZE ? Deflater.DEFAULT_COMPRESSION : Deflater.BEST_SPEED;
+    }
+
+    /**
+     * Holds back the first MIN_SIZE bytes, then compresses everything after them.
+     */
+    private static class CompressingStream extends OutputStream {
+
+        private final Context context;
+        private final OutputStream out;
+        private final String encoding;
+
+        private byte[] pending = new byte[MIN_SIZE];
+        private int pendingLength = 0;
+
+        private Deflater deflater = null;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private long size = 0;
+        private boolean closed = false;
+
+        CompressingStream(Context context, OutputStream out, String encoding) {
+            this.context = context;
+            this.out = out;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (deflater == null) {
+                if (pendingLength + length <= pending.length) {
+                    System.arraycopy(bytes, offset, pending, pendingLength, length);
+                    pendingLength += length;
+                    return;
+                }
+                start();
+            }
+            deflate(bytes, offset, length);
+        }
+
+        /**
+         * Send what has been written so far. A page flushes once its top part is written,
+         * which means the rest is still to come, so compression starts here if it hasn't.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (deflater == null) {
+                start();
+            }
+            int count;
+            do {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                send(count);
+            } while (count == buffer.length);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (deflater == null) {
+                    // Too small to be worth compressing
+                    UNCOMPRESSED.incrementAndGet();
+                    out.write(pending, 0, pendingLength);
+                } else {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        send(deflater.deflate(buffer));
+                    }
+                    if (encoding.equals("gzip")) {
+                        trailer();
+                    }
+                    BYTES_IN.addAndGet(size);
+                }
+                out.close();
+            } finally {
+                if (deflater != null) {
+                    deflater.reset();
+                }
+            }
+        }
+
+        // Set the header and compress the bytes held back so far
+        private void start() throws IOException {
+            context.header("Content-Encoding", encoding);
+            COMPRESSED.incrementAndGet();
+
+            deflater = (encoding.equals("gzip") ? GZIP : DEFLATE).get();
+            deflater.reset();
+            deflater.setLevel(levelFor(0));
+            if (encoding.equals("gzip")) {
+                header();
+            }
+            deflate(pending, 0, pendingLength);
+            pending = null;
+        }
+
+        private void deflate(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            int level = levelFor(size);
+            size += length;
+            if (level != levelFor(size)) {
+                deflater.setLevel(levelFor(size));
+            }
+            if (encoding.equals("gzip")) {
+                crc.update(bytes, offset, length);
+            }
+            deflater.setInput(bytes, offset, length);
+            while (!deflater.needsInput()) {
+                send(deflater.deflate(buffer));
+            }
+        }
+
+        private void send(int count) throws IOException {
+            if (count > 0) {
+                out.write(buffer, 0, count);
+                BYTES_OUT.addAndGet(count);
+            }
+        }
+
+        // Fixed ten byte gzip header: magic number, deflate, no flags, no time, unknown OS
+        private void header() throws IOException {
+            byte[] header = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+            out.write(header);
+            BYTES_OUT.addAndGet(header.length);
+        }
+
+        // CRC-32 and length of the uncompressed data, little endian
+        private void trailer() throws IOException {
+            byte[] trailer = new byte[8];
+            long value = crc.getValue();
+            for (int i = 0; i < 4; i++) {
+                trailer[i] = (byte) (value >> (8 * i));
+                trailer[4 + i] = (byte) (size >> (8 * i));
+            }
+            out.write(trailer);
+            BYTES_OUT.addAndGet(trailer.length);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package app;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import org.eclipse.jetty.server.Response;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * CSV downloads of the loss events behind the 2A and 2B tables.
+ * <p>
+ * Each export takes the same fields as its page's form, as query parameters, and writes
+ * one line per CountryLossEvent with its country, commodity, activity, supply stage and
+ * cause. Rows are read from a forward-only cursor and written through one fixed-size
+ * buffer, so an export uses the same memory whatever its size. The response is compressed
+ * when the client accepts it (see Compression).
+ * <p>
+ * At most -Dexport.maxConcurrent exports (default 2) run at once, so large downloads
+ * cannot take every server thread; further requests get a 503.
+ */
+public class CsvExport {
+
+    public static final String URL_2A = "/export/2A.csv";
+    public static final String URL_2B = "/export/2B.csv";
+
+    public static final int MAX_CONCURRENT = Math.max(1, Integer.getInteger("export.maxConcurrent", 2));
+
+    // Characters buffered before they are passed to the output
+    private static final int BUFFER_SIZE = 8192;
+
+    // Rows SQLite is asked for at a time
+    private static final int FETCH_SIZE = 500;
+
+    private static final Semaphore SLOTS = new Semaphore(MAX_CONCURRENT);
+
+    // Events for a country between two years: country, start year, end year. Formatted with the sort order twice
+    public static final String SQL_2A_EVENTS = """
+            SELECT c.country_name, cle.m49_code, cle.cpc_code, cmd.commodityName, cle.year, cle.percentage,
+                   cle.activity, cle.supply_stage, cle.cause
+                FROM CountryLossEvent cle
+                    JOIN Country c ON c.m49_code = cle.m49_code
+                    LEFT JOIN Commodity cmd ON cmd.cpc_code = cle.cpc_code
+                WHERE c.country_name = ?
+                    AND cle.year BETWEEN ? AND ?
+                ORDER BY cle.year %s, cle.percentage %s
+            """;
+
+    // Events for a food group between two years: start year, end year, food group. Formatted with the sort order twice
+    public static final String SQL_2B_EVENTS = """
+            SELECT cg.descriptor AS food_group, c.country_name, cle.m49_code, cle.cpc_code, cmd.commodityName,
+                   cle.year, cle.percentage, cle.activity, cle.supply_stage, cle.cause
+                FROM CountryLossEvent cle
+                    JOIN CPC cp ON cp.cpc_code = cle.cpc_code
+                    JOIN CommodityGroup cg ON cg.groupID = cp.groupID
+                    LEFT JOIN Country c ON c.m49_code = cle.m49_code
+                    LEFT JOIN Commodity cmd ON cmd.cpc_code = cle.cpc_code
+                WHERE cle.year BETWEEN ? AND ?
+                    AND cg.descriptor = ?
+                ORDER BY cle.percentage %s, cle.year %s
+            """;
+
+    /**
+     * Add the export routes. Their input is checked by InputValidator like the page forms.
+     */
+    public static void register(Javalin app) {
+        app.get(URL_2A, CsvExport::export2A);
+        app.get(URL_2B, CsvExport::export2B);
+    }
+
+    private static void export2A(Context context) throws IOException {
+        String country = context.queryParam("country");
+        String sort = "Descend".equals(context.queryParam("sortAscDesc")) ? "DESC" : "ASC";
+        export(context, "2A-" + country, SQL_2A_EVENTS.formatted(sort, sort),
+               country, context.queryParam("year-start"), context.queryParam("year-end"));
+    }
+
+    private static void export2B(Context context) throws IOException {
+        // Same defaults as the page
+        String foodGroup = context.queryParam("commodity", "Cereals");
+        String sort = "Descend".equals(context.queryParam("sort-by")) ? "DESC" : "ASC";
+        export(context, "2B-" + foodGroup, SQL_2B_EVENTS.formatted(sort, sort),
+               context.queryParam("year-start", "1966"), context.queryParam("year-end", "2022"), foodGroup);
+    }
+
+    private static void export(Context context, String name, String query, String... parameters) throws IOException {
+        if (!SLOTS.tryAcquire()) {
+            throw new ServiceUnavailableResponse("Too many exports running, try again shortly");
+        }
+
+        Connection connection = null;
+        Writer out = null;
+        try {
+            connection = DriverManager.getConnection(JDBCConnection.DATABASE);
+            PreparedStatement statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(FETCH_SIZE);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setString(i + 1, parameters[i]);
+            }
+            ResultSet rows = statement.executeQuery();
+
+            context.contentType("text/csv; charset=utf-8");
+            context.header("Content-Disposition", "attachment; filename=\"" + fileName(name) + ".csv\"");
+            out = new OutputStreamWriter(Compression.open(context), StandardCharsets.UTF_8);
+            long count = write(out, rows);
+            statement.close();
+
+            System.out.println("Exported " + count + " rows to " + fileName(name) + ".csv");
+        } catch (SQLException e) {
+            System.err.println("Error executing SQL query: " + e.getMessage());
+            // What was written is not sent, nor finished on close
+            out = null;
+            fail(context, "Could not read the loss events");
+        } catch (IOException e) {
+            // The browser went away part way through the download
+            System.err.println("Error writing export: " + e.getMessage());
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                System.err.println("Error closing connection: " + e.getMessage());
+            }
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Error finishing export: " + e.getMessage());
+            }
+            SLOTS.release();
+        }
+    }
+
+    /**
+     * Answer a failed export with a 500 if nothing has been sent yet. Otherwise the
+     * connection is dropped, so the browser sees the download fail rather than keeping a
+     * file that simply ends early.
+     */
+    private static void fail(Context context, String message) throws IOException {
+        if (!context.res.isCommitted()) {
+            context.res.reset();
+            context.status(500);
+            context.header("Cache-Control", "no-store");
+            context.contentType("text/plain; charset=utf-8");
+            context.res.getOutputStream().write(message.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        if (context.res instanceof Response) {
+            ((Response) context.res).getHttpChannel().abort(new IOException(message));
+        }
+    }
+
+    /**
+     * Write a header line of column labels, then one line per row. Returns the number of rows.
+     */
+    private static long write(Writer out, ResultSet rows) throws SQLException, IOException {
+        ResultSetMetaData meta = rows.getMetaData();
+        int columns = meta.getColumnCount();
+
+        StringBuilder buffer = new StringBuilder(BUFFER_SIZE + 1024);
+        for (int i = 1; i <= columns; i++) {
+            if (i > 1) {
+                buffer.append(',');
+            }
+            field(buffer, meta.getColumnLabel(i));
+        }
+        buffer.append("\r\n");
+
+        long count = 0;
+        while (rows.next()) {
+            count++;
+            for (int i = 1; i <= columns; i++) {
+                if (i > 1) {
+                    buffer.append(',');
+                }
+                String value = rows.getString(i);
+                if (value != null) {
+                    field(buffer, value);
+                }
+            }
+            buffer.append("\r\n");
+
+            if (buffer.length() >= BUFFER_SIZE) {
+                out.append(buffer);
+                buffer.setLength(0);
+            }
+        }
+        out.append(buffer);
+        return count;
+    }
+
+    // Quote a field if it holds a comma, quote or line break, doubling any quotes (RFC 4180)
+    private static void field(StringBuilder buffer, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            buffer.append(value);
+            return;
+        }
+        buffer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                buffer.append('"');
+            }
+            buffer.append(c);
+        }
+        buffer.append('"');
+    }
+
+    private static String fileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]+", "_");
+    }
+}
@@ -0,0 +1,299 @@
+package app;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Headline statistics shown in the "DATA SNAPSHOT" section of the index page.
+ * <p>
+ * The statistics are computed by one aggregation pass over the database per DatasetVersion
+ * and then served from memory. When the database changes the new snapshot is computed on a
+ * background thread while the previous one keeps being served, so the index page never
+ * waits on the database.
+ * <p>
+ * Most new versions only add rows: the ingest tool appends the rows added to FoodLoss.csv
+ * and leaves the rest of the tables alone (see helper.IngestWatermark). A snapshot therefore
+ * remembers the last rowid of each event table it has aggregated and, as long as the
+ * database's ingest generation is unchanged, the next snapshot only aggregates the rows
+ * after them and merges them in. The totals are then checked against the tables, and
+ * anything else (a rebuild, or a database not written by the ingest tool) is recomputed
+ * from scratch.
+ */
+public class DataSnapshot {
+
+    public final String version;
+    public final int firstYear;
+    public final int lastYear;
+    public final double maxLossPercentage;
+    public final String maxLossCommodity;
+    public final int countryCount;
+    public final int countryEventCount;
+    public final int regionEventCount;
+    public final String mostImprovedCountry;
+    public final double mostImprovedChange;
+
+    // What was aggregated, so the next version can carry on from here
+    private final long generation;
+    private final long lastCountryRowid;
+    private final long lastRegionRowid;
+    // m49 code to year to {sum of loss percentages, number of events}, for the most improved country
+    private final HashMap<String, TreeMap<Integer, double[]>> yearTotals;
+
+    private static volatile DataSnapshot current = null;
+    private static volatile boolean refreshing = false;
+
+    private DataSnapshot(String version, int firstYear, int lastYear, double maxLossPercentage, String maxLossCommodity,
+                         int countryCount, int countryEventCount, int regionEventCount,
+                         String mostImprovedCountry, double mostImprovedChange,
+                         long generation, long lastCountryRowid, long lastRegionRowid,
+                         HashMap<String, TreeMap<Integer, double[]>> yearTotals) {
+        this.version = version;
+        this.firstYear = firstYear;
+        this.lastYear = lastYear;
+        this.maxLossPercentage = maxLossPercentage;
+        this.maxLossCommodity = maxLossCommodity;
+        this.countryCount = countryCount;
+        this.countryEventCount = countryEventCount;
+        this.regionEventCount = regionEventCount;
+        this.mostImprovedCountry = mostImprovedCountry;
+        this.mostImprovedChange = mostImprovedChange;
+        this.generation = generation;
+        this.lastCountryRowid = lastCountryRowid;
+        this.lastRegionRowid = lastRegionRowid;
+        this.yearTotals = yearTotals;
+    }
+
+    /**
+     * Compute the snapshot for the current database, blocking until it is ready.
+     */
+    public static void load() {
+        String version = DatasetVersion.current();
+        current = compute(version, null);
+    }
+
+    /**
+     * Get the latest snapshot without touching the database.
+     * Starts a background refresh if the database has changed since it was computed.
+     * Returns null only if no snapshot has been computed yet.
+     */
+    public static DataSnapshot current() {
+        DataSnapshot snapshot = current;
+        String version = DatasetVersion.current();
+        if ((snapshot == null || !snapshot.version.equals(version)) && !refreshing) {
+            refresh(version);
+        }
+        return snapshot;
+    }
+
+    private static synchronized void refresh(String version) {
+        if (refreshing) {
+            return;
+        }
+        refreshing = true;
+
+        DataSnapshot previous = current;
+        Thread thread = new Thread(() -> {
+            try {
+                current = compute(version, previous);
+            } finally {
+                refreshing = false;
+            }
+        }, "data-snapshot");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // The snapshot for version, carrying on from previous if the database has only had rows appended since
+    private static DataSnapshot compute(String version, DataSnapshot previous) {
+        long start = System.currentTimeMillis();
+
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(JDBCConnection.DATABASE);
+            long generation = generation(connection);
+            if (previous != null && generation > 0 && generation == previous.generation) {
+                DataSnapshot snapshot = aggregate(connection, version, previous);
+                if (snapshot != null) {
+                    System.out.println("Data snapshot updated with "
+                                       + (snapshot.countryEventCount - previous.countryEventCount) + " country and "
+                                       + (snapshot.regionEventCount - previous.regionEventCount) + " region events in "
+                                       + (System.currentTimeMillis() - start) + " ms");
+                    return snapshot;
+                }
+                System.out.println("Data snapshot could not be updated, recomputing");
+            }
+
+            DataSnapshot empty = new DataSnapshot(version, 0, 0, 0, "", 0, 0, 0, "", 0, generation, 0, 0,
+                                                  new HashMap<String, TreeMap<Integer, double[]>>());
+            DataSnapshot snapshot = aggregate(connection, version, empty);
+            if (snapshot != null) {
+                System.out.println("Data snapshot computed in " + (System.currentTimeMillis() - start) + " ms");
+                return snapshot;
+            }
+        } catch (SQLException e) {
+            System.err.println("Could not compute data snapshot: " + e.getMessage());
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+
+        return new DataSnapshot(version, 0, 0, 0, "", 0, 0, 0, "", 0, 0, 0, 0,
+                                new HashMap<String, TreeMap<Integer, double[]>>());
+    }
+
+    /**
+     * Aggregate the events after the last rowids of base and merge them into it.
+     * Returns null if the merged counts do not match the tables.
+     */
+    private static DataSnapshot aggregate(Connection connection, String version, DataSnapshot base) throws SQLException {
+        int firstYear = base.firstYear;
+        int lastYear = base.lastYear;
+        double maxLossPercentage = base.maxLossPercentage;
+        String maxLossCommodity = base.maxLossCommodity;
+        int countryEventCount = base.countryEventCount;
+        int regionEventCount = base.regionEventCount;
+        long lastCountryRowid = base.lastCountryRowid;
+        long lastRegionRowid = base.lastRegionRowid;
+        boolean empty = countryEventCount + regionEventCount == 0;
+
+        // Counts, year range and last rowid of the new country and region events
+        PreparedStatement statement = connection.prepareStatement(
+            "SELECT 'country' AS events, COUNT(*) AS count, MIN(year) AS first_year, MAX(year) AS last_year, MAX(rowid) AS last_rowid " +
+            "FROM CountryLossEvent WHERE rowid > ? " +
+            "UNION ALL " +
+            "SELECT 'region', COUNT(*), MIN(year), MAX(year), MAX(rowid) " +
+            "FROM RegionLossEvent WHERE rowid > ?");
+        statement.setLong(1, lastCountryRowid);
+        statement.setLong(2, lastRegionRowid);
+        ResultSet result = statement.executeQuery();
+        while (result.next()) {
+            int count = result.getInt("count");
+            if (count == 0) {
+                continue;
+            }
+            if (result.getString("events").equals("country")) {
+                countryEventCount += count;
+                lastCountryRowid = result.getLong("last_rowid");
+            } else {
+                regionEventCount += count;
+                lastRegionRowid = result.getLong("last_rowid");
+            }
+            firstYear = empty ? result.getInt("first_year") : Math.min(firstYear, result.getInt("first_year"));
+            lastYear = empty ? result.getInt("last_year") : Math.max(lastYear, result.getInt("last_year"));
+            empty = false;
+        }
+        statement.close();
+
+        // Highest single loss percentage of any commodity
+        statement = connection.prepareStatement(
+            "SELECT e.percentage, cmd.commodityName " +
+            "FROM (SELECT cpc_code, percentage FROM CountryLossEvent WHERE rowid > ? " +
+            "      UNION ALL SELECT cpc_code, percentage FROM RegionLossEvent WHERE rowid > ?) e " +
+            "JOIN Commodity cmd ON cmd.cpc_code = e.cpc_code " +
+            "ORDER BY e.percentage DESC " +
+            "LIMIT 1");
+        statement.setLong(1, base.lastCountryRowid);
+        statement.setLong(2, base.lastRegionRowid);
+        result = statement.executeQuery();
+        if (result.next() && (maxLossCommodity.isEmpty() || result.getDouble("percentage") > maxLossPercentage)) {
+            maxLossPercentage = result.getDouble("percentage");
+            maxLossCommodity = result.getString("commodityName");
+        }
+        statement.close();
+
+        // Loss totals of each country and year, for the country whose average loss fell the most
+        HashMap<String, TreeMap<Integer, double[]>> yearTotals = new HashMap<String, TreeMap<Integer, double[]>>();
+        for (Map.Entry<String, TreeMap<Integer, double[]>> country : base.yearTotals.entrySet()) {
+            TreeMap<Integer, double[]> years = new TreeMap<Integer, double[]>();
+            for (Map.Entry<Integer, double[]> year : country.getValue().entrySet()) {
+                years.put(year.getKey(), year.getValue().clone());
+            }
+            yearTotals.put(country.getKey(), years);
+        }
+        statement = connection.prepareStatement(
+            "SELECT m49_code, year, SUM(percentage) AS total, COUNT(*) AS count " +
+            "FROM CountryLossEvent WHERE rowid > ? GROUP BY m49_code, year");
+        statement.setLong(1, base.lastCountryRowid);
+        result = statement.executeQuery();
+        while (result.next()) {
+            double[] total = yearTotals.computeIfAbsent(result.getString("m49_code"), code -> new TreeMap<Integer, double[]>())
+                                       .computeIfAbsent(result.getInt("year"), year -> new double[2]);
+            total[0] += result.getDouble("total");
+            total[1] += result.getInt("count");
+        }
+        statement.close();
+
+        // The rows merged must be all the rows there are, or something other than an append happened
+        Statement check = connection.createStatement();
+        result = check.executeQuery(
+            "SELECT (SELECT COUNT(*) FROM Country) AS country_count, " +
+            "       (SELECT COUNT(*) FROM CountryLossEvent) AS country_events, " +
+            "       (SELECT COUNT(*) FROM RegionLossEvent) AS region_events");
+        result.next();
+        int countryCount = result.getInt("country_count");
+        boolean complete = result.getInt("country_events") == countryEventCount && result.getInt("region_events") == regionEventCount;
+        check.close();
+        if (!complete) {
+            return null;
+        }
+
+        // Country whose average loss fell the most between its first and last year of data
+        String mostImprovedCode = null;
+        double mostImprovedChange = 0;
+        for (Map.Entry<String, TreeMap<Integer, double[]>> country : yearTotals.entrySet()) {
+            TreeMap<Integer, double[]> years = country.getValue();
+            if (years.size() < 2) {
+                continue;
+            }
+            double[] first = years.firstEntry().getValue();
+            double[] last = years.lastEntry().getValue();
+            double improvement = first[0] / first[1] - last[0] / last[1];
+            if (mostImprovedCode == null || improvement > mostImprovedChange) {
+                mostImprovedCode = country.getKey();
+                mostImprovedChange = improvement;
+            }
+        }
+        String mostImprovedCountry = "";
+        if (mostImprovedCode != null) {
+            statement = connection.prepareStatement("SELECT country_name FROM Country WHERE m49_code = ?");
+            statement.setString(1, mostImprovedCode);
+            result = statement.executeQuery();
+            if (result.next()) {
+                mostImprovedCountry = result.getString("country_name");
+            }
+            statement.close();
+        }
+
+        return new DataSnapshot(version, firstYear, lastYear, maxLossPercentage, maxLossCommodity,
+                                countryCount, countryEventCount, regionEventCount,
+                                mostImprovedCountry, mostImprovedChange,
+                                base.generation, lastCountryRowid, lastRegionRowid, yearTotals);
+    }
+
+    // Ingest generation of the database, 0 if it was not written by the ingest tool
+    private static long generation(Connection connection) {
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet result = statement.executeQuery("SELECT COALESCE(MAX(generation), 0) FROM IngestWatermark");
+                return result.next() ? result.getLong(1) : 0;
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Identifies which version of the food loss database the server is reading.
+ * <p>
+ * The version is built from the size and modification time of the database file,
+ * plus the "file change counter" SQLite keeps in bytes 24-27 of the file header
+ * (bumped on every committed write) and, where the file system has one, the file's
+ * identity (its inode), so a new database renamed over the old one by the ingest tool
+ * is seen even if the rest happen to match. Anything cached from the database is tagged with
+ * this version so it can be thrown away when the database changes.
+ * The file is checked at most once a second.
+ */
+public class DatasetVersion {
+
+    public static final String DATABASE_FILE = "database/food_loss.db";
+
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    private static volatile String version = null;
+    private static volatile long lastChecked = 0;
+
+    /**
+     * Get the version of the database file as it is now.
+     */
+    public static String current() {
+        long now = System.currentTimeMillis();
+        if (version == null || now - lastChecked >= CHECK_INTERVAL_MS) {
+            version = read(new File(DATABASE_FILE));
+            lastChecked = now;
+        }
+        return version;
+    }
+
+    /**
+     * Read the version of the database file now rather than at the next check, after
+     * replacing it.
+     */
+    public static String refresh() {
+        lastChecked = 0;
+        return current();
+    }
+
+    private static String read(File file) {
+        if (!file.exists()) {
+            return "missing";
+        }
+
+        int changeCounter = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() >= 28) {
+                raf.seek(24);
+                changeCounter = raf.readInt();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read database header: " + e.getMessage());
+        }
+
+        // Something like "(dev=803,ino=1234)", or null where the file system has no such thing
+        String identity = "";
+        try {
+            Object fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+            if (fileKey != null) {
+                identity = "-" + fileKey.toString().replaceAll("\\W+", "");
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read database attributes: " + e.getMessage());
+        }
+
+        return file.length() + "-" + file.lastModified() + "-" + changeCounter + identity;
+    }
+}
@@ -0,0 +1,141 @@
+package app;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Second cache tier behind ResultCache, stored in a sidecar SQLite database so cached
+ * analysis results survive a restart.
+ * <p>
+ * Every entry is tagged with the DatasetVersion it was computed from. Only entries of the
+ * current version are loaded, once at startup into ResultCache, and entries from older
+ * versions are deleted when the cache is opened, so a new food_loss.db automatically
+ * invalidates everything. Requests never read the file, so they never wait on its writes.
+ * <p>
+ * Writes are queued onto a single background thread so a page never waits on them.
+ * Set -Dcache.disk=off to disable, or -Dcache.disk=path/to/file.db to move the file.
+ */
+public class DiskCache {
+
+    public static final String FILE = System.getProperty("cache.disk", "database/result_cache.db");
+    public static final boolean ENABLED = !FILE.equalsIgnoreCase("off");
+
+    private static Connection connection = null;
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "disk-cache-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Open (creating if needed) the cache file and drop entries from other dataset versions.
+     */
+    public static synchronized void open() {
+        if (!ENABLED || connection != null) {
+            return;
+        }
+
+        try {
+            connection = DriverManager.getConnection("jdbc:sqlite:" + FILE);
+
+            Statement statement = connection.createStatement();
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA synchronous = NORMAL");
+            statement.execute("CREATE TABLE IF NOT EXISTS ResultCache ( " +
+                              "    dataset_version TEXT NOT NULL, " +
+                              "    cache_key       TEXT NOT NULL, " +
+                              "    result          TEXT NOT NULL, " +
+                              "    PRIMARY KEY (dataset_version, cache_key) " +
+                              ")");
+            statement.close();
+
+            purgeOtherVersions(DatasetVersion.current());
+        } catch (SQLException e) {
+            System.err.println("Could not open disk cache " + FILE + ": " + e.getMessage());
+            connection = null;
+        }
+    }
+
+    /**
+     * Load every entry for the given version, used to fill the memory tier on startup.
+     */
+    public static synchronized HashMap<String, String> loadAll(String datasetVersion, int limit) {
+        HashMap<String, String> entries = new HashMap<String, String>();
+        if (connection == null) {
+            return entries;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT cache_key, result FROM ResultCache WHERE dataset_version = ? LIMIT ?")) {
+            statement.setString(1, datasetVersion);
+            statement.setInt(2, limit);
+            ResultSet results = statement.executeQuery();
+            while (results.next()) {
+                entries.put(results.getString("cache_key"), results.getString("result"));
+            }
+        } catch (SQLException e) {
+            System.err.println("Disk cache load failed: " + e.getMessage());
+        }
+        return entries;
+    }
+
+    /**
+     * Queue a result to be written to disk.
+     */
+    public static void put(String datasetVersion, String key, String result) {
+        if (connection == null) {
+            return;
+        }
+        WRITER.execute(() -> write(datasetVersion, key, result));
+    }
+
+    /**
+     * Queue removal of every entry that does not belong to the given version.
+     */
+    public static void invalidate(String datasetVersion) {
+        if (connection == null) {
+            return;
+        }
+        WRITER.execute(() -> purgeOtherVersions(datasetVersion));
+    }
+
+    private static synchronized void write(String datasetVersion, String key, String result) {
+        if (connection == null) {
+            return;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT OR REPLACE INTO ResultCache (dataset_version, cache_key, result) VALUES (?, ?, ?)")) {
+            statement.setString(1, datasetVersion);
+            statement.setString(2, key);
+            statement.setString(3, result);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Disk cache write failed: " + e.getMessage());
+        }
+    }
+
+    private static synchronized void purgeOtherVersions(String datasetVersion) {
+        if (connection == null) {
+            return;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(
+                "DELETE FROM ResultCache WHERE dataset_version <> ?")) {
+            statement.setString(1, datasetVersion);
+            int removed = statement.executeUpdate();
+            if (removed > 0) {
+                System.out.println("Disk cache: removed " + removed + " results from older datasets");
+            }
+        } catch (SQLException e) {
+            System.err.println("Disk cache purge failed: " + e.getMessage());
+        }
+    }
+}
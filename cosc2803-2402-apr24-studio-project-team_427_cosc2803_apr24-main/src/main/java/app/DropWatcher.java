@@ -0,0 +1,322 @@
+package app;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import helper.DatabaseSwap;
+import helper.IngestReport;
+import helper.IngestRunner;
+
+/**
+ * Loads FoodLoss extracts dropped into a directory while the server runs.
+ * <p>
+ * Each .csv file that appears in the directory is a complete FoodLoss.csv extract. Once it
+ * has stopped growing for SETTLE_MS (so a file still being copied in is not read half
+ * written), it replaces database/FoodLoss.csv and the database is brought up to date with
+ * it, the same as running helper.IngestRunner: only the rows appended since the last
+ * extract are loaded if it starts with the one before, otherwise the tables are rebuilt.
+ * The load is built in a copy of the database and swapped in (see helper.DatabaseSwap), so
+ * pages read the old dataset until the new one is complete and then all at once see the
+ * new DatasetVersion, which moves the caches and the data snapshot over.
+ * <p>
+ * Files are loaded one at a time, oldest first, on one thread of the lowest priority whose
+ * stages also run at that priority, and the load never writes to the file the pages read,
+ * so requests are not held up while it runs. (The JVM only passes thread priorities on to
+ * the operating system on some platforms.) A loaded extract's report is written to done/,
+ * and an extract that fails is moved to failed/ with the error, leaving the dataset as it was.
+ * <p>
+ * The backlog, the load running now and its progress, and the outcome of the last load are
+ * shown on the STATUS_URL route.
+ * <p>
+ * Configured with system properties:
+ *    -Ddrop=database/incoming   the directory to watch; no directory is watched if unset
+ *    -Ddrop.settle=2000         milliseconds a file must be unchanged before it is loaded
+ */
+public class DropWatcher implements Runnable {
+
+    public static final String STATUS_URL = "/status/ingest";
+
+    public static final String DIRECTORY = System.getProperty("drop", "");
+    public static final long SETTLE_MS = Long.getLong("drop.settle", 2000);
+
+    private static final String FOOD_CSV_FILE = "database/FoodLoss.csv";
+    private static final String CPC_CSV_FILE = "database/CPC.csv";
+
+    private static volatile DropWatcher watcher = null;
+
+    private final Path directory;
+
+    // Files waiting to be loaded, oldest first, to {size, modified time, time they were last seen to change}
+    private final LinkedHashMap<Path, long[]> backlog = new LinkedHashMap<Path, long[]>();
+
+    private volatile Path loading = null;
+    private volatile long loadingSince = 0;
+    private volatile int loaded = 0;
+    private volatile int failed = 0;
+    private volatile String last = "none yet";
+
+    private DropWatcher(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Start watching the DIRECTORY in the background, if one is set.
+     */
+    public static void start() {
+        if (DIRECTORY.isEmpty()) {
+            return;
+        }
+        Path directory = Paths.get(DIRECTORY);
+        try {
+            Files.createDirectories(directory.resolve("done"));
+            Files.createDirectories(directory.resolve("failed"));
+        } catch (IOException e) {
+            System.err.println("Could not create drop directory " + directory + ": " + e.getMessage());
+            return;
+        }
+
+        watcher = new DropWatcher(directory);
+        Thread thread = new Thread(watcher, "drop-watcher");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Watching " + directory + " for FoodLoss extracts");
+    }
+
+    @Override
+    public void run() {
+        WatchService watch = null;
+        try {
+            watch = FileSystems.getDefault().newWatchService();
+            directory.register(watch, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+            // Anything dropped while the server was down
+            scan();
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watch.poll(SETTLE_MS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan();
+                        } else {
+                            add(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+
+                Path file = settled();
+                if (file != null) {
+                    load(file);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Stopped watching " + directory + ": " + e.getMessage());
+        } finally {
+            try {
+                if (watch != null) {
+                    watch.close();
+                }
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    // Add every extract already in the directory
+    private void scan() throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{csv,CSV}");
+        try {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } finally {
+            stream.close();
+        }
+        // Oldest first, as if they had been seen arriving
+        files.sort((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()));
+        for (Path file : files) {
+            add(file);
+        }
+    }
+
+    private void add(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.toLowerCase().endsWith(".csv") || name.startsWith(".") || !Files.isRegularFile(file)) {
+            return;
+        }
+        synchronized (backlog) {
+            backlog.putIfAbsent(file, new long[] { -1, -1, System.currentTimeMillis() });
+        }
+    }
+
+    /**
+     * The oldest file in the backlog if it has not changed for SETTLE_MS, otherwise null.
+     * A newer file never goes first: each extract replaces the one before, so loading them
+     * out of order would leave an older dataset published.
+     */
+    private Path settled() {
+        long now = System.currentTimeMillis();
+        synchronized (backlog) {
+            Iterator<Map.Entry<Path, long[]>> entries = backlog.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Path, long[]> entry = entries.next();
+                Path file = entry.getKey();
+                long[] seen = entry.getValue();
+                if (!Files.isRegularFile(file)) {
+                    // Taken away again before it was loaded
+                    entries.remove();
+                    continue;
+                }
+                long size = file.toFile().length();
+                long modified = file.toFile().lastModified();
+                if (size != seen[0] || modified != seen[1]) {
+                    seen[0] = size;
+                    seen[1] = modified;
+                    seen[2] = now;
+                } else if (now - seen[2] >= SETTLE_MS) {
+                    entries.remove();
+                    return file;
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // Load one extract and publish the dataset built from it
+    private void load(Path file) {
+        String name = file.getFileName().toString();
+        Path live = Paths.get(FOOD_CSV_FILE);
+        Path previous = live.resolveSibling(live.getFileName() + ".previous");
+        loading = file;
+        loadingSince = System.currentTimeMillis();
+        System.out.println("Loading dropped extract " + file);
+
+        boolean replaced = false;
+        try {
+            IngestReport report;
+            try {
+                // Keep the extract loaded before, to put back if this one fails
+                if (Files.exists(live)) {
+                    Files.copy(live, previous, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    Files.deleteIfExists(previous);
+                }
+                Files.move(file, live, StandardCopyOption.REPLACE_EXISTING);
+                replaced = true;
+
+                report = DatabaseSwap.update(JDBCConnection.DATABASE, FOOD_CSV_FILE, CPC_CSV_FILE, false);
+            } catch (Exception e) {
+                failed++;
+                last = String.format("%s failed after %d ms: %s", name, System.currentTimeMillis() - loadingSince, e);
+                System.err.println("Dropped extract " + last);
+                fail(file, live, previous, replaced, e);
+                return;
+            }
+
+            // The new dataset is live once update() returns, so from here a failure is only logged:
+            // putting the old extract back would leave it out of step with the database
+            published(name, report);
+            loaded++;
+            last = String.format("%s loaded in %d ms, %d rows, %d unmatched codes and records", name,
+                                 System.currentTimeMillis() - loadingSince, report.loadedRows(), report.unmatchedCount());
+            System.out.println("Dropped extract " + last);
+        } finally {
+            loading = null;
+        }
+    }
+
+    // Write the report of a loaded extract to done/ and publish the new dataset
+    private void published(String name, IngestReport report) {
+        try {
+            report.write(directory.resolve("done").resolve(name + ".txt").toString());
+        } catch (IOException e) {
+            System.err.println("Could not write the report of dropped extract " + name + ": " + e.getMessage());
+        }
+        try {
+            // Publish now rather than at the next version check, and start the new snapshot
+            DatasetVersion.refresh();
+            DataSnapshot.current();
+        } catch (RuntimeException e) {
+            // The next version check publishes it instead
+            System.err.println("Could not publish dropped extract " + name + " straight away: " + e);
+        }
+    }
+
+    // Put the previous extract back and move the one that failed to failed/, with its error
+    private void fail(Path file, Path live, Path previous, boolean replaced, Exception error) {
+        Path failedDirectory = directory.resolve("failed");
+        String name = file.getFileName().toString();
+        try {
+            if (replaced) {
+                Files.move(live, failedDirectory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+                if (Files.exists(previous)) {
+                    Files.move(previous, live, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } else if (Files.exists(file)) {
+                Files.move(file, failedDirectory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            }
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            Files.writeString(failedDirectory.resolve(name + ".txt"), trace.toString());
+        } catch (IOException e) {
+            System.err.println("Could not move failed extract " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The backlog, the load running now and the outcome of the last one, as text.
+     */
+    public static String status() {
+        DropWatcher current = watcher;
+        if (current == null) {
+            return "No drop directory is watched (start the server with -Ddrop=<directory>)" + System.lineSeparator();
+        }
+
+        List<String> waiting = new ArrayList<String>();
+        synchronized (current.backlog) {
+            for (Path file : current.backlog.keySet()) {
+                waiting.add(file.getFileName().toString());
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Drop directory: %s%n", current.directory));
+        report.append(String.format("Backlog: %d files%s%n", waiting.size(),
+                                    waiting.isEmpty() ? "" : " (" + String.join(", ", waiting) + ")"));
+        Path file = current.loading;
+        if (file == null) {
+            report.append(String.format("Loading: nothing%n"));
+        } else {
+            String progress = IngestRunner.progress();
+            report.append(String.format("Loading: %s for %d ms%s%n", file.getFileName(),
+                                        System.currentTimeMillis() - current.loadingSince,
+                                        progress == null ? "" : ", " + progress));
+        }
+        report.append(String.format("Loaded: %d, failed: %d%n", current.loaded, current.failed));
+        report.append(String.format("Last: %s%n", current.last));
+        report.append(String.format("Dataset version: %s%n", DatasetVersion.current()));
+        return report.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package app;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The option lists of the page dropdowns, rendered once per DatasetVersion from the
+ * "layout :: options" fragment and then reused by every request.
+ */
+public class Dropdowns {
+
+    private static final ConcurrentHashMap<String, String> OPTIONS = new ConcurrentHashMap<String, String>();
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    // Dataset version the cached options were rendered from
+    private static volatile String cachedVersion = null;
+
+    public static String countries() {
+        return options("countries", "SELECT country_name FROM Country ORDER BY country_name ASC", "");
+    }
+
+    public static String regions() {
+        return options("regions", "SELECT region_name FROM Region " +
+                                  "WHERE region_name <> '' AND region_name <> '-' AND region_name <> 'none' " +
+                                  "ORDER BY region_name ASC", "");
+    }
+
+    public static String foodGroups() {
+        return options("foodGroups", "SELECT descriptor FROM CommodityGroup", "");
+    }
+
+    // Page 3B expects each commodity value to end in "_value"
+    public static String foods() {
+        return options("foods", "SELECT commodityName FROM Commodity ORDER BY commodityName ASC", "_value");
+    }
+
+    public static long hits() {
+        return HITS.get();
+    }
+
+    public static long misses() {
+        return MISSES.get();
+    }
+
+    private static String options(String name, String query, String suffix) {
+        String version = DatasetVersion.current();
+        if (!version.equals(cachedVersion)) {
+            OPTIONS.clear();
+            cachedVersion = version;
+        }
+
+        String options = OPTIONS.get(name);
+        if (options != null) {
+            HITS.incrementAndGet();
+            return options;
+        }
+
+        MISSES.incrementAndGet();
+        ArrayList<String> names = names(query);
+        options = Templates.renderToString("layout", "options", Map.of("names", names, "suffix", suffix));
+        if (!names.isEmpty()) {
+            OPTIONS.put(name, options);
+        }
+        return options;
+    }
+
+    private static ArrayList<String> names(String query) {
+        ArrayList<String> names = new ArrayList<String>();
+
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(JDBCConnection.DATABASE);
+            Statement statement = connection.createStatement();
+            ResultSet result = statement.executeQuery(query);
+            while (result.next()) {
+                names.add(result.getString(1));
+            }
+            statement.close();
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        return names;
+    }
+}
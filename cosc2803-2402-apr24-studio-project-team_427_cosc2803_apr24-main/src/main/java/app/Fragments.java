@@ -0,0 +1,65 @@
+package app;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import io.javalin.http.Context;
+
+/**
+ * Result blocks that a page loads after it has been sent.
+ * <p>
+ * Pages 3A and 3B answer a form POST with the filters and a placeholder for each result
+ * block straight away. The "layout :: loader" script then fetches every placeholder's
+ * fragment URL at once, so each block appears as soon as its own query finishes and a
+ * slow block does not hold up the others. Fragment URLs carry the form fields as query
+ * parameters, so they are plain GETs that InputValidator checks and browsers may cache.
+ */
+public class Fragments {
+
+    /**
+     * url with the fields of the form just submitted as query parameters, less the page cursor.
+     */
+    public static String link(Context context, String url) {
+        StringBuilder link = new StringBuilder(url);
+        char separator = '?';
+        for (Map.Entry<String, List<String>> field : context.formParamMap().entrySet()) {
+            if (field.getKey().equals(PageCursor.FORM_FIELD)) {
+                continue;
+            }
+            for (String value : field.getValue()) {
+                link.append(separator).append(encode(field.getKey())).append('=').append(encode(value));
+                separator = '&';
+            }
+        }
+        return link.toString();
+    }
+
+    /**
+     * Write a placeholder that the loader script replaces with the HTML from url.
+     */
+    public static void placeholder(HtmlStream html, String url) throws IOException {
+        placeholder(html, url, null);
+    }
+
+    /**
+     * Write a placeholder that the loader script fills from the events of stream (see
+     * SimilarityStream), falling back to the HTML from url if the stream cannot be read.
+     */
+    public static void placeholder(HtmlStream html, String url, String stream) throws IOException {
+        StringBuilder div = new StringBuilder("<div class='fragment' data-fragment='");
+        HtmlTable.escape(div, url);
+        if (stream != null) {
+            div.append("' data-stream='");
+            HtmlTable.escape(div, stream);
+        }
+        div.append("'><p class='loading'>Loading results...</p></div>");
+        html.append(div);
+    }
+
+    static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
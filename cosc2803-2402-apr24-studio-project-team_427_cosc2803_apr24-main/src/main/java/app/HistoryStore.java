@@ -0,0 +1,28 @@
+package app;
+
+import io.javalin.http.Context;
+
+/**
+ * Where each page keeps the InputHistory of a user's session.
+ * <p>
+ * The store is picked once at startup with -Dhistory.store:
+ *    session  (default) an InputHistory per page in the HTTP session
+ *    sqlite   encoded histories in a sidecar SQLite file, keeping them off the heap
+ */
+public interface HistoryStore {
+
+    HistoryStore STORE = System.getProperty("history.store", "session").equalsIgnoreCase("sqlite")
+                         ? new SqliteHistoryStore()
+                         : new SessionHistoryStore();
+
+    /**
+     * Get the history of a page for this request's session.
+     * Requests without a session get an empty history, and no session is created.
+     */
+    InputHistory load(Context context, String page);
+
+    /**
+     * Store the history of a page for this request's session, creating the session if needed.
+     */
+    void save(Context context, String page, InputHistory history);
+}
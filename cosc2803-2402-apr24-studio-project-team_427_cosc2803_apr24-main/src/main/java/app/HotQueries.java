@@ -0,0 +1,67 @@
+package app;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The queries the pages, exports and JSON API run against the food loss tables, by name.
+ * <p>
+ * The ingest tool checks the query plan of each of these after a load (see
+ * helper.PostLoad), so a query added here that would scan a whole table fails the load
+ * instead of slowing down the pages. Queries formatted with a sort order are registered
+ * with ASC; the plan is the same either way. The paged "show all data" tables of 2A and 2B
+ * are registered for the first page and for a later one, built from a representative
+ * cursor, as a later page adds the key of the last row shown to the WHERE clause.
+ */
+public class HotQueries {
+
+    private static final Map<String, String> QUERIES = new LinkedHashMap<String, String>();
+
+    static {
+        QUERIES.put("JDBCConnection.SQL_2A_FIRST_YEAR", JDBCConnection.SQL_2A_FIRST_YEAR);
+        QUERIES.put("JDBCConnection.SQL_2A_LAST_YEAR", JDBCConnection.SQL_2A_LAST_YEAR);
+        QUERIES.put("JDBCConnection.SQL_2A_YEAR", JDBCConnection.SQL_2A_YEAR);
+        QUERIES.put("JDBCConnection.SQL_3A_PERCENTAGE_COUNTRY", JDBCConnection.SQL_3A_PERCENTAGE_COUNTRY);
+        QUERIES.put("JDBCConnection.SQL_3A_PERCENTAGE_REGION", JDBCConnection.SQL_3A_PERCENTAGE_REGION);
+        QUERIES.put("JDBCConnection.SQL_3A_ABS", JDBCConnection.SQL_3A_ABS);
+        QUERIES.put("JDBCConnection.SQL_3A_ABS_REGION", JDBCConnection.SQL_3A_ABS_REGION);
+        QUERIES.put("JDBCConnection.SQL_3A_OVERLAP", JDBCConnection.SQL_3A_OVERLAP);
+        QUERIES.put("JDBCConnection.SQL_3A_OVERLAP_REGION", JDBCConnection.SQL_3A_OVERLAP_REGION);
+        QUERIES.put("JDBCConnection.SQL_3A_BOTH_ABS", JDBCConnection.SQL_3A_BOTH_ABS);
+        QUERIES.put("JDBCConnection.SQL_3A_BOTH_OVERLAP", JDBCConnection.SQL_3A_BOTH_OVERLAP);
+        QUERIES.put("JDBCConnection.SQL_3A_SELECTED_COUNTRY", JDBCConnection.SQL_3A_SELECTED_COUNTRY);
+        QUERIES.put("JDBCConnection.SQL_3A_COUNTRY_COMMODITIES", JDBCConnection.SQL_3A_COUNTRY_COMMODITIES);
+        QUERIES.put("JDBCConnection.SQL_3A_SELECTED_REGION", JDBCConnection.SQL_3A_SELECTED_REGION);
+        QUERIES.put("JDBCConnection.SQL_3A_REGION_COMMODITIES", JDBCConnection.SQL_3A_REGION_COMMODITIES);
+        QUERIES.put("JDBCConnection.SQL_3B_HIGHEST", JDBCConnection.SQL_3B_HIGHEST);
+        QUERIES.put("JDBCConnection.SQL_3B_LOWEST", JDBCConnection.SQL_3B_LOWEST);
+        QUERIES.put("JDBCConnection.SQL_3B_RATIO_GROUPS", JDBCConnection.SQL_3B_RATIO_GROUPS);
+        QUERIES.put("JDBCConnection.SQL_3B_RATIO", JDBCConnection.SQL_3B_RATIO);
+        QUERIES.put("JDBCConnection.SQL_3B_SELECTED_HIGHEST", JDBCConnection.SQL_3B_SELECTED_HIGHEST);
+        QUERIES.put("JDBCConnection.SQL_3B_SELECTED_LOWEST", JDBCConnection.SQL_3B_SELECTED_LOWEST);
+        QUERIES.put("CsvExport.SQL_2A_EVENTS", CsvExport.SQL_2A_EVENTS.formatted("ASC", "ASC"));
+        QUERIES.put("CsvExport.SQL_2B_EVENTS", CsvExport.SQL_2B_EVENTS.formatted("ASC", "ASC"));
+        PageCursor later = PageCursor.at(2000, 10.0, 1);
+        QUERIES.put("JDBCConnection.sql2AResults, first page", JDBCConnection.sql2AResults(true, true, true, true, "ASC", PageCursor.FIRST));
+        QUERIES.put("JDBCConnection.sql2AResults, later page", JDBCConnection.sql2AResults(true, true, true, true, "ASC", later));
+        QUERIES.put("JDBCConnection.sql2AResults, no commodity", JDBCConnection.sql2AResults(false, false, false, false, "ASC", later));
+        QUERIES.put("JDBCConnection.sql2ACount", JDBCConnection.sql2ACount(true));
+        QUERIES.put("JDBCConnection.sql2ACount, no commodity", JDBCConnection.sql2ACount(false));
+        QUERIES.put("ST2BFilter.sqlResults, first page", ST2BFilter.sqlResults("Asc", PageCursor.FIRST));
+        QUERIES.put("ST2BFilter.sqlResults, later page", ST2BFilter.sqlResults("Asc", later));
+        QUERIES.put("ST2BFilter.SQL_COUNT", ST2BFilter.SQL_COUNT);
+        QUERIES.put("ST2BFilter.SQL_FIRST_YEAR", ST2BFilter.SQL_FIRST_YEAR);
+        QUERIES.put("ST2BFilter.SQL_LAST_YEAR", ST2BFilter.SQL_LAST_YEAR);
+        QUERIES.put("SimilarityStream.SQL_TARGET", SimilarityStream.SQL_TARGET);
+        QUERIES.put("SimilarityStream.SQL_CANDIDATES", SimilarityStream.SQL_CANDIDATES);
+        QUERIES.put("SimilarityStream.SQL_SCORE", SimilarityStream.SQL_SCORE);
+    }
+
+    /**
+     * Every registered query, by name, in the order they were registered.
+     */
+    public static Map<String, String> all() {
+        return Collections.unmodifiableMap(QUERIES);
+    }
+}
@@ -0,0 +1,96 @@
+package app;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import io.javalin.http.Context;
+
+/**
+ * Writes a page straight to the HTTP response instead of building it in memory.
+ * <p>
+ * Handlers append to it the same way they appended to a StringBuilder, call flush()
+ * once the top of the page (head, nav and filters) is written so the browser can start
+ * rendering, and pass it to the JDBC methods that write large tables row by row.
+ * Memory use per request stays the same however big the page is. The page is
+ * compressed on the way out if the browser accepts it (see Compression).
+ */
+public class HtmlStream implements Appendable, AutoCloseable {
+
+    private final OutputStream out;
+    private final Writer writer;
+
+    private HtmlStream(OutputStream out) {
+        this.out = out;
+
+        // Flushing the writer only hands its encoded bytes to the response buffer. Renderers
+        // flush when they finish, so only flush() below sends output and commits the response.
+        this.writer = new OutputStreamWriter(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            @Override
+            public void flush() {
+            }
+        }, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Start an HTML response for this request.
+     */
+    public static HtmlStream open(Context context) throws IOException {
+        context.contentType("text/html; charset=utf-8");
+        return new HtmlStream(Compression.open(context));
+    }
+
+    @Override
+    public HtmlStream append(CharSequence html) throws IOException {
+        writer.append(html);
+        return this;
+    }
+
+    @Override
+    public HtmlStream append(CharSequence html, int start, int end) throws IOException {
+        writer.append(html, start, end);
+        return this;
+    }
+
+    @Override
+    public HtmlStream append(char c) throws IOException {
+        writer.append(c);
+        return this;
+    }
+
+    /**
+     * The underlying writer, for renderers that need a Writer (see Templates).
+     */
+    Writer writer() {
+        return writer;
+    }
+
+    /**
+     * Write bytes that are already UTF-8 encoded (see Layout) after the text written so far.
+     */
+    public void write(byte[] bytes) throws IOException {
+        writer.flush();
+        out.write(bytes);
+    }
+
+    /**
+     * Send everything written so far to the browser.
+     */
+    public void flush() throws IOException {
+        writer.flush();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,225 @@
+package app;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Writes a ResultSet as an HTML table, described by a list of columns.
+ * <p>
+ * Rows are written into one reused, pre-sized buffer that is passed on to the output
+ * every BUFFER_SIZE characters. Numbers are formatted with fixed precision by hand and
+ * text is escaped character by character, so writing a row parses no format strings
+ * and creates no Strings beyond the ones the ResultSet returns.
+ * <pre>
+ *    new HtmlTable("results-table")
+ *        .text("Country", "country_name")
+ *        .decimal("Percentage", "percentage", 2, "%")
+ *        .write(out, resultSet);
+ * </pre>
+ */
+public class HtmlTable {
+
+    // Characters buffered before they are passed to the output
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final long[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000, 100000, 1000000 };
+
+    private enum Kind { TEXT, INTEGER, DECIMAL }
+
+    private static class Column {
+        String header;
+        String name;
+        Kind kind;
+        int places;
+        String suffix = "";
+        // Raw HTML shown for empty text, or for decimals below minimum
+        String fallback = null;
+        double minimum = Double.NEGATIVE_INFINITY;
+    }
+
+    private final String cssClass;
+    private final ArrayList<Column> columns = new ArrayList<Column>();
+
+    public HtmlTable(String cssClass) {
+        this.cssClass = cssClass;
+    }
+
+    /**
+     * A text column, HTML escaped.
+     */
+    public HtmlTable text(String header, String name) {
+        return add(header, name, Kind.TEXT);
+    }
+
+    /**
+     * A text column, showing the raw HTML whenEmpty if the value is null or empty.
+     */
+    public HtmlTable text(String header, String name, String whenEmpty) {
+        text(header, name);
+        last().fallback = whenEmpty;
+        return this;
+    }
+
+    public HtmlTable integer(String header, String name) {
+        return add(header, name, Kind.INTEGER);
+    }
+
+    /**
+     * A number column shown with a fixed number of decimal places (at most 6) and a suffix.
+     */
+    public HtmlTable decimal(String header, String name, int places, String suffix) {
+        add(header, name, Kind.DECIMAL);
+        last().places = Math.min(places, POWERS_OF_TEN.length - 1);
+        last().suffix = suffix;
+        return this;
+    }
+
+    /**
+     * A number column showing the raw HTML belowMinimum for values not above minimum.
+     */
+    public HtmlTable decimal(String header, String name, int places, String suffix, double minimum, String belowMinimum) {
+        decimal(header, name, places, suffix);
+        last().minimum = minimum;
+        last().fallback = belowMinimum;
+        return this;
+    }
+
+    /**
+     * Write the table, its header row and one row for each remaining row of rows.
+     */
+    public void write(Appendable out, ResultSet rows) throws SQLException, IOException {
+        write(out, rows, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Write the table with at most maxRows rows, returning the number written.
+     * rows is left on the last row written, so its key can be read for the next page.
+     */
+    public int write(Appendable out, ResultSet rows, int maxRows) throws SQLException, IOException {
+        // Look up each column once rather than by name on every row
+        int[] indexes = new int[columns.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = rows.findColumn(columns.get(i).name);
+        }
+
+        StringBuilder buffer = new StringBuilder(BUFFER_SIZE + 1024);
+        buffer.append("<table class='").append(cssClass).append("'>\n<tr>");
+        for (Column column : columns) {
+            buffer.append("<th>");
+            escape(buffer, column.header);
+            buffer.append("</th>");
+        }
+        buffer.append("</tr>\n");
+
+        int written = 0;
+        while (written < maxRows && rows.next()) {
+            written++;
+            buffer.append("<tr>");
+            for (int i = 0; i < indexes.length; i++) {
+                buffer.append("<td>");
+                writeCell(buffer, columns.get(i), rows, indexes[i]);
+                buffer.append("</td>");
+            }
+            buffer.append("</tr>\n");
+
+            if (buffer.length() >= BUFFER_SIZE) {
+                out.append(buffer);
+                buffer.setLength(0);
+            }
+        }
+
+        buffer.append("</table>\n");
+        out.append(buffer);
+        return written;
+    }
+
+    private static void writeCell(StringBuilder buffer, Column column, ResultSet rows, int index) throws SQLException {
+        switch (column.kind) {
+            case INTEGER:
+                buffer.append(rows.getLong(index));
+                break;
+            case DECIMAL:
+                double value = rows.getDouble(index);
+                if (value > column.minimum || column.fallback == null) {
+                    appendFixed(buffer, value, column.places);
+                    buffer.append(column.suffix);
+                } else {
+                    buffer.append(column.fallback);
+                }
+                break;
+            default:
+                String text = rows.getString(index);
+                if ((text == null || text.isEmpty()) && column.fallback != null) {
+                    buffer.append(column.fallback);
+                } else if (text != null) {
+                    escape(buffer, text);
+                }
+        }
+    }
+
+    /**
+     * Append value rounded half up to the given number of decimal places (at most 6), the
+     * same digits String.format("%.2f") gives.
+     */
+    public static void appendFixed(StringBuilder buffer, double value, int places) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            buffer.append(value);
+            return;
+        }
+
+        long scale = POWERS_OF_TEN[places];
+        double shifted = Math.abs(value) * scale;
+        long scaled = Math.round(shifted);
+        // Near a half the binary product can land on the wrong side (2.425 * 100 is 242.4999...),
+        // so those few values are rounded from their decimal form, as String.format does
+        if (Math.abs(shifted - Math.floor(shifted) - 0.5) < 1e-6) {
+            scaled = BigDecimal.valueOf(Math.abs(value)).setScale(places, RoundingMode.HALF_UP).unscaledValue().longValue();
+        }
+        if (value < 0 && scaled != 0) {
+            buffer.append('-');
+        }
+        buffer.append(scaled / scale);
+        if (places > 0) {
+            buffer.append('.');
+            long fraction = scaled % scale;
+            for (long digit = scale / 10; digit > fraction && digit > 1; digit /= 10) {
+                buffer.append('0');
+            }
+            buffer.append(fraction);
+        }
+    }
+
+    /**
+     * Append text with the HTML special characters escaped.
+     */
+    public static void escape(StringBuilder buffer, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':  buffer.append("&amp;"); break;
+                case '<':  buffer.append("&lt;"); break;
+                case '>':  buffer.append("&gt;"); break;
+                case '"':  buffer.append("&quot;"); break;
+                case '\'': buffer.append("&#39;"); break;
+                default:   buffer.append(c);
+            }
+        }
+    }
+
+    private HtmlTable add(String header, String name, Kind kind) {
+        Column column = new Column();
+        column.header = header;
+        column.name = name;
+        column.kind = kind;
+        columns.add(column);
+        return this;
+    }
+
+    private Column last() {
+        return columns.get(columns.size() - 1);
+    }
+}
@@ -0,0 +1,108 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The last few form inputs a user submitted on one page.
+ * <p>
+ * Entries are kept in a fixed-size ring buffer, so adding never shifts or grows anything
+ * and the oldest entry is simply overwritten. Each entry is stored as a single String with
+ * its fields separated by a control character, rather than a List of Strings, which keeps
+ * the per-session footprint to a handful of objects. encode() and decode() turn the whole
+ * history into one String for stores that keep it outside the session.
+ */
+public class InputHistory {
+
+    public static final int CAPACITY = 5;
+
+    // Separates fields within an entry, and entries within an encoded history
+    private static final char FIELD_SEPARATOR = '\u001f';
+    private static final char ENTRY_SEPARATOR = '\u001e';
+
+    private final String[] entries = new String[CAPACITY];
+    private int next = 0;
+    private int size = 0;
+
+    /**
+     * Add an entry, replacing the oldest one once the history is full.
+     */
+    public synchronized void add(String... fields) {
+        StringBuilder entry = new StringBuilder();
+        for (int i = 0; i < fields.length; ++i) {
+            if (i > 0) {
+                entry.append(FIELD_SEPARATOR);
+            }
+            entry.append(clean(fields[i]));
+        }
+
+        entries[next] = entry.toString();
+        next = (next + 1) % CAPACITY;
+        size = Math.min(size + 1, CAPACITY);
+    }
+
+    /**
+     * Get the entries from oldest to newest, each split back into its fields.
+     */
+    public synchronized List<String[]> entries() {
+        List<String[]> list = new ArrayList<String[]>(size);
+        int first = (next - size + CAPACITY) % CAPACITY;
+        for (int i = 0; i < size; ++i) {
+            list.add(split(entries[(first + i) % CAPACITY], FIELD_SEPARATOR));
+        }
+        return list;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Encode the whole history as one String, oldest entry first.
+     */
+    public synchronized String encode() {
+        StringBuilder encoded = new StringBuilder();
+        int first = (next - size + CAPACITY) % CAPACITY;
+        for (int i = 0; i < size; ++i) {
+            if (i > 0) {
+                encoded.append(ENTRY_SEPARATOR);
+            }
+            encoded.append(entries[(first + i) % CAPACITY]);
+        }
+        return encoded.toString();
+    }
+
+    public static InputHistory decode(String encoded) {
+        InputHistory history = new InputHistory();
+        if (encoded == null || encoded.isEmpty()) {
+            return history;
+        }
+        for (String entry : split(encoded, ENTRY_SEPARATOR)) {
+            history.entries[history.next] = entry;
+            history.next = (history.next + 1) % CAPACITY;
+            history.size = Math.min(history.size + 1, CAPACITY);
+        }
+        return history;
+    }
+
+    // Form values are user input, so make sure they cannot break the encoding
+    private static String clean(String field) {
+        if (field == null) {
+            return "";
+        }
+        return field.replace(FIELD_SEPARATOR, ' ').replace(ENTRY_SEPARATOR, ' ');
+    }
+
+    private static String[] split(String value, char separator) {
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            if (value.charAt(i) == separator) {
+                parts.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(value.substring(start));
+        return parts.toArray(new String[0]);
+    }
+}
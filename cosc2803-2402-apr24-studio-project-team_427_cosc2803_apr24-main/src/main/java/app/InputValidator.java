@@ -0,0 +1,301 @@
+package app;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Checks the form POSTs of pages 2A, 2B, 3A and 3B, and the matching fragment, JsonApi, SimilarityStream and CsvExport requests,
+ * before their handlers run.
+ * <p>
+ * Country, region, food group and commodity names are checked against sets loaded once
+ * per DatasetVersion, and years and group counts against the range of the data. Because
+ * the sets hold every name in the database, an unknown name is rejected straight from
+ * memory: bad input gets a 400 without the page being built or a connection being opened.
+ */
+public class InputValidator {
+
+    // Names from the dimension tables, and the ranges of the data
+    private static class Dimensions {
+        String version;
+        Set<String> countries = new HashSet<String>();
+        Set<String> regions = new HashSet<String>();
+        Set<String> foodGroups = new HashSet<String>();
+        Set<String> commodities = new HashSet<String>();
+        int minYear = Integer.MAX_VALUE;
+        int maxYear = Integer.MIN_VALUE;
+    }
+
+    private static volatile Dimensions dimensions = null;
+    private static final AtomicLong REJECTED = new AtomicLong();
+
+    /**
+     * Add the validation filters for every page that takes a form POST, and for the JSON API.
+     */
+    public static void register(Javalin app) {
+        app.before(PageST2A.URL, InputValidator::validate2A);
+        app.before(PageST2B.URL, InputValidator::validate2B);
+        app.before(PageST3A.URL, InputValidator::validate3A);
+        app.before(PageST3B.URL, InputValidator::validate3B);
+
+        // Page fragments, the JSON API and CSV exports take the same fields as query parameters
+        app.before(PageST3A.FRAGMENT_PATH + "*", context -> check3A(context::queryParam));
+        app.before(PageST3B.FRAGMENT_PATH + "*", context -> check3B(context::queryParam));
+        app.before(JsonApi.URL_2A, context -> check2A(context::queryParam));
+        app.before(JsonApi.URL_2B, context -> check2B(context::queryParam));
+        app.before(JsonApi.URL_3A, context -> checkApi3A(context::queryParam));
+        app.before(JsonApi.URL_3B, context -> check3B(context::queryParam));
+        app.before(SimilarityStream.URL, context -> checkStream3A(context::queryParam));
+        app.before(CsvExport.URL_2A, context -> check2A(context::queryParam));
+        app.before(CsvExport.URL_2B, context -> check2B(context::queryParam));
+    }
+
+    public static long rejected() {
+        return REJECTED.get();
+    }
+
+    private static void validate2A(Context context) {
+        if (isPost(context)) {
+            check2A(context::formParam);
+        }
+    }
+
+    private static void check2A(Function<String, String> param) {
+        Dimensions dims = dimensions();
+        if (dims == null) {
+            return;
+        }
+
+        require(dims.countries, "country", param.apply("country"));
+        int start = requireYear(dims, "year-start", param.apply("year-start"));
+        int end = requireYear(dims, "year-end", param.apply("year-end"));
+        requireOrder(start, end);
+        requireOption("sortAscDesc", param.apply("sortAscDesc"), "Ascend", "Descend");
+        PageCursor.decode(param.apply(PageCursor.FORM_FIELD));
+    }
+
+    private static void validate2B(Context context) {
+        if (isPost(context)) {
+            check2B(context::formParam);
+        }
+    }
+
+    private static void check2B(Function<String, String> param) {
+        Dimensions dims = dimensions();
+        if (dims == null) {
+            return;
+        }
+
+        // The handler has defaults for every field, so only check what was sent
+        if (param.apply("commodity") != null) {
+            require(dims.foodGroups, "commodity", param.apply("commodity"));
+        }
+        int start = param.apply("year-start") != null
+                    ? requireYear(dims, "year-start", param.apply("year-start")) : dims.minYear;
+        int end = param.apply("year-end") != null
+                  ? requireYear(dims, "year-end", param.apply("year-end")) : dims.maxYear;
+        requireOrder(start, end);
+        if (param.apply("sort-by") != null) {
+            requireOption("sort-by", param.apply("sort-by"), "Ascend", "Descend");
+        }
+        PageCursor.decode(param.apply(PageCursor.FORM_FIELD));
+    }
+
+    private static void validate3A(Context context) {
+        if (isPost(context)) {
+            check3A(context::formParam);
+        }
+    }
+
+    private static void check3A(Function<String, String> param) {
+        Dimensions dims = dimensions();
+        if (dims == null) {
+            return;
+        }
+
+        String cr = Objects.requireNonNullElse(param.apply("cr"), "");
+        requireOption("cr", cr, "country", "region");
+        if (cr.equals("country")) {
+            require(dims.countries, "country", param.apply("country"));
+            requireCount("num_similar_groups", param.apply("num_similar_groups"), dims.countries.size());
+        } else {
+            require(dims.regions, "region", param.apply("region"));
+            requireCount("num_similar_groups", param.apply("num_similar_groups"), dims.regions.size());
+        }
+        requireYear(dims, "year-start", param.apply("year-start"));
+    }
+
+    private static void validate3B(Context context) {
+        if (isPost(context)) {
+            check3B(context::formParam);
+        }
+    }
+
+    private static void check3B(Function<String, String> param) {
+        Dimensions dims = dimensions();
+        if (dims == null) {
+            return;
+        }
+
+        String food = param.apply("food");
+        require(dims.commodities, "food", food == null ? null : food.replace("_value", ""));
+        requireOption("similarity", param.apply("similarity"), "food_loss_ratio", "high_loss_waste", "low_loss_waste");
+        requireCount("num_similar_groups", param.apply("num_similar_groups"), dims.foodGroups.size());
+    }
+
+    private static void checkApi3A(Function<String, String> param) {
+        check3A(param);
+        String similarity = param.apply("similarity");
+        if ("region".equals(param.apply("cr"))) {
+            requireOption("similarity", similarity, "percentage", "abs", "overlap");
+        } else {
+            requireOption("similarity", similarity, "percentage", "abs", "overlap", "both-abs", "both-overlap");
+        }
+    }
+
+    // Only the "both" rankings, which compare countries, are streamed
+    private static void checkStream3A(Function<String, String> param) {
+        check3A(param);
+        requireOption("cr", param.apply("cr"), "country");
+        requireOption("similarity", param.apply("similarity"), "both-abs", "both-overlap");
+    }
+
+    private static boolean isPost(Context context) {
+        return context.method().equalsIgnoreCase("post");
+    }
+
+    private static void require(Set<String> known, String field, String value) {
+        if (value == null || !known.contains(value)) {
+            reject("Unknown " + field + ": " + value);
+        }
+    }
+
+    private static void requireOption(String field, String value, String... options) {
+        for (String option : options) {
+            if (option.equals(value)) {
+                return;
+            }
+        }
+        reject("Invalid " + field + ": " + value);
+    }
+
+    private static int requireYear(Dimensions dims, String field, String value) {
+        int year = requireInt(field, value);
+        if (year < dims.minYear || year > dims.maxYear) {
+            reject(field + " must be between " + dims.minYear + " and " + dims.maxYear);
+        }
+        return year;
+    }
+
+    private static void requireOrder(int start, int end) {
+        if (start > end) {
+            reject("year-start must not be after year-end");
+        }
+    }
+
+    private static void requireCount(String field, String value, int max) {
+        int count = requireInt(field, value);
+        if (count < 1 || count > max) {
+            reject(field + " must be between 1 and " + max);
+        }
+    }
+
+    private static int requireInt(String field, String value) {
+        try {
+            return Integer.parseInt(value == null ? "" : value.trim());
+        } catch (NumberFormatException e) {
+            reject(field + " must be a whole number");
+            return 0;
+        }
+    }
+
+    private static void reject(String message) {
+        REJECTED.incrementAndGet();
+        throw new BadRequestResponse(message);
+    }
+
+    /**
+     * Get the dimension sets for the current dataset, loading them if the database changed.
+     * Returns null if the database has no countries, in which case there is nothing to check
+     * against and requests are let through. If the sets could not be read (the database
+     * busy or being replaced, say) nothing is kept, so the next request tries again, and
+     * this request is turned away with a 503 rather than let through unchecked.
+     */
+    private static Dimensions dimensions() {
+        String version = DatasetVersion.current();
+        Dimensions dims = dimensions;
+        if (dims == null || !dims.version.equals(version)) {
+            synchronized (InputValidator.class) {
+                dims = dimensions;
+                if (dims == null || !dims.version.equals(version)) {
+                    dims = load(version);
+                    if (dims == null) {
+                        REJECTED.incrementAndGet();
+                        throw new ServiceUnavailableResponse("The input could not be checked, please try again");
+                    }
+                    dimensions = dims;
+                }
+            }
+        }
+        return dims.countries.isEmpty() ? null : dims;
+    }
+
+    private static Dimensions load(String version) {
+        Dimensions dims = new Dimensions();
+        dims.version = version;
+
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(JDBCConnection.DATABASE);
+            Statement statement = connection.createStatement();
+
+            addAll(statement, "SELECT country_name FROM Country", dims.countries);
+            addAll(statement, "SELECT region_name FROM Region", dims.regions);
+            addAll(statement, "SELECT descriptor FROM CommodityGroup", dims.foodGroups);
+            addAll(statement, "SELECT commodityName FROM Commodity", dims.commodities);
+
+            ResultSet years = statement.executeQuery("SELECT MIN(year) AS min_year, MAX(year) AS max_year FROM " +
+                                                     "(SELECT year FROM CountryLossEvent UNION ALL SELECT year FROM RegionLossEvent)");
+            if (years.next()) {
+                dims.minYear = years.getInt("min_year");
+                dims.maxYear = years.getInt("max_year");
+            }
+            statement.close();
+
+            System.out.println("Input validation: loaded " + dims.countries.size() + " countries, "
+                               + dims.regions.size() + " regions, " + dims.foodGroups.size() + " food groups, "
+                               + dims.commodities.size() + " commodities, years " + dims.minYear + "-" + dims.maxYear);
+        } catch (SQLException e) {
+            System.err.println("Input validation could not load dimensions: " + e.getMessage());
+            dims = null;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        return dims;
+    }
+
+    private static void addAll(Statement statement, String query, Set<String> names) throws SQLException {
+        ResultSet result = statement.executeQuery(query);
+        while (result.next()) {
+            names.add(result.getString(1));
+        }
+    }
+}
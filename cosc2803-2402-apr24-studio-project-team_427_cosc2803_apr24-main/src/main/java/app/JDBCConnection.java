@@ -1,5 +1,6 @@
 package app;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -23,6 +24,9 @@ public class JDBCConnection {
     // Name of database file (contained in database folder)
     public static final String DATABASE = "jdbc:sqlite:database/food_loss.db";
 
+    // Shown in place of a result table when its query fails
+    public static final String QUERY_ERROR = "<p>Error retrieving data from the database.</p>";
+
     /**
      * This creates a JDBC Object so we can keep talking to the database
      */
@@ -121,28 +125,51 @@ public class JDBCConnection {
   
     public static String get2AResults(String country, String yrStart, String yrEnd, boolean comd, boolean act, boolean sup, boolean los, String sort) {
         StringBuilder resultHtml = new StringBuilder();
+        get2AResults(resultHtml, country, yrStart, yrEnd, comd, act, sup, los, sort, PageCursor.FIRST);
+        return resultHtml.toString();
+    }
+
+    /**
+     * The page 2A "show all data" query for one page after the given cursor, shared by the
+     * page and the JSON API. Parameters are bound in the order country, start year, end year,
+     * then the cursor's year and percentage (if not the first page) and the page size plus one.
+     */
+    public static PreparedStatement prepare2AResults(Connection connection, String country, String yrStart, String yrEnd, boolean comd, boolean act, boolean sup, boolean los, String sort, PageCursor after) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql2AResults(comd, act, sup, los, sort, after));
+        statement.setString(1, country);
+        statement.setString(2, yrStart);
+        statement.setString(3, yrEnd);
+        int parameter = 4;
+        if (!after.isFirst()) {
+            statement.setInt(parameter++, after.year);
+            statement.setDouble(parameter++, after.percentage);
+        }
+        // One extra row tells us if there is another page
+        statement.setInt(parameter, PageCursor.PAGE_SIZE + 1);
+        return statement;
+    }
+
+    /**
+     * The SQL of prepare2AResults(), which only depends on the cursor being the first page or not.
+     */
+    public static String sql2AResults(boolean comd, boolean act, boolean sup, boolean los, String sort, PageCursor after) {
         String query = "";
-        String additionalColumns = "";
     
         // Construct base query
-        query += "SELECT c.country_name, MIN(cle.year) AS first_year, cle.percentage";
+        query += "SELECT c.country_name, MIN(cle.year) AS first_year, cle.percentage, MIN(cle.rowid) AS row_id";
     
         // Add additional columns based on selected filters
         if (comd) {
             query += ", cmd.commodityName";
-            additionalColumns += ", cmd.commodityName";
         }
         if (act) {
             query += ", cle.activity";
-            additionalColumns += ", cle.activity";
         }
         if (sup) {
             query += ", cle.supply_stage";
-            additionalColumns += ", cle.supply_stage";
         }
         if (los) {
             query += ", cle.cause";
-            additionalColumns += ", cle.cause";
         }
     
         // Construct the rest of the query
@@ -153,91 +180,64 @@ public class JDBCConnection {
         }
         query += " WHERE c.country_name = ? ";
         query += " AND cle.year BETWEEN ? AND ? ";
+
+        // Each group is one (year, percentage), so later pages can skip earlier groups row by row
+        if (!after.isFirst()) {
+            query += " AND (cle.year, cle.percentage) " + (sort.equals("ASC") ? ">" : "<") + " (?, ?) ";
+        }
         query += " GROUP BY c.country_name, cle.year, cle.percentage ";
-        query += " ORDER BY cle.year " + sort;
-    
+        query += " ORDER BY cle.year " + sort + ", cle.percentage " + sort + ", row_id " + sort;
+        query += " LIMIT ?";
+        return query;
+    }
+
+    /**
+     * Write one page of the page 2A "show all data" table to resultHtml, starting after the
+     * given cursor. Rows are written as they are read, and ordered by (year, percentage, id)
+     * so the next page can start after the last row shown rather than using OFFSET.
+     * @return
+     *    The cursor after the last row written, with more set if another page follows
+     */
+    public static PageCursor get2AResults(Appendable resultHtml, String country, String yrStart, String yrEnd, boolean comd, boolean act, boolean sup, boolean los, String sort, PageCursor after) {
+        PageCursor next = after.end();
         Connection connection = null;
     
         try {
             connection = DriverManager.getConnection(DATABASE);
     
-            // Use PreparedStatement for parameterized query
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, country);
-            statement.setString(2, yrStart);
-            statement.setString(3, yrEnd);
-    
+            PreparedStatement statement = prepare2AResults(connection, country, yrStart, yrEnd, comd, act, sup, los, sort, after);
             ResultSet resultSet = statement.executeQuery();
     
-            // Start building the HTML table
-            resultHtml.append("<style>");
-            resultHtml.append("table { width: 100%; border-collapse: collapse; }");
-            resultHtml.append("th, td { padding: 10px; text-align: left; border: 1px solid #dddddd; }");
-            resultHtml.append("th { background-color: #f2f2f2; }");
-            resultHtml.append("</style>");
-    
-            // Center the table within a div
-            resultHtml.append("<div style='margin: 0 auto; width: 80%;'>");
-            resultHtml.append("<table>");
-            resultHtml.append("<tr>");
-            resultHtml.append("<th>Country</th>");
-            resultHtml.append("<th>Year</th>");
-            resultHtml.append("<th>Percentage</th>");
-    
-            // Add additional headers based on selected columns
+            // Describe the table, adding columns based on selected filters
+            HtmlTable table = new HtmlTable("results-table")
+                .text("Country", "country_name")
+                .integer("Year", "first_year")
+                .decimal("Percentage", "percentage", 2, "%");
             if (comd) {
-                resultHtml.append("<th>Commodity</th>");
+                table.text("Commodity", "commodityName");
             }
             if (act) {
-                resultHtml.append("<th>Activity</th>");
+                table.text("Activity", "activity");
             }
             if (sup) {
-                resultHtml.append("<th>Supply Stage</th>");
+                table.text("Supply Stage", "supply_stage");
             }
             if (los) {
-                resultHtml.append("<th>Cause</th>");
+                table.text("Cause", "cause");
             }
-    
-            resultHtml.append("</tr>");
-    
-            // Iterate over result set and populate table rows
-            while (resultSet.next()) {
-                String countryName = resultSet.getString("country_name");
-                int firstYear = resultSet.getInt("first_year");
-                double percentage = resultSet.getDouble("percentage");
-    
-                resultHtml.append("<tr>");
-                resultHtml.append("<td>").append(countryName).append("</td>");
-                resultHtml.append("<td>").append(firstYear).append("</td>");
-                resultHtml.append("<td>").append(String.format("%.2f%%", percentage)).append("</td>");
-    
-                // Add additional columns based on selected filters
-                if (comd) {
-                    String commodity = resultSet.getString("commodityName");
-                    resultHtml.append("<td>").append(commodity).append("</td>");
-                }
-                if (act) {
-                    String activity = resultSet.getString("activity");
-                    resultHtml.append("<td>").append(activity).append("</td>");
-                }
-                if (sup) {
-                    String supplyStage = resultSet.getString("supply_stage");
-                    resultHtml.append("<td>").append(supplyStage).append("</td>");
-                }
-                if (los) {
-                    String cause = resultSet.getString("cause");
-                    resultHtml.append("<td>").append(cause).append("</td>");
-                }
-    
-                resultHtml.append("</tr>");
-            }
-    
-            resultHtml.append("</table>");
+
+            // Center the table within a div
+            resultHtml.append("<div style='margin: 0 auto; width: 80%;'>");
+            int written = table.write(resultHtml, resultSet, PageCursor.PAGE_SIZE);
+            next = after.after(resultSet, written, "first_year", "percentage", "row_id");
             resultHtml.append("</div>"); // Closing centered div
     
             statement.close();
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+        } catch (IOException e) {
+            // The browser went away part way through the table
+            System.err.println("Error writing results: " + e.getMessage());
         } finally {
             try {
                 if (connection != null) {
@@ -247,57 +247,111 @@ public class JDBCConnection {
                 System.err.println("Error closing connection: " + e.getMessage());
             }
         }
-    
-        return resultHtml.toString();
+        return next;
     }
     
            
 
+    /**
+     * Count the rows of the page 2A "show all data" table, without reading them.
+     * Returns -1 if the query failed.
+     */
+    public static int count2AResults(String country, String yrStart, String yrEnd, boolean comd) {
+        int count = -1;
+
+        String query = sql2ACount(comd);
+
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(DATABASE);
+
+            PreparedStatement statement = connection.prepareStatement(query);
+            statement.setString(1, country);
+            statement.setString(2, yrStart);
+            statement.setString(3, yrEnd);
+
+            ResultSet result = statement.executeQuery();
+            count = result.next() ? result.getInt("row_count") : 0;
+            statement.close();
+        } catch (SQLException e) {
+            count = -1;
+            System.err.println("Error executing SQL query: " + e.getMessage());
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                System.err.println("Error closing connection: " + e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The SQL of count2AResults(): country, start year, end year.
+     */
+    public static String sql2ACount(boolean comd) {
+        return "SELECT COUNT(*) AS row_count FROM ( " +
+               "    SELECT 1 FROM Country c " +
+               "    JOIN CountryLossEvent cle ON c.m49_code = cle.m49_code " +
+               (comd ? " JOIN Commodity cmd ON cmd.cpc_code = cle.cpc_code " : "") +
+               "    WHERE c.country_name = ? AND cle.year BETWEEN ? AND ? " +
+               "    GROUP BY cle.year, cle.percentage " +
+               ")";
+    }
+
+    // First year with data on or nearest the start year: country, country, country, year
+    public static final String SQL_2A_FIRST_YEAR = "SELECT ? AS country_name, " +
+            "MIN(cle.year) AS first_year, " +
+            "AVG(cle.percentage) AS first_year_avg_percentage " +
+            "FROM CountryLossEvent cle " +
+            "JOIN Country c ON cle.m49_code = c.m49_code " +
+            "WHERE c.country_name = ? " +
+            "AND cle.year IN ( " +
+            "  SELECT cle.year " +
+            "  FROM CountryLossEvent cle " +
+            "  JOIN Country c ON cle.m49_code = c.m49_code " +
+            "  WHERE c.country_name = ? " +
+            "  GROUP BY cle.year " +
+            "  ORDER BY ABS(cle.year - ?) " +
+            "  LIMIT 1 " +
+            ") " +
+            "GROUP BY c.country_name " +
+            "HAVING first_year IS NOT NULL " +
+            "ORDER BY first_year ASC " +
+            "LIMIT 1";
+
+    // Year with data nearest the end year: country, country, country, year
+    public static final String SQL_2A_LAST_YEAR = "SELECT ? AS country_name, " +
+            "MAX(cle.year) AS closest_year, " +
+            "AVG(cle.percentage) AS closest_year_avg_percentage " +
+            "FROM CountryLossEvent cle " +
+            "JOIN Country c ON cle.m49_code = c.m49_code " +
+            "WHERE c.country_name = ? " +
+            "AND cle.year IN ( " +
+            "  SELECT cle.year " +
+            "  FROM CountryLossEvent cle " +
+            "  JOIN Country c ON cle.m49_code = c.m49_code " +
+            "  WHERE c.country_name = ? " +
+            "  GROUP BY cle.year " +
+            "  ORDER BY ABS(cle.year - ?) " +
+            "  LIMIT 1 " +
+            ") " +
+            "GROUP BY c.country_name " +
+            "HAVING closest_year IS NOT NULL " +
+            "ORDER BY closest_year ASC " +
+            "LIMIT 1";
+
     public static String get2ADifference(String country, String yrStart, String yrEnd) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
     
         // Query to find closest year with data for yrStart
-        String queryFirstYear = "SELECT ? AS country_name, " +
-                                "MIN(cle.year) AS first_year, " +
-                                "AVG(cle.percentage) AS first_year_avg_percentage " +
-                                "FROM CountryLossEvent cle " +
-                                "JOIN Country c ON cle.m49_code = c.m49_code " +
-                                "WHERE c.country_name = ? " +
-                                "AND cle.year IN ( " +
-                                "  SELECT cle.year " +
-                                "  FROM CountryLossEvent cle " +
-                                "  JOIN Country c ON cle.m49_code = c.m49_code " +
-                                "  WHERE c.country_name = ? " +
-                                "  GROUP BY cle.year " +
-                                "  ORDER BY ABS(cle.year - ?) " +
-                                "  LIMIT 1 " +
-                                ") " +
-                                "GROUP BY c.country_name " +
-                                "HAVING first_year IS NOT NULL " +
-                                "ORDER BY first_year ASC " +
-                                "LIMIT 1";
+        String queryFirstYear = SQL_2A_FIRST_YEAR;
     
         // Query to find closest year with data for yrEnd
-        String queryClosestYear = "SELECT ? AS country_name, " +
-                                  "MAX(cle.year) AS closest_year, " +
-                                  "AVG(cle.percentage) AS closest_year_avg_percentage " +
-                                  "FROM CountryLossEvent cle " +
-                                  "JOIN Country c ON cle.m49_code = c.m49_code " +
-                                  "WHERE c.country_name = ? " +
-                                  "AND cle.year IN ( " +
-                                  "  SELECT cle.year " +
-                                  "  FROM CountryLossEvent cle " +
-                                  "  JOIN Country c ON cle.m49_code = c.m49_code " +
-                                  "  WHERE c.country_name = ? " +
-                                  "  GROUP BY cle.year " +
-                                  "  ORDER BY ABS(cle.year - ?) " +
-                                  "  LIMIT 1 " +
-                                  ") " +
-                                  "GROUP BY c.country_name " +
-                                  "HAVING closest_year IS NOT NULL " +
-                                  "ORDER BY closest_year ASC " +
-                                  "LIMIT 1";
+        String queryClosestYear = SQL_2A_LAST_YEAR;
     
         try {
             connection = DriverManager.getConnection(DATABASE);
@@ -376,6 +430,7 @@ public class JDBCConnection {
     
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
         } finally {
             try {
                 if (connection != null) {
@@ -394,40 +449,43 @@ public class JDBCConnection {
 
 
 
+    // Average loss in the year with data nearest a year: country, country, country, year, country, country, year
+    public static final String SQL_2A_YEAR = "SELECT ? AS country_name, " +
+            "MIN(cle.year) AS closest_year, " +
+            "AVG(cle.percentage) AS avg_percentage " +
+            "FROM CountryLossEvent cle " +
+            "JOIN Country c ON cle.m49_code = c.m49_code " +
+            "WHERE c.country_name = ? " +
+            "AND cle.year IN ( " +
+            "  SELECT cle.year " +
+            "  FROM CountryLossEvent cle " +
+            "  JOIN Country c ON cle.m49_code = c.m49_code " +
+            "  WHERE c.country_name = ? " +
+            "  GROUP BY cle.year " +
+            "  ORDER BY ABS(cle.year - ?) " +
+            "  LIMIT 1 " +
+            ") " +
+            "GROUP BY c.country_name " +
+            "HAVING closest_year IS NOT NULL " +
+            "ORDER BY ABS(avg_percentage - ( " +
+            "  SELECT AVG(cle2.percentage) " +
+            "  FROM CountryLossEvent cle2 " +
+            "  JOIN Country c2 ON cle2.m49_code = c2.m49_code " +
+            "  WHERE c2.country_name = ? " +
+            "    AND cle2.year = ( " +
+            "      SELECT cle.year " +
+            "      FROM CountryLossEvent cle " +
+            "      JOIN Country c ON cle.m49_code = c.m49_code " +
+            "      WHERE c.country_name = ? " +
+            "      ORDER BY ABS(cle.year - ?) " +
+            "      LIMIT 1 " +
+            "    ) " +
+            ")) ASC " +
+            "LIMIT 1";
+
 public static String get2AYear(String country, String yr) {
     StringBuilder resultHtml = new StringBuilder();
-    String query = "SELECT ? AS country_name, " +
-                   "MIN(cle.year) AS closest_year, " +
-                   "AVG(cle.percentage) AS avg_percentage " +
-                   "FROM CountryLossEvent cle " +
-                   "JOIN Country c ON cle.m49_code = c.m49_code " +
-                   "WHERE c.country_name = ? " +
-                   "AND cle.year IN ( " +
-                   "  SELECT cle.year " +
-                   "  FROM CountryLossEvent cle " +
-                   "  JOIN Country c ON cle.m49_code = c.m49_code " +
-                   "  WHERE c.country_name = ? " +
-                   "  GROUP BY cle.year " +
-                   "  ORDER BY ABS(cle.year - ?) " +
-                   "  LIMIT 1 " +
-                   ") " +
-                   "GROUP BY c.country_name " +
-                   "HAVING closest_year IS NOT NULL " +
-                   "ORDER BY ABS(avg_percentage - ( " +
-                   "  SELECT AVG(cle2.percentage) " +
-                   "  FROM CountryLossEvent cle2 " +
-                   "  JOIN Country c2 ON cle2.m49_code = c2.m49_code " +
-                   "  WHERE c2.country_name = ? " +
-                   "    AND cle2.year = ( " +
-                   "      SELECT cle.year " +
-                   "      FROM CountryLossEvent cle " +
-                   "      JOIN Country c ON cle.m49_code = c.m49_code " +
-                   "      WHERE c.country_name = ? " +
-                   "      ORDER BY ABS(cle.year - ?) " +
-                   "      LIMIT 1 " +
-                   "    ) " +
-                   ")) ASC " +
-                   "LIMIT 1";
+    String query = SQL_2A_YEAR;
 
     Connection connection = null;
 
@@ -481,6 +539,7 @@ public static String get2AYear(String country, String yr) {
         statement.close();
     } catch (SQLException e) {
         System.err.println("Error executing SQL query: " + e.getMessage());
+        resultHtml.setLength(0);
     } finally {
         try {
             if (connection != null) {
@@ -531,12 +590,78 @@ public static String get2AYear(String country, String yr) {
         return str;
     }
 
+    /**
+     * Get the names of all of the Regions shown in the region dropdown.
+     * @return
+     *    Returns an ArrayList of region names in alphabetical order
+     */
+    public static ArrayList<String> getAllRegions() {
+        ArrayList<String> regions = new ArrayList<String>();
+
+        Connection connection = null;
+        String query = "SELECT region_name FROM Region " +
+                       "WHERE region_name <> '' AND region_name <> '-' AND region_name <> 'none' " +
+                       "ORDER BY region_name ASC";
+        try {
+            connection = DriverManager.getConnection(DATABASE);
+
+            Statement statement = connection.createStatement();
+            ResultSet result = statement.executeQuery(query);
+            while (result.next()) {
+                regions.add(result.getString("region_name"));
+            }
+            statement.close();
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        return regions;
+    }
+
 
 
 
 
 
     //3A
+    // Countries with the closest average loss: country, year, country, country, year, limit
+    public static final String SQL_3A_PERCENTAGE_COUNTRY = "SELECT c.country_name, MIN(cle.year) AS closest_year, AVG(cle.percentage) AS avg_percentage " +
+            "FROM CountryLossEvent cle " +
+            "JOIN Country c ON cle.m49_code = c.m49_code " +
+            "WHERE cle.year IN ( " +
+            "   SELECT cle.year " +
+            "   FROM CountryLossEvent cle " +
+            "   JOIN Country c ON cle.m49_code = c.m49_code " +
+            "   WHERE c.country_name = ? " +
+            "   GROUP BY cle.year " +
+            "   ORDER BY ABS(cle.year - ?) " +
+            "   LIMIT 1 " +
+            ") " +
+            "GROUP BY c.country_name " +
+            "HAVING closest_year IS NOT NULL " +
+            "ORDER BY ABS(avg_percentage - ( " +
+            "   SELECT AVG(cle2.percentage) " +
+            "   FROM CountryLossEvent cle2 " +
+            "   JOIN Country c2 ON cle2.m49_code = c2.m49_code " +
+            "   WHERE c2.country_name = ? " +
+            "     AND cle2.year = ( " +
+            "         SELECT cle.year " +
+            "         FROM CountryLossEvent cle " +
+            "         JOIN Country c ON cle.m49_code = c.m49_code " +
+            "         WHERE c.country_name = ? " +
+            "         ORDER BY ABS(cle.year - ?) " +
+            "         LIMIT 1 " +
+            "     ) " +
+            ")) ASC " +
+            "LIMIT (? + 1)";
+
     public static String get3APercentageCountry(String name, String year, String numGroups) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -546,35 +671,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
             
             // Query to get closest year for the specified country
-            query = "SELECT c.country_name, MIN(cle.year) AS closest_year, AVG(cle.percentage) AS avg_percentage " +
-                    "FROM CountryLossEvent cle " +
-                    "JOIN Country c ON cle.m49_code = c.m49_code " +
-                    "WHERE cle.year IN ( " +
-                    "   SELECT cle.year " +
-                    "   FROM CountryLossEvent cle " +
-                    "   JOIN Country c ON cle.m49_code = c.m49_code " +
-                    "   WHERE c.country_name = ? " +
-                    "   GROUP BY cle.year " +
-                    "   ORDER BY ABS(cle.year - ?) " +
-                    "   LIMIT 1 " +
-                    ") " +
-                    "GROUP BY c.country_name " +
-                    "HAVING closest_year IS NOT NULL " +
-                    "ORDER BY ABS(avg_percentage - ( " +
-                    "   SELECT AVG(cle2.percentage) " +
-                    "   FROM CountryLossEvent cle2 " +
-                    "   JOIN Country c2 ON cle2.m49_code = c2.m49_code " +
-                    "   WHERE c2.country_name = ? " +
-                    "     AND cle2.year = ( " +
-                    "         SELECT cle.year " +
-                    "         FROM CountryLossEvent cle " +
-                    "         JOIN Country c ON cle.m49_code = c.m49_code " +
-                    "         WHERE c.country_name = ? " +
-                    "         ORDER BY ABS(cle.year - ?) " +
-                    "         LIMIT 1 " +
-                    "     ) " +
-                    ")) ASC " +
-                    "LIMIT (? + 1)";
+            query = SQL_3A_PERCENTAGE_COUNTRY;
     
             PreparedStatement preparedStatement = connection.prepareStatement(query);
             preparedStatement.setString(1, name);
@@ -618,6 +715,7 @@ public static String get2AYear(String country, String yr) {
             preparedStatement.close();
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
         } finally {
             try {
                 if (connection != null) {
@@ -633,6 +731,37 @@ public static String get2AYear(String country, String yr) {
     
     
 
+    // Regions with the closest average loss: region, year, region, region, year, limit
+    public static final String SQL_3A_PERCENTAGE_REGION = "SELECT r.region_name, MIN(rle.year) AS closest_year, AVG(rle.percentage) AS avg_percentage " +
+            "FROM RegionLossEvent rle " +
+            "JOIN Region r ON rle.m49_code = r.m49_code " +
+            "WHERE rle.year IN ( " +
+            "   SELECT rle.year " +
+            "   FROM RegionLossEvent rle " +
+            "   JOIN Region r ON rle.m49_code = r.m49_code " +
+            "   WHERE r.region_name = ? " +
+            "   GROUP BY rle.year " +
+            "   ORDER BY ABS(rle.year - ?) " +
+            "   LIMIT 1 " +
+            ") " +
+            "GROUP BY r.region_name " +
+            "HAVING closest_year IS NOT NULL " +
+            "ORDER BY ABS(avg_percentage - ( " +
+            "   SELECT AVG(rle2.percentage) " +
+            "   FROM RegionLossEvent rle2 " +
+            "   JOIN Region r2 ON rle2.m49_code = r2.m49_code " +
+            "   WHERE r2.region_name = ? " +
+            "     AND rle2.year = ( " +
+            "         SELECT rle.year " +
+            "         FROM RegionLossEvent rle " +
+            "         JOIN Region r ON rle.m49_code = r.m49_code " +
+            "         WHERE r.region_name = ? " +
+            "         ORDER BY ABS(rle.year - ?) " +
+            "         LIMIT 1 " +
+            "     ) " +
+            ")) ASC " +
+            "LIMIT (?)";
+
     public static String get3APercentageRegion(String name, String year, String numGroups) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -643,35 +772,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
     
             // Prepare the query to retrieve data
-            String query = "SELECT r.region_name, MIN(rle.year) AS closest_year, AVG(rle.percentage) AS avg_percentage " +
-                           "FROM RegionLossEvent rle " +
-                           "JOIN Region r ON rle.m49_code = r.m49_code " +
-                           "WHERE rle.year IN ( " +
-                           "   SELECT rle.year " +
-                           "   FROM RegionLossEvent rle " +
-                           "   JOIN Region r ON rle.m49_code = r.m49_code " +
-                           "   WHERE r.region_name = ? " +
-                           "   GROUP BY rle.year " +
-                           "   ORDER BY ABS(rle.year - ?) " +
-                           "   LIMIT 1 " +
-                           ") " +
-                           "GROUP BY r.region_name " +
-                           "HAVING closest_year IS NOT NULL " +
-                           "ORDER BY ABS(avg_percentage - ( " +
-                           "   SELECT AVG(rle2.percentage) " +
-                           "   FROM RegionLossEvent rle2 " +
-                           "   JOIN Region r2 ON rle2.m49_code = r2.m49_code " +
-                           "   WHERE r2.region_name = ? " +
-                           "     AND rle2.year = ( " +
-                           "         SELECT rle.year " +
-                           "         FROM RegionLossEvent rle " +
-                           "         JOIN Region r ON rle.m49_code = r.m49_code " +
-                           "         WHERE r.region_name = ? " +
-                           "         ORDER BY ABS(rle.year - ?) " +
-                           "         LIMIT 1 " +
-                           "     ) " +
-                           ")) ASC " +
-                           "LIMIT (?)";
+            String query = SQL_3A_PERCENTAGE_REGION;
     
             preparedStatement = connection.prepareStatement(query);
             preparedStatement.setString(1, name);
@@ -716,6 +817,7 @@ public static String get2AYear(String country, String yr) {
     
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
         } finally {
             try {
                 if (resultSet != null) {
@@ -736,6 +838,34 @@ public static String get2AYear(String country, String yr) {
     }
     
 
+    // Countries sharing the most commodities: country, year, country, year, country, country, limit
+    public static final String SQL_3A_ABS = "WITH AustraliaYear AS (" +
+            "   SELECT COALESCE(" +
+            "       (SELECT MIN(year) FROM CountryLossEvent cle " +
+            "        JOIN country c ON cle.m49_code = c.m49_code " +
+            "        WHERE c.country_name = ? AND year >= ?), " +
+            "       (SELECT MAX(year) FROM CountryLossEvent cle " +
+            "        JOIN country c ON cle.m49_code = c.m49_code " +
+            "        WHERE c.country_name = ?), " +
+            "       ? " +
+            "   ) AS closest_year " +
+            ") " +
+            "SELECT c.country_name, COUNT(DISTINCT cle.cpc_code) AS common_cpc_codes " +
+            "FROM CountryLossEvent cle " +
+            "JOIN country c ON cle.m49_code = c.m49_code " +
+            "JOIN AustraliaYear ay ON cle.year = ay.closest_year " +
+            "WHERE c.country_name <> ? " +
+            "AND EXISTS ( " +
+            "   SELECT 1 " +
+            "   FROM CountryLossEvent " +
+            "   WHERE year = cle.year " +
+            "     AND cpc_code = cle.cpc_code " +
+            "     AND m49_code = (SELECT m49_code FROM country WHERE country_name = ?) " +
+            ") " +
+            "GROUP BY c.country_name " +
+            "ORDER BY common_cpc_codes DESC " +
+            "LIMIT (?)";
+
     public static String get3AABS(String name, String year, String numGroups) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -746,32 +876,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
     
             // Query using the provided SQL with adjustments
-            String query = "WITH AustraliaYear AS (" +
-                           "   SELECT COALESCE(" +
-                           "       (SELECT MIN(year) FROM CountryLossEvent cle " +
-                           "        JOIN country c ON cle.m49_code = c.m49_code " +
-                           "        WHERE c.country_name = ? AND year >= ?), " +
-                           "       (SELECT MAX(year) FROM CountryLossEvent cle " +
-                           "        JOIN country c ON cle.m49_code = c.m49_code " +
-                           "        WHERE c.country_name = ?), " +
-                           "       ? " +
-                           "   ) AS closest_year " +
-                           ") " +
-                           "SELECT c.country_name, COUNT(DISTINCT cle.cpc_code) AS common_cpc_codes " +
-                           "FROM CountryLossEvent cle " +
-                           "JOIN country c ON cle.m49_code = c.m49_code " +
-                           "JOIN AustraliaYear ay ON cle.year = ay.closest_year " +
-                           "WHERE c.country_name <> ? " +
-                           "AND EXISTS ( " +
-                           "   SELECT 1 " +
-                           "   FROM CountryLossEvent " +
-                           "   WHERE year = cle.year " +
-                           "     AND cpc_code = cle.cpc_code " +
-                           "     AND m49_code = (SELECT m49_code FROM country WHERE country_name = ?) " +
-                           ") " +
-                           "GROUP BY c.country_name " +
-                           "ORDER BY common_cpc_codes DESC " +
-                           "LIMIT (?)";
+            String query = SQL_3A_ABS;
     
             System.out.println("Generated SQL query: " + query); // Debug statement
     
@@ -816,6 +921,7 @@ public static String get2AYear(String country, String yr) {
     
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
             e.printStackTrace(); // Print stack trace for detailed error information
         } finally {
             try {
@@ -837,6 +943,34 @@ public static String get2AYear(String country, String yr) {
     }
     
  
+    // Regions sharing the most commodities: region, year, region, year, region, region, limit
+    public static final String SQL_3A_ABS_REGION = "WITH AustraliaYear AS (" +
+            "   SELECT COALESCE(" +
+            "       (SELECT MIN(year) FROM RegionLossEvent cle " +
+            "        JOIN Region c ON cle.m49_code = c.m49_code " +
+            "        WHERE c.region_name = ? AND year >= ?), " +
+            "       (SELECT MAX(year) FROM RegionLossEvent cle " +
+            "        JOIN Region c ON cle.m49_code = c.m49_code " +
+            "        WHERE c.region_name = ?), " +
+            "       ? " +
+            "   ) AS closest_year " +
+            ") " +
+            "SELECT c.region_name, COUNT(DISTINCT cle.cpc_code) AS common_cpc_codes " +
+            "FROM RegionLossEvent cle " +
+            "JOIN Region c ON cle.m49_code = c.m49_code " +
+            "JOIN AustraliaYear ay ON cle.year = ay.closest_year " +
+            "WHERE c.region_name <> ? " +
+            "AND EXISTS ( " +
+            "   SELECT 1 " +
+            "   FROM RegionLossEvent " +
+            "   WHERE year = cle.year " +
+            "     AND cpc_code = cle.cpc_code " +
+            "     AND m49_code = (SELECT m49_code FROM Region WHERE region_name = ?) " +
+            ") " +
+            "GROUP BY c.region_name " +
+            "ORDER BY common_cpc_codes DESC " +
+            "LIMIT (?)";
+
     public static String get3AABSR(String regionName, String year, String numGroups) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -847,32 +981,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
     
             // Query using the provided SQL with adjustments
-            String query = "WITH AustraliaYear AS (" +
-                           "   SELECT COALESCE(" +
-                           "       (SELECT MIN(year) FROM RegionLossEvent cle " +
-                           "        JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "        WHERE c.region_name = ? AND year >= ?), " +
-                           "       (SELECT MAX(year) FROM RegionLossEvent cle " +
-                           "        JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "        WHERE c.region_name = ?), " +
-                           "       ? " +
-                           "   ) AS closest_year " +
-                           ") " +
-                           "SELECT c.region_name, COUNT(DISTINCT cle.cpc_code) AS common_cpc_codes " +
-                           "FROM RegionLossEvent cle " +
-                           "JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "JOIN AustraliaYear ay ON cle.year = ay.closest_year " +
-                           "WHERE c.region_name <> ? " +
-                           "AND EXISTS ( " +
-                           "   SELECT 1 " +
-                           "   FROM RegionLossEvent " +
-                           "   WHERE year = cle.year " +
-                           "     AND cpc_code = cle.cpc_code " +
-                           "     AND m49_code = (SELECT m49_code FROM Region WHERE region_name = ?) " +
-                           ") " +
-                           "GROUP BY c.region_name " +
-                           "ORDER BY common_cpc_codes DESC " +
-                           "LIMIT (?)";
+            String query = SQL_3A_ABS_REGION;
     
             System.out.println("Generated SQL query: " + query); // Debug statement
     
@@ -917,6 +1026,7 @@ public static String get2AYear(String country, String yr) {
     
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
             e.printStackTrace(); // Print stack trace for detailed error information
         } finally {
             try {
@@ -938,6 +1048,39 @@ public static String get2AYear(String country, String yr) {
     }
     
     
+    // Countries with the highest commodity overlap: country, year, country, year, country, country, limit
+    public static final String SQL_3A_OVERLAP = "WITH AustraliaYear AS (" +
+            "   SELECT COALESCE(" +
+            "       (SELECT MIN(year) FROM CountryLossEvent cle " +
+            "        JOIN country c ON cle.m49_code = c.m49_code " +
+            "        WHERE c.country_name = ? AND year >= ?), " +
+            "       (SELECT MAX(year) FROM CountryLossEvent cle " +
+            "        JOIN country c ON cle.m49_code = c.m49_code " +
+            "        WHERE c.country_name = ?), " +
+            "       ? " +
+            "   ) AS closest_year " +
+            ") " +
+            "SELECT c.country_name, " +
+            "       ROUND(COUNT(DISTINCT cle.cpc_code) * 100.0 / ( " +
+            "           SELECT COUNT(DISTINCT cle2.cpc_code) " +
+            "           FROM CountryLossEvent cle2 " +
+            "           WHERE cle2.year = ay.closest_year " +
+            "       ), 3) AS common_cpc_code_percentage " +
+            "FROM CountryLossEvent cle " +
+            "JOIN country c ON cle.m49_code = c.m49_code " +
+            "JOIN AustraliaYear ay ON cle.year = ay.closest_year " +
+            "WHERE c.country_name <> ? " +
+            "AND EXISTS ( " +
+            "   SELECT 1 " +
+            "   FROM CountryLossEvent " +
+            "   WHERE year = cle.year " +
+            "     AND cpc_code = cle.cpc_code " +
+            "     AND m49_code = (SELECT m49_code FROM country WHERE country_name = ?) " +
+            ") " +
+            "GROUP BY c.country_name " +
+            "ORDER BY common_cpc_code_percentage DESC " +
+            "LIMIT (?)";
+
     public static String get3AOVC(String countryName, String defaultYear, String numGroups) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -949,37 +1092,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
     
             // Query using the provided SQL with adjustments
-            String query = "WITH AustraliaYear AS (" +
-                           "   SELECT COALESCE(" +
-                           "       (SELECT MIN(year) FROM CountryLossEvent cle " +
-                           "        JOIN country c ON cle.m49_code = c.m49_code " +
-                           "        WHERE c.country_name = ? AND year >= ?), " +
-                           "       (SELECT MAX(year) FROM CountryLossEvent cle " +
-                           "        JOIN country c ON cle.m49_code = c.m49_code " +
-                           "        WHERE c.country_name = ?), " +
-                           "       ? " +
-                           "   ) AS closest_year " +
-                           ") " +
-                           "SELECT c.country_name, " +
-                           "       ROUND(COUNT(DISTINCT cle.cpc_code) * 100.0 / ( " +
-                           "           SELECT COUNT(DISTINCT cle2.cpc_code) " +
-                           "           FROM CountryLossEvent cle2 " +
-                           "           WHERE cle2.year = ay.closest_year " +
-                           "       ), 3) AS common_cpc_code_percentage " +
-                           "FROM CountryLossEvent cle " +
-                           "JOIN country c ON cle.m49_code = c.m49_code " +
-                           "JOIN AustraliaYear ay ON cle.year = ay.closest_year " +
-                           "WHERE c.country_name <> ? " +
-                           "AND EXISTS ( " +
-                           "   SELECT 1 " +
-                           "   FROM CountryLossEvent " +
-                           "   WHERE year = cle.year " +
-                           "     AND cpc_code = cle.cpc_code " +
-                           "     AND m49_code = (SELECT m49_code FROM country WHERE country_name = ?) " +
-                           ") " +
-                           "GROUP BY c.country_name " +
-                           "ORDER BY common_cpc_code_percentage DESC " +
-                           "LIMIT (?)";
+            String query = SQL_3A_OVERLAP;
     
             // Debug statement to print the generated SQL query
             System.out.println("Generated SQL query: " + query);
@@ -1026,6 +1139,7 @@ public static String get2AYear(String country, String yr) {
     
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
             e.printStackTrace(); // Print stack trace for detailed error information
         } finally {
             // Close resources in the finally block to ensure they're always closed
@@ -1045,6 +1159,39 @@ public static String get2AYear(String country, String yr) {
     
     
 
+    // Regions with the highest commodity overlap: region, year, region, year, region, region, limit
+    public static final String SQL_3A_OVERLAP_REGION = "WITH RegionYear AS (" +
+            "   SELECT COALESCE(" +
+            "       (SELECT MIN(year) FROM RegionLossEvent cle " +
+            "        JOIN Region c ON cle.m49_code = c.m49_code " +
+            "        WHERE c.region_name = ? AND year >= ?), " +
+            "       (SELECT MAX(year) FROM RegionLossEvent cle " +
+            "        JOIN Region c ON cle.m49_code = c.m49_code " +
+            "        WHERE c.region_name = ?), " +
+            "       ? " +
+            "   ) AS closest_year " +
+            ") " +
+            "SELECT c.region_name, " +
+            "       ROUND(COUNT(DISTINCT cle.cpc_code) * 100.0 / ( " +
+            "           SELECT COUNT(DISTINCT cle2.cpc_code) " +
+            "           FROM RegionLossEvent cle2 " +
+            "           WHERE cle2.year = ay.closest_year " +
+            "       ), 3) AS common_cpc_code_percentage " +
+            "FROM RegionLossEvent cle " +
+            "JOIN Region c ON cle.m49_code = c.m49_code " +
+            "JOIN RegionYear ay ON cle.year = ay.closest_year " +
+            "WHERE c.region_name <> ? " +
+            "AND EXISTS ( " +
+            "   SELECT 1 " +
+            "   FROM RegionLossEvent " +
+            "   WHERE year = cle.year " +
+            "     AND cpc_code = cle.cpc_code " +
+            "     AND m49_code = (SELECT m49_code FROM Region WHERE region_name = ?) " +
+            ") " +
+            "GROUP BY c.region_name " +
+            "ORDER BY common_cpc_code_percentage DESC " +
+            "LIMIT (?)";
+
     public static String get3AOVCR(String regionName, String year, String numGroups) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -1056,37 +1203,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
     
             // Query using the provided SQL with adjustments for regions
-            String query = "WITH RegionYear AS (" +
-                           "   SELECT COALESCE(" +
-                           "       (SELECT MIN(year) FROM RegionLossEvent cle " +
-                           "        JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "        WHERE c.region_name = ? AND year >= ?), " +
-                           "       (SELECT MAX(year) FROM RegionLossEvent cle " +
-                           "        JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "        WHERE c.region_name = ?), " +
-                           "       ? " +
-                           "   ) AS closest_year " +
-                           ") " +
-                           "SELECT c.region_name, " +
-                           "       ROUND(COUNT(DISTINCT cle.cpc_code) * 100.0 / ( " +
-                           "           SELECT COUNT(DISTINCT cle2.cpc_code) " +
-                           "           FROM RegionLossEvent cle2 " +
-                           "           WHERE cle2.year = ay.closest_year " +
-                           "       ), 3) AS common_cpc_code_percentage " +
-                           "FROM RegionLossEvent cle " +
-                           "JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "JOIN RegionYear ay ON cle.year = ay.closest_year " +
-                           "WHERE c.region_name <> ? " +
-                           "AND EXISTS ( " +
-                           "   SELECT 1 " +
-                           "   FROM RegionLossEvent " +
-                           "   WHERE year = cle.year " +
-                           "     AND cpc_code = cle.cpc_code " +
-                           "     AND m49_code = (SELECT m49_code FROM Region WHERE region_name = ?) " +
-                           ") " +
-                           "GROUP BY c.region_name " +
-                           "ORDER BY common_cpc_code_percentage DESC " +
-                           "LIMIT (?)";
+            String query = SQL_3A_OVERLAP_REGION;
     
             // Debug statement to print the generated SQL query
             System.out.println("Generated SQL query: " + query);
@@ -1133,6 +1250,7 @@ public static String get2AYear(String country, String yr) {
     
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
             e.printStackTrace(); // Print stack trace for detailed error information
         } finally {
             // Close resources in the finally block to ensure they're always closed
@@ -1151,6 +1269,59 @@ public static String get2AYear(String country, String yr) {
     
 
 
+    // Countries similar by commodities and loss: country, year, year, country, country, limit
+    public static final String SQL_3A_BOTH_ABS = "WITH SelectedCountry AS ( " +
+            "    SELECT c.m49_code " +
+            "    FROM Country c " +
+            "    WHERE c.country_name = ? " +
+            "), " +
+            "CountryYear AS ( " +
+            "    SELECT COALESCE( " +
+            "        (SELECT MIN(year) FROM CountryLossEvent cle " +
+            "         JOIN SelectedCountry sc ON cle.m49_code = sc.m49_code " +
+            "         WHERE cle.year >= ? ), " +
+            "        (SELECT MAX(year) FROM CountryLossEvent cle " +
+            "         JOIN SelectedCountry sc ON cle.m49_code = sc.m49_code ), " +
+            "        ? " +
+            "    ) AS closest_year " +
+            "), " +
+            "CountryData AS ( " +
+            "    SELECT AVG(cle.percentage) AS avg_percentage " +
+            "    FROM CountryLossEvent cle " +
+            "    JOIN SelectedCountry sc ON cle.m49_code = sc.m49_code " +
+            "    JOIN CountryYear cy ON cle.year = cy.closest_year " +
+            "), " +
+            "CountryComparison AS ( " +
+            "    SELECT c.country_name, " +
+            "           AVG(cle.percentage) AS avg_percentage, " +
+            "           COUNT(DISTINCT cle.cpc_code) AS common_cpc_codes " +
+            "    FROM CountryLossEvent cle " +
+            "    JOIN Country c ON cle.m49_code = c.m49_code " +
+            "    JOIN CountryYear cy ON cle.year = cy.closest_year " +
+            "    WHERE c.country_name <> ? " +
+            "    AND EXISTS ( " +
+            "        SELECT 1 " +
+            "        FROM CountryLossEvent cle2 " +
+            "        WHERE cle2.year = cle.year " +
+            "        AND cle2.cpc_code = cle.cpc_code " +
+            "        AND cle2.m49_code = (SELECT m49_code FROM Country WHERE country_name = ?) " +
+            "    ) " +
+            "    GROUP BY c.country_name " +
+            "), " +
+            "RankedCountries AS ( " +
+            "    SELECT cc.country_name, " +
+            "           cc.avg_percentage, " +
+            "           cc.common_cpc_codes, " +
+            "           ABS(cc.avg_percentage - (SELECT avg_percentage FROM CountryData)) AS percentage_diff " +
+            "    FROM CountryComparison cc " +
+            ") " +
+            "SELECT rc.country_name, " +
+            "       rc.avg_percentage, " +
+            "       rc.common_cpc_codes " +
+            "FROM RankedCountries rc " +
+            "ORDER BY percentage_diff ASC, common_cpc_codes DESC " +
+            "LIMIT ?";
+
     public static String getbotha(String countryName, String year, String numGroups) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -1162,57 +1333,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
     
             // Query using the provided SQL with adjustments for countries and dynamic year selection
-            String query = "WITH SelectedCountry AS ( " +
-                           "    SELECT c.m49_code " +
-                           "    FROM Country c " +
-                           "    WHERE c.country_name = ? " +
-                           "), " +
-                           "CountryYear AS ( " +
-                           "    SELECT COALESCE( " +
-                           "        (SELECT MIN(year) FROM CountryLossEvent cle " +
-                           "         JOIN SelectedCountry sc ON cle.m49_code = sc.m49_code " +
-                           "         WHERE cle.year >= ? ), " +
-                           "        (SELECT MAX(year) FROM CountryLossEvent cle " +
-                           "         JOIN SelectedCountry sc ON cle.m49_code = sc.m49_code ), " +
-                           "        ? " +
-                           "    ) AS closest_year " +
-                           "), " +
-                           "CountryData AS ( " +
-                           "    SELECT AVG(cle.percentage) AS avg_percentage " +
-                           "    FROM CountryLossEvent cle " +
-                           "    JOIN SelectedCountry sc ON cle.m49_code = sc.m49_code " +
-                           "    JOIN CountryYear cy ON cle.year = cy.closest_year " +
-                           "), " +
-                           "CountryComparison AS ( " +
-                           "    SELECT c.country_name, " +
-                           "           AVG(cle.percentage) AS avg_percentage, " +
-                           "           COUNT(DISTINCT cle.cpc_code) AS common_cpc_codes " +
-                           "    FROM CountryLossEvent cle " +
-                           "    JOIN Country c ON cle.m49_code = c.m49_code " +
-                           "    JOIN CountryYear cy ON cle.year = cy.closest_year " +
-                           "    WHERE c.country_name <> ? " +
-                           "    AND EXISTS ( " +
-                           "        SELECT 1 " +
-                           "        FROM CountryLossEvent cle2 " +
-                           "        WHERE cle2.year = cle.year " +
-                           "        AND cle2.cpc_code = cle.cpc_code " +
-                           "        AND cle2.m49_code = (SELECT m49_code FROM Country WHERE country_name = ?) " +
-                           "    ) " +
-                           "    GROUP BY c.country_name " +
-                           "), " +
-                           "RankedCountries AS ( " +
-                           "    SELECT cc.country_name, " +
-                           "           cc.avg_percentage, " +
-                           "           cc.common_cpc_codes, " +
-                           "           ABS(cc.avg_percentage - (SELECT avg_percentage FROM CountryData)) AS percentage_diff " +
-                           "    FROM CountryComparison cc " +
-                           ") " +
-                           "SELECT rc.country_name, " +
-                           "       rc.avg_percentage, " +
-                           "       rc.common_cpc_codes " +
-                           "FROM RankedCountries rc " +
-                           "ORDER BY percentage_diff ASC, common_cpc_codes DESC " +
-                           "LIMIT ?";
+            String query = SQL_3A_BOTH_ABS;
     
             // Debug statement to print the generated SQL query
             System.out.println("Generated SQL query: " + query);
@@ -1261,6 +1382,7 @@ public static String get2AYear(String country, String yr) {
     
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
             e.printStackTrace(); // Print stack trace for detailed error information
         } finally {
             // Close resources in the finally block to ensure they're always closed
@@ -1278,6 +1400,63 @@ public static String get2AYear(String country, String yr) {
     }
     
 
+    // Countries similar by commodity overlap and loss: country, year, country, year, country, country, country, limit
+    public static final String SQL_3A_BOTH_OVERLAP = "WITH CountryYear AS (" +
+            "    SELECT COALESCE(" +
+            "        (SELECT MIN(year) " +
+            "         FROM CountryLossEvent cle " +
+            "         JOIN Country c ON cle.m49_code = c.m49_code " +
+            "         WHERE c.country_name = ? AND year >= ?), " +
+            "        (SELECT MAX(year) " +
+            "         FROM CountryLossEvent cle " +
+            "         JOIN Country c ON cle.m49_code = c.m49_code " +
+            "         WHERE c.country_name = ?), " +
+            "        ? " +
+            "    ) AS closest_year " +
+            "), " +
+            "CountryAvgPercentage AS (" +
+            "    SELECT AVG(cle.percentage) AS avg_percentage " +
+            "    FROM CountryLossEvent cle " +
+            "    JOIN Country c ON cle.m49_code = c.m49_code " +
+            "    WHERE c.country_name = ? " +
+            "      AND cle.year = (SELECT closest_year FROM CountryYear) " +
+            "), " +
+            "CommonCPCCodePercentage AS (" +
+            "    SELECT c.country_name, " +
+            "           ROUND(COUNT(DISTINCT cle.cpc_code) * 100.0 / ( " +
+            "               SELECT COUNT(DISTINCT cle2.cpc_code) " +
+            "               FROM CountryLossEvent cle2 " +
+            "               WHERE cle2.year = (SELECT closest_year FROM CountryYear) " +
+            "           ), 3) AS common_cpc_code_percentage " +
+            "    FROM CountryLossEvent cle " +
+            "    JOIN Country c ON cle.m49_code = c.m49_code " +
+            "    JOIN CountryYear cy ON cle.year = cy.closest_year " +
+            "    WHERE c.country_name <> ? " +
+            "      AND EXISTS ( " +
+            "          SELECT 1 " +
+            "          FROM CountryLossEvent " +
+            "          WHERE year = cle.year " +
+            "            AND cpc_code = cle.cpc_code " +
+            "            AND m49_code = (SELECT m49_code FROM Country WHERE country_name = ?) " +
+            "      ) " +
+            "    GROUP BY c.country_name " +
+            ") " +
+            "SELECT c.country_name, " +
+            "       MIN(cle.year) AS closest_year, " +
+            "       ROUND(AVG(cle.percentage), 3) AS avg_percentage, " +
+            "       cpp.common_cpc_code_percentage " +
+            "FROM CountryLossEvent cle " +
+            "JOIN Country c ON cle.m49_code = c.m49_code " +
+            "JOIN CountryYear cy ON cle.year = cy.closest_year " +
+            "JOIN CommonCPCCodePercentage cpp ON c.country_name = cpp.country_name " +
+            "WHERE cle.year = cy.closest_year " +
+            "GROUP BY c.country_name, cpp.common_cpc_code_percentage " +
+            "HAVING closest_year IS NOT NULL " + // Ensure there is data for the closest year
+            "ORDER BY " +
+            "   ABS(ROUND(AVG(cle.percentage), 3) - (SELECT ROUND(avg_percentage, 3) FROM CountryAvgPercentage)) ASC, " +
+            "   cpp.common_cpc_code_percentage DESC " +
+            "LIMIT ?;";
+
     public static String getbothp(String countryName, String year, String numgroups) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -1289,61 +1468,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
     
             // Prepare the statement
-            String sql = "WITH CountryYear AS (" +
-                         "    SELECT COALESCE(" +
-                         "        (SELECT MIN(year) " +
-                         "         FROM CountryLossEvent cle " +
-                         "         JOIN Country c ON cle.m49_code = c.m49_code " +
-                         "         WHERE c.country_name = ? AND year >= ?), " +
-                         "        (SELECT MAX(year) " +
-                         "         FROM CountryLossEvent cle " +
-                         "         JOIN Country c ON cle.m49_code = c.m49_code " +
-                         "         WHERE c.country_name = ?), " +
-                         "        ? " +
-                         "    ) AS closest_year " +
-                         "), " +
-                         "CountryAvgPercentage AS (" +
-                         "    SELECT AVG(cle.percentage) AS avg_percentage " +
-                         "    FROM CountryLossEvent cle " +
-                         "    JOIN Country c ON cle.m49_code = c.m49_code " +
-                         "    WHERE c.country_name = ? " +
-                         "      AND cle.year = (SELECT closest_year FROM CountryYear) " +
-                         "), " +
-                         "CommonCPCCodePercentage AS (" +
-                         "    SELECT c.country_name, " +
-                         "           ROUND(COUNT(DISTINCT cle.cpc_code) * 100.0 / ( " +
-                         "               SELECT COUNT(DISTINCT cle2.cpc_code) " +
-                         "               FROM CountryLossEvent cle2 " +
-                         "               WHERE cle2.year = (SELECT closest_year FROM CountryYear) " +
-                         "           ), 3) AS common_cpc_code_percentage " +
-                         "    FROM CountryLossEvent cle " +
-                         "    JOIN Country c ON cle.m49_code = c.m49_code " +
-                         "    JOIN CountryYear cy ON cle.year = cy.closest_year " +
-                         "    WHERE c.country_name <> ? " +
-                         "      AND EXISTS ( " +
-                         "          SELECT 1 " +
-                         "          FROM CountryLossEvent " +
-                         "          WHERE year = cle.year " +
-                         "            AND cpc_code = cle.cpc_code " +
-                         "            AND m49_code = (SELECT m49_code FROM Country WHERE country_name = ?) " +
-                         "      ) " +
-                         "    GROUP BY c.country_name " +
-                         ") " +
-                         "SELECT c.country_name, " +
-                         "       MIN(cle.year) AS closest_year, " +
-                         "       ROUND(AVG(cle.percentage), 3) AS avg_percentage, " +
-                         "       cpp.common_cpc_code_percentage " +
-                         "FROM CountryLossEvent cle " +
-                         "JOIN Country c ON cle.m49_code = c.m49_code " +
-                         "JOIN CountryYear cy ON cle.year = cy.closest_year " +
-                         "JOIN CommonCPCCodePercentage cpp ON c.country_name = cpp.country_name " +
-                         "WHERE cle.year = cy.closest_year " +
-                         "GROUP BY c.country_name, cpp.common_cpc_code_percentage " +
-                         "HAVING closest_year IS NOT NULL " + // Ensure there is data for the closest year
-                         "ORDER BY " +
-                         "   ABS(ROUND(AVG(cle.percentage), 3) - (SELECT ROUND(avg_percentage, 3) FROM CountryAvgPercentage)) ASC, " +
-                         "   cpp.common_cpc_code_percentage DESC " +
-                         "LIMIT ?;";
+            String sql = SQL_3A_BOTH_OVERLAP;
     
             preparedStatement = connection.prepareStatement(sql);
     
@@ -1392,6 +1517,7 @@ public static String get2AYear(String country, String yr) {
     
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
             e.printStackTrace(); // Print stack trace for detailed error information
         } finally {
             // Close resources in the finally block to ensure they're always closed
@@ -1531,7 +1657,7 @@ public static String get2AYear(String country, String yr) {
         } catch (SQLException e) {
             // Handle SQL exceptions
             e.printStackTrace();
-            resultHtml.append("<p>Error retrieving data from the database.</p>");
+            resultHtml.append(QUERY_ERROR);
         }
     
         return resultHtml.toString();
@@ -1539,90 +1665,95 @@ public static String get2AYear(String country, String yr) {
 
     
     
+    // Groups with the most similar highest loss: commodity, limit
+    public static final String SQL_3B_HIGHEST = "WITH SelectedCommodityGroup AS (" +
+            "    SELECT" +
+            "        cg.groupID," +
+            "        cg.DESCRIPTOR AS group_name" +
+            "    FROM" +
+            "        Commodity c" +
+            "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
+            "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
+            "    WHERE" +
+            "        c.commodityName = ?" +
+            ")," +
+            "" +
+            "SelectedGroupMaxLossCommodity AS (" +
+            "    SELECT" +
+            "        c.commodityName," +
+            "        MAX(cle.percentage) AS max_loss_percentage" +
+            "    FROM" +
+            "        Commodity c" +
+            "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
+            "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
+            "    WHERE" +
+            "        cp.groupID = (SELECT groupID FROM SelectedCommodityGroup)" +
+            "    GROUP BY" +
+            "        c.commodityName" +
+            "    ORDER BY" +
+            "        max_loss_percentage DESC" +
+            "    LIMIT 1" +
+            ")," +
+            "" +
+            "GroupMaxLoss AS (" +
+            "    SELECT" +
+            "        cg.groupID," +
+            "        cg.DESCRIPTOR AS group_name," +
+            "        MAX(cle.percentage) AS max_loss_percentage" +
+            "    FROM" +
+            "        Commodity c" +
+            "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
+            "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
+            "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
+            "    GROUP BY" +
+            "        cg.groupID, cg.DESCRIPTOR" +
+            ")," +
+            "" +
+            "SimilarityScore AS (" +
+            "    SELECT" +
+            "        gml.groupID," +
+            "        gml.group_name," +
+            "        gml.max_loss_percentage," +
+            "        100 - ABS(gml.max_loss_percentage - (SELECT max_loss_percentage FROM SelectedGroupMaxLossCommodity)) AS similarity_score" +
+            "    FROM" +
+            "        GroupMaxLoss gml" +
+            "    WHERE" +
+            "        gml.groupID <> (SELECT groupID FROM SelectedCommodityGroup)" +
+            ")," +
+            "" +
+            "TopSimilarGroups AS (" +
+            "    SELECT" +
+            "        ss.groupID," +
+            "        ss.group_name," +
+            "        ss.max_loss_percentage," +
+            "        ss.similarity_score" +
+            "    FROM" +
+            "        SimilarityScore ss" +
+            "    ORDER BY" +
+            "        ss.similarity_score DESC" +
+            "    LIMIT ?" +
+            ")" +
+            "" +
+            "SELECT" +
+            "    ts.groupID," +
+            "    ts.group_name," +
+            "    ts.max_loss_percentage," +
+            "    ts.similarity_score" +
+            " FROM" +
+            "    TopSimilarGroups ts;";
+
     public static String test(String country, String total) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
     
         try {
+            // Check the limit before opening a connection
+            int limit = Integer.parseInt(total);
+
             connection = DriverManager.getConnection(DATABASE);
     
             // SQL query with placeholders for parameters
-            String sqlString =
-                "WITH SelectedCommodityGroup AS (" +
-                "    SELECT" +
-                "        cg.groupID," +
-                "        cg.DESCRIPTOR AS group_name" +
-                "    FROM" +
-                "        Commodity c" +
-                "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
-                "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
-                "    WHERE" +
-                "        c.commodityName = ?" +
-                ")," +
-                "" +
-                "SelectedGroupMaxLossCommodity AS (" +
-                "    SELECT" +
-                "        c.commodityName," +
-                "        MAX(cle.percentage) AS max_loss_percentage" +
-                "    FROM" +
-                "        Commodity c" +
-                "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
-                "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
-                "    WHERE" +
-                "        cp.groupID = (SELECT groupID FROM SelectedCommodityGroup)" +
-                "    GROUP BY" +
-                "        c.commodityName" +
-                "    ORDER BY" +
-                "        max_loss_percentage DESC" +
-                "    LIMIT 1" +
-                ")," +
-                "" +
-                "GroupMaxLoss AS (" +
-                "    SELECT" +
-                "        cg.groupID," +
-                "        cg.DESCRIPTOR AS group_name," +
-                "        MAX(cle.percentage) AS max_loss_percentage" +
-                "    FROM" +
-                "        Commodity c" +
-                "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
-                "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
-                "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
-                "    GROUP BY" +
-                "        cg.groupID, cg.DESCRIPTOR" +
-                ")," +
-                "" +
-                "SimilarityScore AS (" +
-                "    SELECT" +
-                "        gml.groupID," +
-                "        gml.group_name," +
-                "        gml.max_loss_percentage," +
-                "        100 - ABS(gml.max_loss_percentage - (SELECT max_loss_percentage FROM SelectedGroupMaxLossCommodity)) AS similarity_score" +
-                "    FROM" +
-                "        GroupMaxLoss gml" +
-                "    WHERE" +
-                "        gml.groupID <> (SELECT groupID FROM SelectedCommodityGroup)" +
-                ")," +
-                "" +
-                "TopSimilarGroups AS (" +
-                "    SELECT" +
-                "        ss.groupID," +
-                "        ss.group_name," +
-                "        ss.max_loss_percentage," +
-                "        ss.similarity_score" +
-                "    FROM" +
-                "        SimilarityScore ss" +
-                "    ORDER BY" +
-                "        ss.similarity_score DESC" +
-                "    LIMIT ?" +
-                ")" +
-                "" +
-                "SELECT" +
-                "    ts.groupID," +
-                "    ts.group_name," +
-                "    ts.max_loss_percentage," +
-                "    ts.similarity_score" +
-                " FROM" +
-                "    TopSimilarGroups ts;";
+            String sqlString = SQL_3B_HIGHEST;
     
             // Log the query for debugging
             System.out.println("Executing query: " + sqlString);
@@ -1630,7 +1761,7 @@ public static String get2AYear(String country, String yr) {
             // Create PreparedStatement
             PreparedStatement preparedStatement = connection.prepareStatement(sqlString);
             preparedStatement.setString(1, country); // Set the country parameter
-            preparedStatement.setInt(2, Integer.parseInt(total)); // Set the total parameter
+            preparedStatement.setInt(2, limit); // Set the total parameter
     
             // Execute query and process results
             ResultSet resultSet = preparedStatement.executeQuery();
@@ -1671,7 +1802,7 @@ public static String get2AYear(String country, String yr) {
         } catch (SQLException e) {
             // Handle SQL exceptions
             e.printStackTrace();
-            resultHtml.append("<p>Error retrieving data from the database.</p>");
+            resultHtml.append(QUERY_ERROR);
         } catch (NumberFormatException e) {
             // Handle NumberFormatException if total is not a valid integer
             e.printStackTrace();
@@ -1682,76 +1813,81 @@ public static String get2AYear(String country, String yr) {
     }
     
     
+    // Groups with the most similar lowest loss: commodity, limit
+    public static final String SQL_3B_LOWEST = "WITH SelectedCommodityGroup AS (" +
+            "    SELECT" +
+            "        cg.groupID," +
+            "        cg.DESCRIPTOR AS group_name" +
+            "    FROM" +
+            "        Commodity c" +
+            "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
+            "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
+            "    WHERE" +
+            "        c.commodityName = ?" + // Use placeholder for country parameter
+            ")," +
+            "SelectedGroupMinLossCommodity AS (" +
+            "    SELECT" +
+            "        c.commodityName," +
+            "        MIN(cle.percentage) AS min_loss_percentage" +
+            "    FROM" +
+            "        Commodity c" +
+            "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
+            "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
+            "    WHERE" +
+            "        cp.groupID = (SELECT groupID FROM SelectedCommodityGroup)" +
+            "    GROUP BY" +
+            "        c.commodityName" +
+            "    ORDER BY" +
+            "        min_loss_percentage ASC" +
+            "    LIMIT 1" +
+            ")," +
+            "GroupMinLoss AS (" +
+            "    SELECT" +
+            "        cg.groupID," +
+            "        cg.DESCRIPTOR AS group_name," +
+            "        MIN(cle.percentage) AS min_loss_percentage" +
+            "    FROM" +
+            "        Commodity c" +
+            "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
+            "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
+            "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
+            "    GROUP BY" +
+            "        cg.groupID, cg.DESCRIPTOR" +
+            ")," +
+            "SimilarityScore AS (" +
+            "    SELECT" +
+            "        gml.groupID," +
+            "        gml.group_name," +
+            "        gml.min_loss_percentage," +
+            "        ROUND(100 - ABS(gml.min_loss_percentage - (SELECT min_loss_percentage FROM SelectedGroupMinLossCommodity)), 3) AS similarity_score" +
+            "    FROM" +
+            "        GroupMinLoss gml" +
+            "    WHERE" +
+            "        gml.groupID <> (SELECT groupID FROM SelectedCommodityGroup)" +
+            ")" +
+            "SELECT" +
+            "    ss.groupID," +
+            "    ss.group_name," +
+            "    ss.min_loss_percentage," +
+            "    ss.similarity_score" +
+            " FROM" +
+            "    SimilarityScore ss" +
+            " ORDER BY" +
+            "    ss.similarity_score DESC" +
+            " LIMIT ?";
+
     public static String test1(String country, String total) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
         
         try {
+            // Check the limit before opening a connection
+            int limit = Integer.parseInt(total);
+
             connection = DriverManager.getConnection(DATABASE);
         
             // SQL query with placeholders for parameters
-            String sqlString =
-                "WITH SelectedCommodityGroup AS (" +
-                "    SELECT" +
-                "        cg.groupID," +
-                "        cg.DESCRIPTOR AS group_name" +
-                "    FROM" +
-                "        Commodity c" +
-                "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
-                "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
-                "    WHERE" +
-                "        c.commodityName = ?" + // Use placeholder for country parameter
-                ")," +
-                "SelectedGroupMinLossCommodity AS (" +
-                "    SELECT" +
-                "        c.commodityName," +
-                "        MIN(cle.percentage) AS min_loss_percentage" +
-                "    FROM" +
-                "        Commodity c" +
-                "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
-                "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
-                "    WHERE" +
-                "        cp.groupID = (SELECT groupID FROM SelectedCommodityGroup)" +
-                "    GROUP BY" +
-                "        c.commodityName" +
-                "    ORDER BY" +
-                "        min_loss_percentage ASC" +
-                "    LIMIT 1" +
-                ")," +
-                "GroupMinLoss AS (" +
-                "    SELECT" +
-                "        cg.groupID," +
-                "        cg.DESCRIPTOR AS group_name," +
-                "        MIN(cle.percentage) AS min_loss_percentage" +
-                "    FROM" +
-                "        Commodity c" +
-                "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
-                "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
-                "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
-                "    GROUP BY" +
-                "        cg.groupID, cg.DESCRIPTOR" +
-                ")," +
-                "SimilarityScore AS (" +
-                "    SELECT" +
-                "        gml.groupID," +
-                "        gml.group_name," +
-                "        gml.min_loss_percentage," +
-                "        ROUND(100 - ABS(gml.min_loss_percentage - (SELECT min_loss_percentage FROM SelectedGroupMinLossCommodity)), 3) AS similarity_score" +
-                "    FROM" +
-                "        GroupMinLoss gml" +
-                "    WHERE" +
-                "        gml.groupID <> (SELECT groupID FROM SelectedCommodityGroup)" +
-                ")" +
-                "SELECT" +
-                "    ss.groupID," +
-                "    ss.group_name," +
-                "    ss.min_loss_percentage," +
-                "    ss.similarity_score" +
-                " FROM" +
-                "    SimilarityScore ss" +
-                " ORDER BY" +
-                "    ss.similarity_score DESC" +
-                " LIMIT ?"; // Use placeholder for total parameter
+            String sqlString = SQL_3B_LOWEST; // Use placeholder for total parameter
         
             // Log the query for debugging
             System.out.println("Executing query: " + sqlString);
@@ -1759,7 +1895,7 @@ public static String get2AYear(String country, String yr) {
             // Create PreparedStatement
             PreparedStatement preparedStatement = connection.prepareStatement(sqlString);
             preparedStatement.setString(1, country); // Set the country parameter
-            preparedStatement.setInt(2, Integer.parseInt(total)); // Set the total parameter
+            preparedStatement.setInt(2, limit); // Set the total parameter
         
             // Execute query and process results
             ResultSet resultSet = preparedStatement.executeQuery();
@@ -1800,7 +1936,7 @@ public static String get2AYear(String country, String yr) {
         } catch (SQLException e) {
             // Handle SQL exceptions
             e.printStackTrace();
-            resultHtml.append("<p>Error retrieving data from the database.</p>");
+            resultHtml.append(QUERY_ERROR);
         } catch (NumberFormatException e) {
             // Handle NumberFormatException if total is not a valid integer
             e.printStackTrace();
@@ -1812,71 +1948,77 @@ public static String get2AYear(String country, String yr) {
     
 
 
+    // Groups with the most similar loss ratio: commodity, limit
+    public static final String SQL_3B_RATIO_GROUPS = "WITH SelectedCommodityGroup AS (\n" +
+            "    SELECT cg.groupID, cg.DESCRIPTOR AS commodity_group\n" +
+            "    FROM Commodity AS c\n" +
+            "    JOIN CPC AS cp ON c.cpc_code = cp.cpc_code\n" +
+            "    JOIN CommodityGroup AS cg ON cp.groupID = cg.GroupID\n" +
+            "    WHERE c.commodityName = ?\n" +
+            "),\n" +
+            "WasteLossCounts AS (\n" +
+            "    SELECT\n" +
+            "        cg.DESCRIPTOR AS group_name,\n" +
+            "        SUM(CASE WHEN cl.supply_stage IN ('Retail', 'Households', 'Food Services', 'Market') THEN 1 ELSE 0 END) AS waste_count,\n" +
+            "        SUM(CASE WHEN cl.supply_stage NOT IN ('Retail', 'Households', 'Food Services', 'Market') THEN 1 ELSE 0 END) AS loss_count\n" +
+            "    FROM Commodity AS c\n" +
+            "    JOIN CPC AS cp ON c.cpc_code = cp.cpc_code\n" +
+            "    JOIN CommodityGroup AS cg ON cp.groupID = cg.GroupID\n" +
+            "    JOIN CountryLossEvent AS cl ON cl.cpc_code = cp.cpc_code\n" +
+            "    GROUP BY cg.DESCRIPTOR\n" +
+            "),\n" +
+            "TomatoesCounts AS (\n" +
+            "    SELECT\n" +
+            "        group_name,\n" +
+            "        waste_count AS tomatoes_waste_count,\n" +
+            "        loss_count AS tomatoes_loss_count,\n" +
+            "        CASE\n" +
+            "            WHEN loss_count > 0 THEN waste_count * 1.0 / loss_count\n" +
+            "            ELSE NULL\n" +
+            "        END AS tomatoes_waste_to_loss_ratio\n" +
+            "    FROM WasteLossCounts\n" +
+            "    WHERE group_name = (SELECT commodity_group FROM SelectedCommodityGroup)\n" +
+            "),\n" +
+            "Comparison AS (\n" +
+            "    SELECT\n" +
+            "        wc.group_name AS similar_group,\n" +
+            "        wc.waste_count,\n" +
+            "        wc.loss_count,\n" +
+            "        CASE\n" +
+            "            WHEN tc.tomatoes_loss_count > 0 THEN wc.waste_count * 1.0 / tc.tomatoes_loss_count\n" +
+            "            ELSE NULL\n" +
+            "        END AS waste_to_tomatoes_loss_ratio\n" +
+            "    FROM WasteLossCounts wc\n" +
+            "    CROSS JOIN TomatoesCounts tc\n" +
+            "    WHERE wc.group_name <> tc.group_name\n" +
+            ")\n" +
+            "SELECT\n" +
+            "    similar_group,\n" +
+            "    waste_count,\n" +
+            "    loss_count,\n" +
+            "    waste_to_tomatoes_loss_ratio\n" +
+            "FROM Comparison\n" +
+            "ORDER BY ABS(waste_to_tomatoes_loss_ratio - 1) ASC\n" +
+            "LIMIT ?;";
+
     public static String compareGroups(String commodityName, String numGroups) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
     
         try {
+            // Check the limit before opening a connection
+            int limit = Integer.parseInt(numGroups);
+
             // Establish the database connection
             connection = DriverManager.getConnection(DATABASE);
     
             // Prepare the SQL query with placeholders for commodity name and limit
-            String query = "WITH SelectedCommodityGroup AS (\n" +
-                    "    SELECT cg.groupID, cg.DESCRIPTOR AS commodity_group\n" +
-                    "    FROM Commodity AS c\n" +
-                    "    JOIN CPC AS cp ON c.cpc_code = cp.cpc_code\n" +
-                    "    JOIN CommodityGroup AS cg ON cp.groupID = cg.GroupID\n" +
-                    "    WHERE c.commodityName = ?\n" +
-                    "),\n" +
-                    "WasteLossCounts AS (\n" +
-                    "    SELECT\n" +
-                    "        cg.DESCRIPTOR AS group_name,\n" +
-                    "        SUM(CASE WHEN cl.supply_stage IN ('Retail', 'Households', 'Food Services', 'Market') THEN 1 ELSE 0 END) AS waste_count,\n" +
-                    "        SUM(CASE WHEN cl.supply_stage NOT IN ('Retail', 'Households', 'Food Services', 'Market') THEN 1 ELSE 0 END) AS loss_count\n" +
-                    "    FROM Commodity AS c\n" +
-                    "    JOIN CPC AS cp ON c.cpc_code = cp.cpc_code\n" +
-                    "    JOIN CommodityGroup AS cg ON cp.groupID = cg.GroupID\n" +
-                    "    JOIN CountryLossEvent AS cl ON cl.cpc_code = cp.cpc_code\n" +
-                    "    GROUP BY cg.DESCRIPTOR\n" +
-                    "),\n" +
-                    "TomatoesCounts AS (\n" +
-                    "    SELECT\n" +
-                    "        group_name,\n" +
-                    "        waste_count AS tomatoes_waste_count,\n" +
-                    "        loss_count AS tomatoes_loss_count,\n" +
-                    "        CASE\n" +
-                    "            WHEN loss_count > 0 THEN waste_count * 1.0 / loss_count\n" +
-                    "            ELSE NULL\n" +
-                    "        END AS tomatoes_waste_to_loss_ratio\n" +
-                    "    FROM WasteLossCounts\n" +
-                    "    WHERE group_name = (SELECT commodity_group FROM SelectedCommodityGroup)\n" +
-                    "),\n" +
-                    "Comparison AS (\n" +
-                    "    SELECT\n" +
-                    "        wc.group_name AS similar_group,\n" +
-                    "        wc.waste_count,\n" +
-                    "        wc.loss_count,\n" +
-                    "        CASE\n" +
-                    "            WHEN tc.tomatoes_loss_count > 0 THEN wc.waste_count * 1.0 / tc.tomatoes_loss_count\n" +
-                    "            ELSE NULL\n" +
-                    "        END AS waste_to_tomatoes_loss_ratio\n" +
-                    "    FROM WasteLossCounts wc\n" +
-                    "    CROSS JOIN TomatoesCounts tc\n" +
-                    "    WHERE wc.group_name <> tc.group_name\n" +
-                    ")\n" +
-                    "SELECT\n" +
-                    "    similar_group,\n" +
-                    "    waste_count,\n" +
-                    "    loss_count,\n" +
-                    "    waste_to_tomatoes_loss_ratio\n" +
-                    "FROM Comparison\n" +
-                    "ORDER BY ABS(waste_to_tomatoes_loss_ratio - 1) ASC\n" +
-                    "LIMIT ?;";
+            String query = SQL_3B_RATIO_GROUPS;
     
             // Create a PreparedStatement
             PreparedStatement preparedStatement = connection.prepareStatement(query);
             preparedStatement.setString(1, commodityName);
-            preparedStatement.setInt(2, Integer.parseInt(numGroups));
+            preparedStatement.setInt(2, limit);
     
             // Execute the query and process results
             ResultSet resultSet = preparedStatement.executeQuery();
@@ -1917,7 +2059,7 @@ public static String get2AYear(String country, String yr) {
         } catch (SQLException e) {
             // Handle SQL exceptions
             e.printStackTrace();
-            resultHtml.append("<p>Error retrieving data from the database.</p>");
+            resultHtml.append(QUERY_ERROR);
         } catch (NumberFormatException e) {
             // Handle NumberFormatException if numGroups is not a valid integer
             e.printStackTrace();
@@ -1928,6 +2070,36 @@ public static String get2AYear(String country, String yr) {
     }
     
 
+    // Loss ratio of a commodity's group: commodity
+    public static final String SQL_3B_RATIO = "WITH SelectedCommodityGroup AS (\n" +
+            "    SELECT cg.groupID, cg.DESCRIPTOR AS commodity_group\n" +
+            "    FROM Commodity AS c\n" +
+            "    JOIN CPC AS cp ON c.cpc_code = cp.cpc_code\n" +
+            "    JOIN CommodityGroup AS cg ON cp.groupID = cg.GroupID\n" +
+            "    WHERE c.commodityName = ?\n" +
+            "),\n" +
+            "WasteLossCounts AS (\n" +
+            "    SELECT\n" +
+            "        cg.DESCRIPTOR AS group_name,\n" +
+            "        SUM(CASE WHEN cl.supply_stage IN ('Retail', 'Households', 'Food Services', 'Market') THEN 1 ELSE 0 END) AS waste_count,\n" +
+            "        SUM(CASE WHEN cl.supply_stage NOT IN ('Retail', 'Households', 'Food Services', 'Market') THEN 1 ELSE 0 END) AS loss_count\n" +
+            "    FROM Commodity AS c\n" +
+            "    JOIN CPC AS cp ON c.cpc_code = cp.cpc_code\n" +
+            "    JOIN CommodityGroup AS cg ON cp.groupID = cg.GroupID\n" +
+            "    JOIN CountryLossEvent AS cl ON cl.cpc_code = cp.cpc_code\n" +
+            "    WHERE cg.DESCRIPTOR = (SELECT commodity_group FROM SelectedCommodityGroup)\n" +
+            "    GROUP BY cg.DESCRIPTOR\n" +
+            ")\n" +
+            "SELECT\n" +
+            "    group_name,\n" +
+            "    waste_count,\n" +
+            "    loss_count,\n" +
+            "    CASE\n" +
+            "        WHEN loss_count > 0 THEN waste_count * 1.0 / loss_count\n" +
+            "        ELSE NULL\n" +
+            "    END AS waste_to_loss_ratio\n" +
+            "FROM WasteLossCounts;";
+
     public static String getRatio(String commodityName) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -1937,34 +2109,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
 
             // Prepare the SQL query with placeholders for commodity name
-            String query = "WITH SelectedCommodityGroup AS (\n" +
-                    "    SELECT cg.groupID, cg.DESCRIPTOR AS commodity_group\n" +
-                    "    FROM Commodity AS c\n" +
-                    "    JOIN CPC AS cp ON c.cpc_code = cp.cpc_code\n" +
-                    "    JOIN CommodityGroup AS cg ON cp.groupID = cg.GroupID\n" +
-                    "    WHERE c.commodityName = ?\n" +
-                    "),\n" +
-                    "WasteLossCounts AS (\n" +
-                    "    SELECT\n" +
-                    "        cg.DESCRIPTOR AS group_name,\n" +
-                    "        SUM(CASE WHEN cl.supply_stage IN ('Retail', 'Households', 'Food Services', 'Market') THEN 1 ELSE 0 END) AS waste_count,\n" +
-                    "        SUM(CASE WHEN cl.supply_stage NOT IN ('Retail', 'Households', 'Food Services', 'Market') THEN 1 ELSE 0 END) AS loss_count\n" +
-                    "    FROM Commodity AS c\n" +
-                    "    JOIN CPC AS cp ON c.cpc_code = cp.cpc_code\n" +
-                    "    JOIN CommodityGroup AS cg ON cp.groupID = cg.GroupID\n" +
-                    "    JOIN CountryLossEvent AS cl ON cl.cpc_code = cp.cpc_code\n" +
-                    "    WHERE cg.DESCRIPTOR = (SELECT commodity_group FROM SelectedCommodityGroup)\n" +
-                    "    GROUP BY cg.DESCRIPTOR\n" +
-                    ")\n" +
-                    "SELECT\n" +
-                    "    group_name,\n" +
-                    "    waste_count,\n" +
-                    "    loss_count,\n" +
-                    "    CASE\n" +
-                    "        WHEN loss_count > 0 THEN waste_count * 1.0 / loss_count\n" +
-                    "        ELSE NULL\n" +
-                    "    END AS waste_to_loss_ratio\n" +
-                    "FROM WasteLossCounts;";
+            String query = SQL_3B_RATIO;
 
             // Create a PreparedStatement
             PreparedStatement preparedStatement = connection.prepareStatement(query);
@@ -2013,12 +2158,43 @@ public static String get2AYear(String country, String yr) {
         } catch (SQLException e) {
             // Handle SQL exceptions
             e.printStackTrace();
-            resultHtml.append("<p>Error retrieving data from the database.</p>");
+            resultHtml.append(QUERY_ERROR);
         }
 
         return resultHtml.toString();
     }
 
+    // Average loss of the selected country: country, year, country, country, year
+    public static final String SQL_3A_SELECTED_COUNTRY = "SELECT c.country_name, MIN(cle.year) AS closest_year, AVG(cle.percentage) AS avg_percentage " +
+            "FROM CountryLossEvent cle " +
+            "JOIN Country c ON cle.m49_code = c.m49_code " +
+            "WHERE cle.year IN ( " +
+            "   SELECT cle.year " +
+            "   FROM CountryLossEvent cle " +
+            "   JOIN Country c ON cle.m49_code = c.m49_code " +
+            "   WHERE c.country_name = ? " +
+            "   GROUP BY cle.year " +
+            "   ORDER BY ABS(cle.year - ?) " +
+            "   LIMIT 1 " +
+            ") " +
+            "GROUP BY c.country_name " +
+            "HAVING closest_year IS NOT NULL " +
+            "ORDER BY ABS(avg_percentage - ( " +
+            "   SELECT AVG(cle2.percentage) " +
+            "   FROM CountryLossEvent cle2 " +
+            "   JOIN Country c2 ON cle2.m49_code = c2.m49_code " +
+            "   WHERE c2.country_name = ? " +
+            "     AND cle2.year = ( " +
+            "         SELECT cle.year " +
+            "         FROM CountryLossEvent cle " +
+            "         JOIN Country c ON cle.m49_code = c.m49_code " +
+            "         WHERE c.country_name = ? " +
+            "         ORDER BY ABS(cle.year - ?) " +
+            "         LIMIT 1 " +
+            "     ) " +
+            ")) ASC " +
+            "LIMIT 1";
+
     public static String getA1(String name, String year, String numGroups) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -2028,35 +2204,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
 
             // Query to get closest year for the specified country
-            query = "SELECT c.country_name, MIN(cle.year) AS closest_year, AVG(cle.percentage) AS avg_percentage " +
-                    "FROM CountryLossEvent cle " +
-                    "JOIN Country c ON cle.m49_code = c.m49_code " +
-                    "WHERE cle.year IN ( " +
-                    "   SELECT cle.year " +
-                    "   FROM CountryLossEvent cle " +
-                    "   JOIN Country c ON cle.m49_code = c.m49_code " +
-                    "   WHERE c.country_name = ? " +
-                    "   GROUP BY cle.year " +
-                    "   ORDER BY ABS(cle.year - ?) " +
-                    "   LIMIT 1 " +
-                    ") " +
-                    "GROUP BY c.country_name " +
-                    "HAVING closest_year IS NOT NULL " +
-                    "ORDER BY ABS(avg_percentage - ( " +
-                    "   SELECT AVG(cle2.percentage) " +
-                    "   FROM CountryLossEvent cle2 " +
-                    "   JOIN Country c2 ON cle2.m49_code = c2.m49_code " +
-                    "   WHERE c2.country_name = ? " +
-                    "     AND cle2.year = ( " +
-                    "         SELECT cle.year " +
-                    "         FROM CountryLossEvent cle " +
-                    "         JOIN Country c ON cle.m49_code = c.m49_code " +
-                    "         WHERE c.country_name = ? " +
-                    "         ORDER BY ABS(cle.year - ?) " +
-                    "         LIMIT 1 " +
-                    "     ) " +
-                    ")) ASC " +
-                    "LIMIT 1";
+            query = SQL_3A_SELECTED_COUNTRY;
 
             PreparedStatement preparedStatement = connection.prepareStatement(query);
             preparedStatement.setString(1, name);
@@ -2099,6 +2247,7 @@ public static String get2AYear(String country, String yr) {
             preparedStatement.close();
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
         } finally {
             try {
                 if (connection != null) {
@@ -2113,6 +2262,30 @@ public static String get2AYear(String country, String yr) {
     }
 
 
+    // Commodities of the selected country: country, country, year, country, year
+    public static final String SQL_3A_COUNTRY_COMMODITIES = "WITH CountryCPC AS (" +
+            "    SELECT DISTINCT cle.cpc_code, cpc.descriptor " +
+            "    FROM CountryLossEvent cle " +
+            "    JOIN country c ON cle.m49_code = c.m49_code " +
+            "    JOIN CPC cpc ON cle.cpc_code = cpc.cpc_code " +
+            "    WHERE c.country_name = ? " +
+            "), " +
+            "CountryYear AS (" +
+            "    SELECT COALESCE(" +
+            "        (SELECT MIN(year) FROM CountryLossEvent cle " +
+            "         JOIN country c ON cle.m49_code = c.m49_code " +
+            "         WHERE c.country_name = ? AND year >= ?), " +
+            "        (SELECT MAX(year) FROM CountryLossEvent cle " +
+            "         JOIN country c ON cle.m49_code = c.m49_code " +
+            "         WHERE c.country_name = ?), " +
+            "        ? " +
+            "    ) AS closest_year " +
+            ") " +
+            "SELECT cc.cpc_code, cc.descriptor " +
+            "FROM CountryCPC cc " +
+            "JOIN CountryYear cy ON 1=1 " +
+            "ORDER BY cc.cpc_code";
+
     public static String get2A(String name, String year) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -2123,28 +2296,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
 
             // Query to get all CPC codes and descriptions for the specified country and year
-            String query = "WITH CountryCPC AS (" +
-                           "    SELECT DISTINCT cle.cpc_code, cpc.descriptor " +
-                           "    FROM CountryLossEvent cle " +
-                           "    JOIN country c ON cle.m49_code = c.m49_code " +
-                           "    JOIN CPC cpc ON cle.cpc_code = cpc.cpc_code " +
-                           "    WHERE c.country_name = ? " +
-                           "), " +
-                           "CountryYear AS (" +
-                           "    SELECT COALESCE(" +
-                           "        (SELECT MIN(year) FROM CountryLossEvent cle " +
-                           "         JOIN country c ON cle.m49_code = c.m49_code " +
-                           "         WHERE c.country_name = ? AND year >= ?), " +
-                           "        (SELECT MAX(year) FROM CountryLossEvent cle " +
-                           "         JOIN country c ON cle.m49_code = c.m49_code " +
-                           "         WHERE c.country_name = ?), " +
-                           "        ? " +
-                           "    ) AS closest_year " +
-                           ") " +
-                           "SELECT cc.cpc_code, cc.descriptor " +
-                           "FROM CountryCPC cc " +
-                           "JOIN CountryYear cy ON 1=1 " +
-                           "ORDER BY cc.cpc_code";
+            String query = SQL_3A_COUNTRY_COMMODITIES;
 
             preparedStatement = connection.prepareStatement(query);
             preparedStatement.setString(1, name);
@@ -2184,6 +2336,7 @@ public static String get2AYear(String country, String yr) {
 
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
             e.printStackTrace(); // Print stack trace for detailed error information
         } finally {
             try {
@@ -2204,6 +2357,37 @@ public static String get2AYear(String country, String yr) {
         return resultHtml.toString();
     }
 
+    // Average loss of the selected region: region, year, region, region, year
+    public static final String SQL_3A_SELECTED_REGION = "SELECT c.region_name, MIN(cle.year) AS closest_year, AVG(cle.percentage) AS avg_percentage " +
+            "FROM RegionLossEvent cle " +
+            "JOIN Region c ON cle.m49_code = c.m49_code " +
+            "WHERE cle.year IN ( " +
+            "   SELECT cle.year " +
+            "   FROM RegionLossEvent cle " +
+            "   JOIN Region c ON cle.m49_code = c.m49_code " +
+            "   WHERE c.region_name = ? " +
+            "   GROUP BY cle.year " +
+            "   ORDER BY ABS(cle.year - ?) " +
+            "   LIMIT 1 " +
+            ") " +
+            "GROUP BY c.region_name " +
+            "HAVING closest_year IS NOT NULL " +
+            "ORDER BY ABS(avg_percentage - ( " +
+            "   SELECT AVG(cle2.percentage) " +
+            "   FROM RegionLossEvent cle2 " +
+            "   JOIN Region c2 ON cle2.m49_code = c2.m49_code " +
+            "   WHERE c2.region_name = ? " +
+            "     AND cle2.year = ( " +
+            "         SELECT cle.year " +
+            "         FROM RegionLossEvent cle " +
+            "         JOIN Region c ON cle.m49_code = c.m49_code " +
+            "         WHERE c.region_name = ? " +
+            "         ORDER BY ABS(cle.year - ?) " +
+            "         LIMIT 1 " +
+            "     ) " +
+            ")) ASC " +
+            "LIMIT 1";
+
     public static String getA11(String regionName, String year, String numGroups) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -2214,35 +2398,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
     
             // Query to get closest year for the specified region
-            String query = "SELECT c.region_name, MIN(cle.year) AS closest_year, AVG(cle.percentage) AS avg_percentage " +
-                           "FROM RegionLossEvent cle " +
-                           "JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "WHERE cle.year IN ( " +
-                           "   SELECT cle.year " +
-                           "   FROM RegionLossEvent cle " +
-                           "   JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "   WHERE c.region_name = ? " +
-                           "   GROUP BY cle.year " +
-                           "   ORDER BY ABS(cle.year - ?) " +
-                           "   LIMIT 1 " +
-                           ") " +
-                           "GROUP BY c.region_name " +
-                           "HAVING closest_year IS NOT NULL " +
-                           "ORDER BY ABS(avg_percentage - ( " +
-                           "   SELECT AVG(cle2.percentage) " +
-                           "   FROM RegionLossEvent cle2 " +
-                           "   JOIN Region c2 ON cle2.m49_code = c2.m49_code " +
-                           "   WHERE c2.region_name = ? " +
-                           "     AND cle2.year = ( " +
-                           "         SELECT cle.year " +
-                           "         FROM RegionLossEvent cle " +
-                           "         JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "         WHERE c.region_name = ? " +
-                           "         ORDER BY ABS(cle.year - ?) " +
-                           "         LIMIT 1 " +
-                           "     ) " +
-                           ")) ASC " +
-                           "LIMIT 1";
+            String query = SQL_3A_SELECTED_REGION;
     
             preparedStatement = connection.prepareStatement(query);
             preparedStatement.setString(1, regionName);
@@ -2285,6 +2441,7 @@ public static String get2AYear(String country, String yr) {
     
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
             e.printStackTrace(); // Print stack trace for detailed error information
         } finally {
             try {
@@ -2305,6 +2462,30 @@ public static String get2AYear(String country, String yr) {
         return resultHtml.toString();
     }
     
+    // Commodities of the selected region: region, region, year, region, year
+    public static final String SQL_3A_REGION_COMMODITIES = "WITH RegionCPC AS (" +
+            "    SELECT DISTINCT cle.cpc_code, cpc.descriptor " +
+            "    FROM RegionLossEvent cle " +
+            "    JOIN Region c ON cle.m49_code = c.m49_code " +
+            "    JOIN CPC cpc ON cle.cpc_code = cpc.cpc_code " +
+            "    WHERE c.region_name = ? " +
+            "), " +
+            "RegionYear AS (" +
+            "    SELECT COALESCE(" +
+            "        (SELECT MIN(year) FROM RegionLossEvent cle " +
+            "         JOIN Region c ON cle.m49_code = c.m49_code " +
+            "         WHERE c.region_name = ? AND year >= ?), " +
+            "        (SELECT MAX(year) FROM RegionLossEvent cle " +
+            "         JOIN Region c ON cle.m49_code = c.m49_code " +
+            "         WHERE c.region_name = ?), " +
+            "        ? " +
+            "    ) AS closest_year " +
+            ") " +
+            "SELECT rc.cpc_code, rc.descriptor " +
+            "FROM RegionCPC rc " +
+            "JOIN RegionYear ry ON 1=1 " +
+            "ORDER BY rc.cpc_code";
+
     public static String get2A1(String regionName, String year) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -2315,28 +2496,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
     
             // Query to get all CPC codes and descriptions for the specified region and year
-            String query = "WITH RegionCPC AS (" +
-                           "    SELECT DISTINCT cle.cpc_code, cpc.descriptor " +
-                           "    FROM RegionLossEvent cle " +
-                           "    JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "    JOIN CPC cpc ON cle.cpc_code = cpc.cpc_code " +
-                           "    WHERE c.region_name = ? " +
-                           "), " +
-                           "RegionYear AS (" +
-                           "    SELECT COALESCE(" +
-                           "        (SELECT MIN(year) FROM RegionLossEvent cle " +
-                           "         JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "         WHERE c.region_name = ? AND year >= ?), " +
-                           "        (SELECT MAX(year) FROM RegionLossEvent cle " +
-                           "         JOIN Region c ON cle.m49_code = c.m49_code " +
-                           "         WHERE c.region_name = ?), " +
-                           "        ? " +
-                           "    ) AS closest_year " +
-                           ") " +
-                           "SELECT rc.cpc_code, rc.descriptor " +
-                           "FROM RegionCPC rc " +
-                           "JOIN RegionYear ry ON 1=1 " +
-                           "ORDER BY rc.cpc_code";
+            String query = SQL_3A_REGION_COMMODITIES;
     
             preparedStatement = connection.prepareStatement(query);
             preparedStatement.setString(1, regionName);
@@ -2376,6 +2536,7 @@ public static String get2AYear(String country, String yr) {
     
         } catch (SQLException e) {
             System.err.println("Error executing SQL query: " + e.getMessage());
+            resultHtml.setLength(0);
             e.printStackTrace(); // Print stack trace for detailed error information
         } finally {
             try {
@@ -2397,6 +2558,45 @@ public static String get2AYear(String country, String yr) {
     }
 
 
+    // Highest loss in the selected commodity's group: commodity
+    public static final String SQL_3B_SELECTED_HIGHEST = "WITH SelectedCommodityGroup AS (" +
+            "    SELECT" +
+            "        cg.groupID," +
+            "        cg.DESCRIPTOR AS group_name" +
+            "    FROM" +
+            "        Commodity c" +
+            "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
+            "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
+            "    WHERE" +
+            "        c.commodityName = ?" +
+            ")," +
+            "" +
+            "GroupMaxLoss AS (" +
+            "    SELECT" +
+            "        cg.groupID," +
+            "        cg.DESCRIPTOR AS group_name," +
+            "        MAX(cle.percentage) AS max_loss_percentage" +
+            "    FROM" +
+            "        Commodity c" +
+            "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
+            "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
+            "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
+            "    WHERE" +
+            "        cp.groupID = (SELECT groupID FROM SelectedCommodityGroup)" +
+            "    GROUP BY" +
+            "        cg.groupID, cg.DESCRIPTOR" +
+            "    ORDER BY" +
+            "        max_loss_percentage DESC" +
+            "    LIMIT 1" +
+            ")" +
+            "" +
+            "SELECT" +
+            "    gm.groupID," +
+            "    gm.group_name," +
+            "    gm.max_loss_percentage" +
+            " FROM" +
+            "    GroupMaxLoss gm";
+
     public static String testA(String country, String total) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -2405,44 +2605,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
     
             // SQL query with placeholders for parameters
-            String sqlString =
-                "WITH SelectedCommodityGroup AS (" +
-                "    SELECT" +
-                "        cg.groupID," +
-                "        cg.DESCRIPTOR AS group_name" +
-                "    FROM" +
-                "        Commodity c" +
-                "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
-                "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
-                "    WHERE" +
-                "        c.commodityName = ?" +
-                ")," +
-                "" +
-                "GroupMaxLoss AS (" +
-                "    SELECT" +
-                "        cg.groupID," +
-                "        cg.DESCRIPTOR AS group_name," +
-                "        MAX(cle.percentage) AS max_loss_percentage" +
-                "    FROM" +
-                "        Commodity c" +
-                "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
-                "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
-                "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
-                "    WHERE" +
-                "        cp.groupID = (SELECT groupID FROM SelectedCommodityGroup)" +
-                "    GROUP BY" +
-                "        cg.groupID, cg.DESCRIPTOR" +
-                "    ORDER BY" +
-                "        max_loss_percentage DESC" +
-                "    LIMIT 1" +
-                ")" +
-                "" +
-                "SELECT" +
-                "    gm.groupID," +
-                "    gm.group_name," +
-                "    gm.max_loss_percentage" +
-                " FROM" +
-                "    GroupMaxLoss gm";
+            String sqlString = SQL_3B_SELECTED_HIGHEST;
     
             // Log the query for debugging
             System.out.println("Executing query: " + sqlString);
@@ -2488,7 +2651,7 @@ public static String get2AYear(String country, String yr) {
         } catch (SQLException e) {
             // Handle SQL exceptions
             e.printStackTrace();
-            resultHtml.append("<p>Error retrieving data from the database.</p>");
+            resultHtml.append(QUERY_ERROR);
         } catch (NumberFormatException e) {
             // Handle NumberFormatException if total is not a valid integer
             e.printStackTrace();
@@ -2498,6 +2661,48 @@ public static String get2AYear(String country, String yr) {
         return resultHtml.toString();
     }
     
+    // Lowest loss in the selected commodity's group: commodity
+    public static final String SQL_3B_SELECTED_LOWEST = "WITH SelectedCommodityGroup AS (" +
+            "    SELECT" +
+            "        cg.groupID," +
+            "        cg.DESCRIPTOR AS group_name" +
+            "    FROM" +
+            "        Commodity c" +
+            "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
+            "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
+            "    WHERE" +
+            "        c.commodityName = ?" + // Use placeholder for country parameter
+            ")," +
+            "SelectedGroupMinLossCommodity AS (" +
+            "    SELECT" +
+            "        c.commodityName," +
+            "        MIN(cle.percentage) AS min_loss_percentage" +
+            "    FROM" +
+            "        Commodity c" +
+            "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
+            "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
+            "    WHERE" +
+            "        cp.groupID = (SELECT groupID FROM SelectedCommodityGroup)" +
+            "    GROUP BY" +
+            "        c.commodityName" +
+            "    ORDER BY" +
+            "        min_loss_percentage ASC" +
+            "    LIMIT 1" +
+            ")" +
+            "SELECT" +
+            "    cg.groupID," +
+            "    cg.DESCRIPTOR AS group_name," +
+            "    MIN(cle.percentage) AS min_loss_percentage" +
+            " FROM" +
+            "    Commodity c" +
+            "    JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
+            "    JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
+            "    JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
+            " WHERE" +
+            "    cp.groupID = (SELECT groupID FROM SelectedCommodityGroup)" +
+            " GROUP BY" +
+            "    cg.groupID, cg.DESCRIPTOR";
+
     public static String test1A(String country, String total) {
         StringBuilder resultHtml = new StringBuilder();
         Connection connection = null;
@@ -2506,47 +2711,7 @@ public static String get2AYear(String country, String yr) {
             connection = DriverManager.getConnection(DATABASE);
     
             // SQL query with placeholders for parameters
-            String sqlString =
-                "WITH SelectedCommodityGroup AS (" +
-                "    SELECT" +
-                "        cg.groupID," +
-                "        cg.DESCRIPTOR AS group_name" +
-                "    FROM" +
-                "        Commodity c" +
-                "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
-                "        JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
-                "    WHERE" +
-                "        c.commodityName = ?" + // Use placeholder for country parameter
-                ")," +
-                "SelectedGroupMinLossCommodity AS (" +
-                "    SELECT" +
-                "        c.commodityName," +
-                "        MIN(cle.percentage) AS min_loss_percentage" +
-                "    FROM" +
-                "        Commodity c" +
-                "        JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
-                "        JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
-                "    WHERE" +
-                "        cp.groupID = (SELECT groupID FROM SelectedCommodityGroup)" +
-                "    GROUP BY" +
-                "        c.commodityName" +
-                "    ORDER BY" +
-                "        min_loss_percentage ASC" +
-                "    LIMIT 1" +
-                ")" +
-                "SELECT" +
-                "    cg.groupID," +
-                "    cg.DESCRIPTOR AS group_name," +
-                "    MIN(cle.percentage) AS min_loss_percentage" +
-                " FROM" +
-                "    Commodity c" +
-                "    JOIN Cpc cp ON c.cpc_code = cp.cpc_code" +
-                "    JOIN CommodityGroup cg ON cp.groupID = cg.groupID" +
-                "    JOIN CountryLossEvent cle ON cp.cpc_code = cle.cpc_code" +
-                " WHERE" +
-                "    cp.groupID = (SELECT groupID FROM SelectedCommodityGroup)" +
-                " GROUP BY" +
-                "    cg.groupID, cg.DESCRIPTOR";
+            String sqlString = SQL_3B_SELECTED_LOWEST;
     
             // Log the query for debugging
             System.out.println("Executing query: " + sqlString);
@@ -2592,7 +2757,7 @@ public static String get2AYear(String country, String yr) {
         } catch (SQLException e) {
             // Handle SQL exceptions
             e.printStackTrace();
-            resultHtml.append("<p>Error retrieving data from the database.</p>");
+            resultHtml.append(QUERY_ERROR);
         }
     
         return resultHtml.toString();
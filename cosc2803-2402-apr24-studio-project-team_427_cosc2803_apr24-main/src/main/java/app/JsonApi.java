@@ -0,0 +1,379 @@
+package app;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HexFormat;
+
+import org.eclipse.jetty.server.Response;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+/**
+ * JSON versions of the 2A, 2B, 3A and 3B analyses, for dashboards.
+ * <p>
+ * Each endpoint takes the same fields as its page's form, as query parameters, runs the
+ * same SQL as the page (the queries are constants in JDBCConnection and ST2BFilter) and
+ * streams the rows out with a JsonWriter. The 2A and 2B results are paged like the pages:
+ * pass the "next" token back as cursor to get the following page.
+ * <pre>
+ *    GET /api/2A?country=Australia&amp;year-start=1990&amp;year-end=2020&amp;sortAscDesc=Ascend
+ *    GET /api/2B?commodity=Cereals&amp;year-start=1990&amp;year-end=2020&amp;sort-by=Descend
+ *    GET /api/3A?cr=country&amp;country=Australia&amp;year-start=2000&amp;num_similar_groups=5&amp;similarity=abs
+ *    GET /api/3B?food=Tomatoes&amp;similarity=high_loss_waste&amp;num_similar_groups=5
+ * </pre>
+ * Responses only change when the database does, so they carry a weak ETag made from a hash
+ * of the DatasetVersion (weak, as the same data is sent gzipped or not) and may be cached
+ * for -Dapi.maxAge seconds (default 300). A request whose If-None-Match lists it gets a 304
+ * without a query being run. If a query fails the response is replaced by a 500 that must
+ * not be stored, or, if part of it has already gone, the connection is cut so the partial
+ * response is not taken as complete.
+ */
+public class JsonApi {
+
+    public static final String URL_2A = "/api/2A";
+    public static final String URL_2B = "/api/2B";
+    public static final String URL_3A = "/api/3A";
+    public static final String URL_3B = "/api/3B";
+
+    public static final int MAX_AGE = Integer.getInteger("api.maxAge", 300);
+
+    // DatasetVersion and the ETag made from it
+    private static volatile String[] etag = { "", "" };
+
+    /**
+     * Add the API routes. Their input is checked by InputValidator like the page forms.
+     */
+    public static void register(Javalin app) {
+        app.get(URL_2A, JsonApi::get2A);
+        app.get(URL_2B, JsonApi::get2B);
+        app.get(URL_3A, JsonApi::get3A);
+        app.get(URL_3B, JsonApi::get3B);
+    }
+
+    /**
+     * Return true, after sending a 304, if the client's copy is current. Otherwise nothing is
+     * set: call cacheable() once the response is known to be good.
+     * Also used by the page fragments, which are likewise fixed for a DatasetVersion.
+     */
+    public static boolean notModified(Context context) {
+        String etag = etag();
+        if (matches(context.header("If-None-Match"), etag)) {
+            cacheable(context);
+            context.status(304);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Set the ETag and Cache-Control headers of a response that is fixed for the current DatasetVersion.
+     */
+    public static void cacheable(Context context) {
+        context.header("ETag", etag());
+        context.header("Cache-Control", "public, max-age=" + MAX_AGE);
+    }
+
+    // The weak ETag of the current DatasetVersion, which is hashed as it names the file's device and inode
+    private static String etag() {
+        String version = DatasetVersion.current();
+        String[] cached = etag;
+        if (!cached[0].equals(version)) {
+            try {
+                byte[] hash = MessageDigest.getInstance("SHA-256").digest(version.getBytes(StandardCharsets.UTF_8));
+                cached = new String[] { version, "W/\"" + HexFormat.of().formatHex(hash, 0, 16) + "\"" };
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            etag = cached;
+        }
+        return cached[1];
+    }
+
+    /**
+     * Whether an If-None-Match header (a list of entity tags, or *) includes etag.
+     * Tags are compared weakly, ignoring any W/, as RFC 9110 says If-None-Match does.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * End a response whose query failed. If nothing has been sent yet, the response so far is
+     * thrown away and replaced by a 500 with no-store. Otherwise a 200 and the caching headers
+     * have already gone, so the error is added to the JSON and the connection is cut before
+     * the response is finished, which stops clients and caches keeping it.
+     */
+    private static void fail(Context context, JsonWriter json, String message) throws IOException {
+        if (!context.res.isCommitted()) {
+            json.discard();
+            context.res.reset();
+            context.status(500);
+            context.header("Cache-Control", "no-store");
+            context.contentType("application/json; charset=utf-8");
+            JsonWriter error = new JsonWriter(new OutputStreamWriter(context.res.getOutputStream(), StandardCharsets.UTF_8));
+            error.beginObject().name("error").value(message).endObject();
+            error.close();
+            return;
+        }
+
+        json.abort(message);
+        json.flush();
+        json.discard();
+        if (context.res instanceof Response) {
+            ((Response) context.res).getHttpChannel().abort(new IOException(message));
+        }
+    }
+
+    private static void get2A(Context context) throws IOException {
+        if (notModified(context)) {
+            return;
+        }
+        String country = context.queryParam("country");
+        String yearStart = context.queryParam("year-start");
+        String yearEnd = context.queryParam("year-end");
+        boolean commodity = context.queryParam("commodity") != null;
+        boolean activity = context.queryParam("activity") != null;
+        boolean supply = context.queryParam("supply") != null;
+        boolean loss = context.queryParam("loss") != null;
+        String sort = "Descend".equals(context.queryParam("sortAscDesc")) ? "DESC" : "ASC";
+        PageCursor after = PageCursor.decode(context.queryParam(PageCursor.FORM_FIELD));
+
+        cacheable(context);
+        JsonWriter json = JsonWriter.open(context);
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(JDBCConnection.DATABASE);
+
+            json.beginObject().name("country").value(country);
+            json.name("first");
+            firstRow(json, connection, JDBCConnection.SQL_2A_FIRST_YEAR, country, country, country, yearStart);
+            json.name("last");
+            firstRow(json, connection, JDBCConnection.SQL_2A_LAST_YEAR, country, country, country, yearEnd);
+
+            PreparedStatement statement = JDBCConnection.prepare2AResults(connection, country, yearStart, yearEnd,
+                                                                          commodity, activity, supply, loss, sort, after);
+            ResultSet rows = statement.executeQuery();
+            json.name("results");
+            int written = json.rows(rows, PageCursor.PAGE_SIZE);
+            next(json, after.after(rows, written, "first_year", "percentage", "row_id"));
+            statement.close();
+            json.endObject();
+        } catch (SQLException e) {
+            System.err.println("Error executing SQL query: " + e.getMessage());
+            fail(context, json, "Query failed");
+        } finally {
+            close(connection);
+            json.close();
+        }
+    }
+
+    private static void get2B(Context context) throws IOException {
+        if (notModified(context)) {
+            return;
+        }
+        // Same defaults as the page
+        String foodGroup = context.queryParam("commodity", "Cereals");
+        String yearStart = context.queryParam("year-start", "1966");
+        String yearEnd = context.queryParam("year-end", "2022");
+        String sort = "Descend".equals(context.queryParam("sort-by")) ? "Desc" : "Asc";
+        PageCursor after = PageCursor.decode(context.queryParam(PageCursor.FORM_FIELD));
+
+        cacheable(context);
+        JsonWriter json = JsonWriter.open(context);
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(JDBCConnection.DATABASE);
+
+            json.beginObject().name("foodGroup").value(foodGroup);
+            json.name("first");
+            firstRow(json, connection, ST2BFilter.SQL_FIRST_YEAR, yearStart, foodGroup, foodGroup);
+            json.name("last");
+            firstRow(json, connection, ST2BFilter.SQL_LAST_YEAR, yearEnd, foodGroup, foodGroup);
+
+            PreparedStatement statement = ST2BFilter.prepareResults(connection, foodGroup, yearStart, yearEnd, sort, after);
+            ResultSet rows = statement.executeQuery();
+            json.name("results");
+            int written = json.rows(rows, PageCursor.PAGE_SIZE);
+            next(json, after.after(rows, written, "year", "percentage", "row_id"));
+            statement.close();
+            json.endObject();
+        } catch (SQLException e) {
+            System.err.println("Error executing SQL query: " + e.getMessage());
+            fail(context, json, "Query failed");
+        } finally {
+            close(connection);
+            json.close();
+        }
+    }
+
+    private static void get3A(Context context) throws IOException {
+        if (notModified(context)) {
+            return;
+        }
+        boolean isCountry = "country".equals(context.queryParam("cr"));
+        String name = isCountry ? context.queryParam("country") : context.queryParam("region");
+        int year = Integer.parseInt(context.queryParam("year-start"));
+        int limit = Integer.parseInt(context.queryParam("num_similar_groups"));
+        String similarity = context.queryParam("similarity");
+
+        cacheable(context);
+        JsonWriter json = JsonWriter.open(context);
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(JDBCConnection.DATABASE);
+
+            json.beginObject().name(isCountry ? "country" : "region").value(name);
+            json.name("similarity").value(similarity);
+
+            // The selected country or region, as shown under the results on the page
+            json.name("selected");
+            rows(json, connection, isCountry ? JDBCConnection.SQL_3A_SELECTED_COUNTRY : JDBCConnection.SQL_3A_SELECTED_REGION,
+                 name, year, name, name, year);
+            json.name("commodities");
+            rows(json, connection, isCountry ? JDBCConnection.SQL_3A_COUNTRY_COMMODITIES : JDBCConnection.SQL_3A_REGION_COMMODITIES,
+                 name, name, year, name, year);
+
+            json.name("similar");
+            switch (similarity) {
+                case "percentage":
+                    rows(json, connection, isCountry ? JDBCConnection.SQL_3A_PERCENTAGE_COUNTRY : JDBCConnection.SQL_3A_PERCENTAGE_REGION,
+                         name, year, name, name, year, limit);
+                    break;
+                case "abs":
+                    rows(json, connection, isCountry ? JDBCConnection.SQL_3A_ABS : JDBCConnection.SQL_3A_ABS_REGION,
+                         name, year, name, year, name, name, limit);
+                    break;
+                case "overlap":
+                    rows(json, connection, isCountry ? JDBCConnection.SQL_3A_OVERLAP : JDBCConnection.SQL_3A_OVERLAP_REGION,
+                         name, year, name, year, name, name, limit);
+                    break;
+                case "both-abs":
+                    rows(json, connection, JDBCConnection.SQL_3A_BOTH_ABS, name, year, year, name, name, limit);
+                    break;
+                default:
+                    rows(json, connection, JDBCConnection.SQL_3A_BOTH_OVERLAP, name, year, name, year, name, name, name, limit);
+            }
+            json.endObject();
+        } catch (SQLException e) {
+            System.err.println("Error executing SQL query: " + e.getMessage());
+            fail(context, json, "Query failed");
+        } finally {
+            close(connection);
+            json.close();
+        }
+    }
+
+    private static void get3B(Context context) throws IOException {
+        if (notModified(context)) {
+            return;
+        }
+        String food = context.queryParam("food").replace("_value", "");
+        String similarity = context.queryParam("similarity");
+        int limit = Integer.parseInt(context.queryParam("num_similar_groups"));
+
+        cacheable(context);
+        JsonWriter json = JsonWriter.open(context);
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(JDBCConnection.DATABASE);
+
+            json.beginObject().name("food").value(food);
+            json.name("similarity").value(similarity);
+            json.name("similar");
+            switch (similarity) {
+                case "high_loss_waste":
+                    rows(json, connection, JDBCConnection.SQL_3B_HIGHEST, food, limit);
+                    json.name("selected");
+                    rows(json, connection, JDBCConnection.SQL_3B_SELECTED_HIGHEST, food);
+                    break;
+                case "low_loss_waste":
+                    rows(json, connection, JDBCConnection.SQL_3B_LOWEST, food, limit);
+                    json.name("selected");
+                    rows(json, connection, JDBCConnection.SQL_3B_SELECTED_LOWEST, food);
+                    break;
+                default:
+                    rows(json, connection, JDBCConnection.SQL_3B_RATIO_GROUPS, food, limit);
+                    json.name("selected");
+                    rows(json, connection, JDBCConnection.SQL_3B_RATIO, food);
+            }
+            json.endObject();
+        } catch (SQLException e) {
+            System.err.println("Error executing SQL query: " + e.getMessage());
+            fail(context, json, "Query failed");
+        } finally {
+            close(connection);
+            json.close();
+        }
+    }
+
+    private static void rows(JsonWriter json, Connection connection, String query, Object... parameters)
+            throws SQLException, IOException {
+        PreparedStatement statement = prepare(connection, query, parameters);
+        json.rows(statement.executeQuery());
+        statement.close();
+    }
+
+    private static void firstRow(JsonWriter json, Connection connection, String query, Object... parameters)
+            throws SQLException, IOException {
+        PreparedStatement statement = prepare(connection, query, parameters);
+        json.firstRow(statement.executeQuery());
+        statement.close();
+    }
+
+    // Strings are bound as text and Integers as numbers, in order
+    private static PreparedStatement prepare(Connection connection, String query, Object... parameters) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(query);
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i] instanceof Integer) {
+                statement.setInt(i + 1, (Integer) parameters[i]);
+            } else {
+                statement.setString(i + 1, (String) parameters[i]);
+            }
+        }
+        return statement;
+    }
+
+    private static void next(JsonWriter json, PageCursor next) throws IOException {
+        json.name("next");
+        if (next.more) {
+            json.value(next.encode());
+        } else {
+            json.nullValue();
+        }
+    }
+
+    private static void close(Connection connection) {
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+    }
+}
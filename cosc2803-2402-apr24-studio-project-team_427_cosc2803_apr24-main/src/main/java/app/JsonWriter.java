@@ -0,0 +1,260 @@
+package app;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import io.javalin.http.Context;
+
+/**
+ * Writes JSON straight to the HTTP response, one value at a time.
+ * <p>
+ * Nothing is built in memory first: objects and arrays are opened and closed as they
+ * are written, and rows() writes a ResultSet as an array of objects as the rows are read,
+ * keeping the types SQLite returned (numbers stay numbers, NULL becomes null).
+ * <pre>
+ *    json.beginObject()
+ *        .name("country").value(country)
+ *        .name("results").rows(resultSet)
+ *        .endObject();
+ * </pre>
+ */
+public class JsonWriter implements AutoCloseable {
+
+    private final Writer out;
+
+    // Closing brackets of the objects and arrays still open, innermost last
+    private final StringBuilder open = new StringBuilder();
+    // Whether the next value or name needs a comma before it
+    private boolean needComma = false;
+    // Set by discard(), after which nothing more is sent
+    private boolean discarded = false;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Start a JSON response for this request.
+     */
+    public static JsonWriter open(Context context) throws IOException {
+        context.contentType("application/json; charset=utf-8");
+        return new JsonWriter(new BufferedWriter(new OutputStreamWriter(Compression.open(context), StandardCharsets.UTF_8)));
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        separate();
+        out.write('{');
+        open.append('}');
+        needComma = false;
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return end('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        separate();
+        out.write('[');
+        open.append(']');
+        needComma = false;
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return end(']');
+    }
+
+    /**
+     * Name of the next value in the current object.
+     */
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        out.write(':');
+        needComma = false;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        string(value);
+        needComma = true;
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        needComma = true;
+        return this;
+    }
+
+    /**
+     * A number, or null for NaN and infinity which JSON cannot hold.
+     */
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        separate();
+        out.write(Double.toString(value));
+        needComma = true;
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        needComma = true;
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separate();
+        out.write("null");
+        needComma = true;
+        return this;
+    }
+
+    /**
+     * Write the current row of rows as an object, keyed by column label.
+     */
+    public JsonWriter row(ResultSet rows) throws SQLException, IOException {
+        ResultSetMetaData meta = rows.getMetaData();
+        beginObject();
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            name(meta.getColumnLabel(i));
+            column(rows, i);
+        }
+        return endObject();
+    }
+
+    /**
+     * Write the first row of rows as an object, or null if there are no rows.
+     */
+    public JsonWriter firstRow(ResultSet rows) throws SQLException, IOException {
+        return rows.next() ? row(rows) : nullValue();
+    }
+
+    /**
+     * Write every remaining row of rows as an array of objects.
+     */
+    public JsonWriter rows(ResultSet rows) throws SQLException, IOException {
+        rows(rows, Integer.MAX_VALUE);
+        return this;
+    }
+
+    /**
+     * Write at most maxRows rows as an array of objects, returning the number written.
+     * rows is left on the last row written, as HtmlTable.write does.
+     */
+    public int rows(ResultSet rows, int maxRows) throws SQLException, IOException {
+        beginArray();
+        int written = 0;
+        while (written < maxRows && rows.next()) {
+            written++;
+            row(rows);
+        }
+        endArray();
+        return written;
+    }
+
+    /**
+     * Close every object and array still open, after adding an "error" member to the
+     * innermost open object. Used when a query fails part way through a response.
+     */
+    public void abort(String message) throws IOException {
+        while (open.length() > 0 && open.charAt(open.length() - 1) != '}') {
+            endArray();
+        }
+        if (open.length() > 0) {
+            name("error").value(message);
+        }
+        while (open.length() > 0) {
+            end(open.charAt(open.length() - 1));
+        }
+    }
+
+    /**
+     * Drop what has been written and not yet sent, and send nothing more, not even on
+     * close(). Used when the response is being replaced by an error.
+     */
+    public void discard() {
+        discarded = true;
+    }
+
+    public void flush() throws IOException {
+        if (!discarded) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!discarded) {
+            out.close();
+        }
+    }
+
+    private void column(ResultSet rows, int index) throws SQLException, IOException {
+        Object value = rows.getObject(index);
+        if (value instanceof Integer || value instanceof Long) {
+            value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            value(((Number) value).doubleValue());
+        } else if (value instanceof String) {
+            value((String) value);
+        } else {
+            nullValue();
+        }
+    }
+
+    private JsonWriter end(char closer) throws IOException {
+        int last = open.length() - 1;
+        if (last < 0 || open.charAt(last) != closer) {
+            throw new IllegalStateException("Nothing to close with " + closer);
+        }
+        open.setLength(last);
+        out.write(closer);
+        needComma = true;
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (needComma) {
+            out.write(',');
+        }
+    }
+
+    private void string(String text) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                out.write(text, start, i - start);
+                switch (c) {
+                    case '"':  out.write("\\\""); break;
+                    case '\\': out.write("\\\\"); break;
+                    case '\n': out.write("\\n"); break;
+                    case '\r': out.write("\\r"); break;
+                    case '\t': out.write("\\t"); break;
+                    default:   out.write(String.format("\\u%04x", (int) c));
+                }
+                start = i + 1;
+            }
+        }
+        out.write(text, start, text.length() - start);
+        out.write('"');
+    }
+}
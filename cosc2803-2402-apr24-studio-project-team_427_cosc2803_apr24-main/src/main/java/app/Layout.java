@@ -0,0 +1,66 @@
+package app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The static parts of the pages (head, topnav, header text and footer), rendered once from
+ * their template fragments and kept as UTF-8 bytes.
+ * <p>
+ * Handlers write a segment straight to the response with write(), so only the dynamic
+ * parts of a page (filters, history and results) are rendered and encoded per request.
+ * The byte arrays are never handed out, so a segment cannot change once it is built.
+ */
+public class Layout {
+
+    // Static fragments of each template, built by preload()
+    private static final String[][] SEGMENTS = {
+        { "layout", "end" }, { "layout", "starterEnd" }, { "layout", "loader" },
+        { "index", "top" }, { "index", "end" },
+        { "mission", "top" }, { "mission", "end" },
+        { "page2A", "top" },
+        { "page2B", "top" },
+        { "page3A", "top" }, { "page3A", "script" },
+        { "page3B", "top" },
+    };
+
+    private static final ConcurrentHashMap<String, byte[]> CACHE = new ConcurrentHashMap<String, byte[]>();
+
+    /**
+     * Render and encode every static segment, so no request pays for it.
+     */
+    public static void preload() {
+        long start = System.currentTimeMillis();
+        for (String[] segment : SEGMENTS) {
+            segment(segment[0], segment[1]);
+        }
+        System.out.println("Encoded " + CACHE.size() + " layout segments (" + bytes() + " bytes) in "
+                           + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Write a static fragment of a template to the page.
+     */
+    public static void write(HtmlStream html, String template, String fragment) throws IOException {
+        html.write(segment(template, fragment));
+    }
+
+    public static int size() {
+        return CACHE.size();
+    }
+
+    public static long bytes() {
+        long total = 0;
+        for (byte[] segment : CACHE.values()) {
+            total += segment.length;
+        }
+        return total;
+    }
+
+    private static byte[] segment(String template, String fragment) {
+        return CACHE.computeIfAbsent(template + " :: " + fragment,
+            key -> Templates.renderToString(template, fragment, Map.of()).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,192 @@
+package app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+/**
+ * Position in a paginated "show all data" table (pages 2A and 2B).
+ * <p>
+ * Tables are paged by keyset rather than OFFSET: each page is ordered by a unique key
+ * (year, percentage and row id; 2B orders by percentage first) and starts after the key of
+ * the last row of the previous page, so every page costs the same however far into the
+ * results it is. The key and the
+ * number of rows shown so far travel between requests as an opaque token in the
+ * "cursor" form field. The token is signed with an HMAC, so an edited one is rejected
+ * rather than skewing the "showing rows" line. The signing key is made up when the server
+ * starts, so tokens from before a restart are rejected too, unless -Dpage.cursorKey sets it.
+ * <p>
+ * Use -Dpage.size to change the number of rows per page (default 100).
+ */
+public class PageCursor {
+
+    public static final int PAGE_SIZE = Math.max(1, Integer.getInteger("page.size", 100));
+
+    public static final String FORM_FIELD = "cursor";
+
+    private static final String HMAC = "HmacSHA256";
+    // Bytes of the HMAC kept in a token
+    private static final int SIGNATURE_BYTES = 16;
+    private static final SecretKeySpec KEY = new SecretKeySpec(key(), HMAC);
+    private static final ThreadLocal<Mac> MACS = ThreadLocal.withInitial(() -> {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(KEY);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    // Start of the table
+    public static final PageCursor FIRST = new PageCursor(0, 0, 0, 0, true);
+
+    public final int year;
+    public final double percentage;
+    public final long id;
+    // Rows shown up to and including this position
+    public final int shown;
+    // Whether there are rows after this position (only known when a page is written)
+    public final boolean more;
+
+    private PageCursor(int year, double percentage, long id, int shown, boolean more) {
+        this.year = year;
+        this.percentage = percentage;
+        this.id = id;
+        this.shown = shown;
+        this.more = more;
+    }
+
+    /**
+     * A position a page into the table, after the row with the given key, for building the
+     * query of a later page without reading one (see HotQueries).
+     */
+    static PageCursor at(int year, double percentage, long id) {
+        return new PageCursor(year, percentage, id, PAGE_SIZE, true);
+    }
+
+    public boolean isFirst() {
+        return shown == 0;
+    }
+
+    /**
+     * This position with no rows after it, for when a page could not be read.
+     */
+    public PageCursor end() {
+        return new PageCursor(year, percentage, id, shown, false);
+    }
+
+    /**
+     * Position after the current row of rows, whose key is in the given columns.
+     * Moves rows on by one to find out if more rows follow.
+     */
+    public PageCursor after(ResultSet rows, int written, String yearColumn, String percentageColumn, String idColumn)
+            throws SQLException {
+        if (written == 0) {
+            return end();
+        }
+        int lastYear = rows.getInt(yearColumn);
+        double lastPercentage = rows.getDouble(percentageColumn);
+        long lastId = rows.getLong(idColumn);
+        return new PageCursor(lastYear, lastPercentage, lastId, shown + written, rows.next());
+    }
+
+    /**
+     * Render the "showing rows" line and page buttons for a page that started at this
+     * position and ended at next. The buttons post back every form field except the cursor,
+     * and the CSV link passes them to exportUrl (see CsvExport).
+     */
+    public void writePager(HtmlStream html, Context context, String url, PageCursor next, int total, String exportUrl)
+            throws IOException {
+        List<String[]> params = new ArrayList<String[]>();
+        for (Map.Entry<String, List<String>> field : context.formParamMap().entrySet()) {
+            if (!field.getKey().equals(FORM_FIELD)) {
+                for (String value : field.getValue()) {
+                    params.add(new String[] { field.getKey(), value });
+                }
+            }
+        }
+
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("url", url);
+        model.put("from", next.shown == shown ? shown : shown + 1);
+        model.put("to", next.shown);
+        model.put("total", total);
+        model.put("params", params);
+        model.put("next", next.more ? next.encode() : null);
+        model.put("export", Fragments.link(context, exportUrl));
+        Templates.render(html, "layout", "pager", model);
+    }
+
+    /**
+     * The opaque token for this position: the key, then its signature.
+     */
+    public String encode() {
+        byte[] key = (year + ":" + percentage + ":" + id + ":" + shown).getBytes(StandardCharsets.UTF_8);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(key) + "." + encoder.encodeToString(sign(key));
+    }
+
+    /**
+     * Read a token from a form, FIRST if there is none.
+     * Throws BadRequestResponse (400) if the token was not made by encode().
+     */
+    public static PageCursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return FIRST;
+        }
+        try {
+            int dot = token.indexOf('.');
+            if (dot < 0) {
+                throw new IllegalArgumentException("not signed");
+            }
+            byte[] bytes = Base64.getUrlDecoder().decode(token.substring(0, dot));
+            byte[] signature = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, sign(bytes))) {
+                throw new IllegalArgumentException("bad signature");
+            }
+            String[] key = new String(bytes, StandardCharsets.UTF_8).split(":");
+            if (key.length != 4) {
+                throw new IllegalArgumentException("wrong number of fields");
+            }
+            int shown = Integer.parseInt(key[3]);
+            if (shown < 1) {
+                throw new IllegalArgumentException("no rows shown");
+            }
+            return new PageCursor(Integer.parseInt(key[0]), Double.parseDouble(key[1]), Long.parseLong(key[2]), shown, true);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestResponse("Invalid page cursor");
+        }
+    }
+
+    private static byte[] sign(byte[] key) {
+        return Arrays.copyOf(MACS.get().doFinal(key), SIGNATURE_BYTES);
+    }
+
+    // The signing key from -Dpage.cursorKey, or a random one for this run of the server
+    private static byte[] key() {
+        String configured = System.getProperty("page.cursorKey");
+        if (configured != null && !configured.isEmpty()) {
+            return configured.getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+}
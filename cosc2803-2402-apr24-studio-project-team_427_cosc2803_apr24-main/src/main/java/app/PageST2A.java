@@ -1,9 +1,10 @@
 package app;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
-import java.util.ArrayList;
-import java.util.List;
 
 public class PageST2A implements Handler {
     // URL of this page relative to http://localhost:7001/
@@ -11,106 +12,18 @@ public class PageST2A implements Handler {
 
     @Override
     public void handle(Context context) throws Exception {
-        // Initialize the session list if it doesn't exist
-        if (context.sessionAttribute("lastInputs") == null) {
-            context.sessionAttribute("lastInputs", new ArrayList<List<String>>());
-        }
-
-        // Create a simple HTML webpage in a StringBuilder
-        StringBuilder html = new StringBuilder("<html>");
-        
-        // Add some Head information
-        html.append("<head>")
-            .append("<title>Focused View of Food Waste/Loss by Country</title>")
-            .append("<link rel='stylesheet' type='text/css' href='common.css' />")
-            .append("</head>");
-        
-        // Add the body
-        html.append("<body>");
-        
-        // Add the topnav
-        html.append("""
-            <div class='topnav'>
-                <a href='/'><img src='logo.png' class='top-image' alt='RMIT logo' height='75'></a>
-                <a href='/'>Landing Page</a>
-                <a href='mission.html'>Our Mission</a>
-                <a href='page2A.html'>Focused View of loss/waste change by country</a>
-                <a href='page2B.html'>Focused View of loss/waste change by food group</a>
-                <a href='page3A.html'>Identify locations with similar food waste/loss percentages</a>
-                <a href='page3B.html'>Exploring food commodities and groups</a>
-            </div>
-        """);
-
-        // Add header content block
-        html.append("""
-            <div class='header'>
-                <h1>Focused view of loss/waste change by Country</h1>
-                <p>On this page, you will be able to view food loss data for a country of your choice between a set range of years.
-                to begin, on the left hand side in the filter bar, select a country. From here, set a start and end year for the data
-                range that is to be displayed. You can choose to display which details will be displayed (Commodity, Activity,
-                Food Supply Stage or cause of loss) if you select the Show All Data button at the bottom of the page. You can also
-                select to have the data displayed in ascending or descending order. Hit submit and get your data!!</p>
-            </div>
-        """);
-
-        // Add Div for page Content
-        html.append("<div class='data-container'>");
-        
-        // Add filter section
-        html.append("""
-            <div class='filter-section'>
-                <h2>Filters</h2>
-                <form method='post' action='/page2A.html'> <!-- Ensure correct form action -->
-                    <label for='country'>Country:</label>
-                    <select name='country' id='country'>
-                        <!-- Populate options dynamically -->
-                        """).append(JDBCConnection.getCountriesforDropdown()).append("""
-                    </select><br><br>
-                    <label for='year-start'>Year Start:</label>
-                    <input type='number' id='year-start' name='year-start' value='1966' min='1966' max='2022' required><br><br>
-                    <label for='year-end'>Year End:</label>
-                    <input type='number' id='year-end' name='year-end' value='2022' min='1966' max='2022' required><br><br> 
-                    <h2>Filter Fields</h2>
-                    <input type='checkbox' id='commodity' name='commodity' value='commodity'>
-                    <label for='commodity'>Commodity</label><br>
-                    <input type='checkbox' id='activity' name='activity' value='activity'>
-                    <label for='activity'>Activity</label><br>
-                    <input type='checkbox' id='supply' name='supply' value='supply'>
-                    <label for='supply'>Food Supply Stage</label><br>
-                    <input type='checkbox' id='loss' name='loss' value='loss'>
-                    <label for='loss'>Cause of Loss</label><br><br>
-                    <label for='sort-by'>Sort By:</label>
-                    <select name='sortAscDesc' id='sort-by'>
-                        <option value='Ascend'>Ascend</option>
-                        <option value='Descend'>Descend</option>
-                    </select><br><br>
-                    <label for='show-all-data'>Show All Data:</label>
-                    <input type='checkbox' id='show-all-data' name='show-all-data' value='true'>
-                    <button type='submit'>Apply Filters</button>
-                </form>
-                <label for='lastInputs'>View last 5 inputs:</label>
-                <select id='lastInputs' readonly>
-            """);
+        // Stream the HTML webpage straight to the browser
+        HtmlStream html = HtmlStream.open(context);
 
-        // Retrieve last inputs from session and populate dropdown
-        List<List<String>> lastInputs = context.sessionAttribute("lastInputs");
-        for (List<String> input : lastInputs) {
-            html.append("<option>").append("Country: ").append(input.get(0))
-                .append(", Year Start: ").append(input.get(1))
-                .append(", Year End: ").append(input.get(2))
-                .append(", Commodity: ").append(input.get(3))
-                .append(", Activity: ").append(input.get(4))
-                .append(", Supply: ").append(input.get(5))
-                .append(", Loss: ").append(input.get(6))
-                .append(", Sort: ").append(input.get(7))
-                .append(", Show All Data: ").append(input.get(8))
-                .append("</option>");
-        }
+        // Head, nav and header text, encoded once at startup
+        Layout.write(html, "page2A", "top");
 
-        html.append("""
-                </select>
-            </div>
-        """);
+        // Render the filters and this session's input history
+        InputHistory lastInputs = HistoryStore.STORE.load(context, URL);
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("countryOptions", Dropdowns.countries());
+        model.put("lastInputs", lastInputs.entries());
+        Templates.render(html, "page2A", "filters", model);
 
         // Handle form submission
         if (context.method().equalsIgnoreCase("post")) {
@@ -123,50 +36,44 @@ public class PageST2A implements Handler {
             boolean loss = context.formParam("loss") != null;
             String sort = context.formParam("sortAscDesc").equals("Ascend") ? "ASC" : "DESC";
             boolean showAllData = context.formParam("show-all-data") != null;
-
-            // Save current input to session
-            List<String> currentInput = List.of(
-                country, yearStart, yearEnd, 
-                String.valueOf(commodity), String.valueOf(activity), 
-                String.valueOf(supply), String.valueOf(loss), 
-                sort, String.valueOf(showAllData)
-            );
-
-            if (lastInputs.size() == 5) {
-                lastInputs.remove(0);
+            PageCursor after = PageCursor.decode(context.formParam(PageCursor.FORM_FIELD));
+
+            // Save current input to this page's history, once rather than for every page of results
+            if (after.isFirst()) {
+                lastInputs.add(
+                    country, yearStart, yearEnd, 
+                    String.valueOf(commodity), String.valueOf(activity), 
+                    String.valueOf(supply), String.valueOf(loss), 
+                    sort, String.valueOf(showAllData)
+                );
+                HistoryStore.STORE.save(context, URL, lastInputs);
             }
-            lastInputs.add(currentInput);
-            context.sessionAttribute("lastInputs", lastInputs);
+
+            // The session cookie is set, so send the page so far while the results are fetched
+            html.flush();
 
             // Append the initial data retrieval and display
             html.append("<div class='results centered'>")
-                .append(JDBCConnection.get2ADifference(country, yearStart, yearEnd))
-                .append(JDBCConnection.get2AYear(country, yearStart))
-                .append(JDBCConnection.get2AYear(country, yearEnd));
+                .append(ResultCache.get2ADifference(country, yearStart, yearEnd))
+                .append(ResultCache.get2AYear(country, yearStart))
+                .append(ResultCache.get2AYear(country, yearEnd));
          
-            // If show all data is checked, call get2AResults
+            // If show all data is checked, show one page of get2AResults
             if (showAllData) {
-                html.append(JDBCConnection.get2AResults(country, yearStart, yearEnd, 
-                                                          commodity, activity, supply, loss, sort));
+                PageCursor next = JDBCConnection.get2AResults(html, country, yearStart, yearEnd,
+                                                              commodity, activity, supply, loss, sort, after);
+                after.writePager(html, context, URL, next, ResultCache.count2AResults(country, yearStart, yearEnd, commodity),
+                              CsvExport.URL_2A);
             }
         }
 
         // Close Content div
         html.append("</div></div>");
 
-        // Footer
-        html.append("""
-            <div class='footer'>
-                <p>COSC2803 - Studio Project Starter Code (Apr24)</p>
-                <p>COSC2803 - Programming studio 1 project</p>
-                <p>Completed by Benjamin Beattie s4007769 and Seth Tootell s4095464</p>
-            </div>
-        """);
-
-        // Finish the HTML webpage
-        html.append("</body></html>");
+        // Footer, and finish the HTML webpage
+        Layout.write(html, "layout", "starterEnd");
 
-        // Makes Javalin render the webpage
-        context.html(html.toString());
+        // Send the rest of the webpage
+        html.close();
     }
 }
@@ -1,14 +1,16 @@
 package app;
+
+import java.util.HashMap;
+import java.util.Map;
+
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Example Index HTML class using Javalin
  * <p>
- * Generate a static HTML page using Javalin
- * by writing the raw HTML into a Java String object
+ * Generate a HTML page using Javalin
+ * by rendering its Thymeleaf template (see Templates)
  *
  * @Author: Timothy Wiley, 2023. email: timothy.wiley@rmit.edu.au
  * @Author: Santha Sumanasekara, 2021. email: santha.sumanasekara@rmit.edu.au
@@ -20,100 +22,18 @@ public class PageST2B implements Handler {
 
     @Override
     public void handle(Context context) throws Exception {
-        // Initialize the session list if it doesn't exist
-        if (context.sessionAttribute("lastInputs") == null) {
-            context.sessionAttribute("lastInputs", new ArrayList<List<String>>());
-        }
-
-        // Create a simple HTML webpage in a String
-        StringBuilder html = new StringBuilder("<html>");
-
-        // Add some Head information
-        html.append("<head>")
-            .append("<title>Focused View of Food Loss/Waste By Food Group</title>")
-            .append("<link rel='stylesheet' type='text/css' href='common.css' />")
-            .append("</head>");
-
-        // Add the body
-        html.append("<body>");
-
-        // Add the topnav
-        html.append("""
-            <div class='topnav'>
-            <a href='/'><img src='logo.png' class='top-image' alt='RMIT logo' height='75'></a>
-                <a href='/'>Landing Page</a>
-                <a href='mission.html'>Our Mission</a>
-                <a href='page2A.html'>Focused View of loss/waste change by country</a>
-                <a href='page2B.html'>Focused View of loss/waste change by food group</a>
-                <a href='page3A.html'>Identify locations with similar food waste/loss percentages</a>
-                <a href='page3B.html'>Exploring food commodities and groups</a>
-            </div>
-        """);
-
-        // Add header content block
-        html.append("""
-            <div class='header'>
-                <h1>Focused View of Food Loss/Waste by Food Group</h1>
-                <p>On this page, you will be able to view Focused View of loss/waste change by food group between a set range of years.
-                to begin, on the left hand side in the filter bar, select a commodity. From here, set a start and end year for the data
-                range that is to be displayed. You can choose to display which details will be displayed (Commodity, Activity,
-                Food Supply Stage or cause of loss. You can also
-                select to have the data displayed in ascending or descending order. Hit submit and get your data!!</p>
-            </div>
-        """);
+        // Stream the HTML webpage straight to the browser
+        HtmlStream html = HtmlStream.open(context);
 
-        // Add Div for page Content
-        html.append("<div class='data-container'>");
+        // Head, nav and header text, encoded once at startup
+        Layout.write(html, "page2B", "top");
 
-        // Add filter section
-        html.append("""
-            <div class='filter-section'>
-                <h2>Filters</h2>
-                <form method='post' action='/page2B.html'>
-                    <label for='commodity'>Commodity:</label>
-                    <select name='commodity' id='commodity'>
-                        <!-- Populate options dynamically -->
-                        %s
-                    </select><br><br>
-                    <label for="year-start">Year Start:</label>
-                    <input type='number' name='year-start' id='year-start' value='1966'><br><br>
-                    <label for="year-end">Year End:</label>
-                    <input type='number' name='year-end' id='year-end' value='2022'><br><br>
-                    <h2>Filter Fields</h2>
-                    <input type='checkbox' id='activity' name='activity' value='activity' checked>
-                    <label for='activity'>Activity</label><br>
-                    <input type='checkbox' id='supply' name='supply' value='supply' checked>
-                    <label for='supply'>Food Supply Stage</label><br>
-                    <input type='checkbox' id='loss' name='loss' value='loss' checked>
-                    <label for='loss'>Cause of Loss</label><br><br>
-                    <label for="sort-by">Sort By:</label>
-                    <select name='sort-by' id='sort-by'>
-                        <option value='Ascend'>Ascend</option>
-                        <option value='Descend'>Descend</option>
-                    </select><br><br>
-                    <button type='submit'>Apply Filters</button>
-                </form>
-                <label for='lastInputs'>View last 5 inputs:</label>
-                <select id='lastInputs' readonly>
-            """.formatted(ST2BFilter.getFoodGroupsInDropdown()));
-
-        // Retrieve last inputs from session and populate dropdown
-        List<List<String>> lastInputs = context.sessionAttribute("lastInputs");
-        for (List<String> input : lastInputs) {
-            html.append("<option>").append("Commodity: ").append(input.get(0))
-                .append(", Year Start: ").append(input.get(1))
-                .append(", Year End: ").append(input.get(2))
-                .append(", Activity: ").append(input.get(3))
-                .append(", Supply: ").append(input.get(4))
-                .append(", Loss: ").append(input.get(5))
-                .append(", Sort: ").append(input.get(6))
-                .append("</option>");
-        }
-
-        html.append("""
-                </select>
-            </div>
-        """);
+        // Render the filters and this session's input history
+        InputHistory lastInputs = HistoryStore.STORE.load(context, URL);
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("foodGroupOptions", Dropdowns.foodGroups());
+        model.put("lastInputs", lastInputs.entries());
+        Templates.render(html, "page2B", "filters", model);
 
         // Handle form submission
         if (context.method().equalsIgnoreCase("post")) {
@@ -125,45 +45,42 @@ public class PageST2B implements Handler {
             boolean isCauseOfLossActive = context.formParam("loss") != null;
             String sortByParam = context.formParam("sort-by", "Ascend");
             String sort = "Ascend".equals(sortByParam) ? "Asc" : "Desc";
-
-            // Save current input to session
-            List<String> currentInput = List.of(foodGroup, yearStart, yearEnd, 
-                                                String.valueOf(isActivityActive), 
-                                                String.valueOf(isFoodSupplyStageActive), 
-                                                String.valueOf(isCauseOfLossActive), sort);
-
-            if (lastInputs.size() == 5) {
-                lastInputs.remove(0);
+            PageCursor after = PageCursor.decode(context.formParam(PageCursor.FORM_FIELD));
+
+            // Save current input to this page's history, once rather than for every page of results
+            if (after.isFirst()) {
+                lastInputs.add(foodGroup, yearStart, yearEnd, 
+                               String.valueOf(isActivityActive), 
+                               String.valueOf(isFoodSupplyStageActive), 
+                               String.valueOf(isCauseOfLossActive), sort);
+                HistoryStore.STORE.save(context, URL, lastInputs);
             }
-            lastInputs.add(currentInput);
-            context.sessionAttribute("lastInputs", lastInputs);
+
+            // The session cookie is set, so send the page so far while the table is generated
+            html.flush();
 
             // Generate table with the filtered data
             html.append("""
                 <div class='table-wrapper'>
                     <div class='results centered'>
-                        %s
+            """);
+            PageCursor next = ST2BFilter.generateTable(html, foodGroup, yearStart, yearEnd, isActivityActive,
+                                                       isFoodSupplyStageActive, isCauseOfLossActive, sort, after);
+            after.writePager(html, context, URL, next, ResultCache.count2BResults(foodGroup, yearStart, yearEnd),
+                              CsvExport.URL_2B);
+            html.append("""
                     </div>
                 </div>
-            """.formatted(ST2BFilter.generateTable(foodGroup, yearStart, yearEnd, isActivityActive, isFoodSupplyStageActive, isCauseOfLossActive, sort)));
+            """);
         }
 
         // Close Content div
         html.append("</div>");
 
-        // Footer
-        html.append("""
-            <div class='footer'>
-                <p>COSC2803 - Studio Project Starter Code (Apr24)</p>
-                <p>COSC2803 - Programming studio 1 project</p>
-                <p>Completed by Benjamin Beattie s4007769 and Seth Tootell s4095464</p>
-            </div>
-        """);
-
-        // Finish the HTML webpage
-        html.append("</body></html>");
+        // Footer, and finish the HTML webpage
+        Layout.write(html, "layout", "starterEnd");
 
-        // Makes Javalin render the webpage
-        context.html(html.toString());
+        // Send the rest of the webpage
+        html.close();
     }
 }
@@ -1,19 +1,17 @@
 package app;
-import java.util.ArrayList;
-import java.util.List;
+
+import java.util.HashMap;
+import java.util.Map;
 
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
+import io.javalin.http.NotFoundResponse;
+
 /**
  * Example Index HTML class using Javalin
  * <p>
- * Generate a static HTML page using Javalin
- * by writing the raw HTML into a Java String object
+ * Generate a HTML page using Javalin
+ * by rendering its Thymeleaf template (see Templates)
  *
  * @Author: Timothy Wiley, 2023. email: timothy.wiley@rmit.edu.au
  * @Author: Santha Sumanasekara, 2021. email: santha.sumanasekara@rmit.edu.au
@@ -22,255 +20,134 @@ import java.sql.Statement;
 public class PageST3A implements Handler {
     // URL of this page relative to http://localhost:7001/
     public static final String URL = "/page3A.html";
+    // Result blocks loaded by the page, see fragment()
+    public static final String FRAGMENT_PATH = "/page3A/fragment/";
+    public static final String FRAGMENT_URL = FRAGMENT_PATH + ":block";
+
     @Override
     public void handle(Context context) throws Exception {
-        // Initialize the session list if it doesn't exist
-        if (context.sessionAttribute("lastInputs") == null) {
-            context.sessionAttribute("lastInputs", new ArrayList<List<String>>());
-        }
-
-        // Create a simple HTML webpage in a String
-        StringBuilder html = new StringBuilder("<html>");
-
-        // Add some Head information
-        html.append("<head>")
-            .append("<title>Subtask 3.1</title>")
-            .append("<link rel='stylesheet' type='text/css' href='common.css' />")
-            .append("</head>");
-
-        // Add the body
-        html.append("<body>");
+        // Stream the HTML webpage straight to the browser
+        HtmlStream html = HtmlStream.open(context);
 
-        // Add the topnav
-        html.append("""
-            <div class='topnav'>
-            <a href='/'><img src='logo.png' class='top-image' alt='RMIT logo' height='75'></a>
-                <a href='/'>Landing Page</a>
-                <a href='mission.html'>Our Mission</a>
-                <a href='page2A.html'>Focused View of loss/waste change by country</a>
-                <a href='page2B.html'>Focused View of loss/waste change by food group</a>
-                <a href='page3A.html'>Identify locations with similar food waste/loss percentages</a>
-                <a href='page3B.html'>Exploring food commodities and groups</a>
-            </div>
-        """);
-
-        // Add header content block
-        html.append("""
-            <div class='header'>
-                <h1>Identify locations with similar food waste/loss percentages</h1>
-                <p>On this page, you will be able to Identify locations with similar food waste/loss percentages for a set year. To begin, on the left hand side in the filter bar, select a country. From here, set a start year for the data range that is to be displayed. You can choose to display which details will be displayed (similar by and similarity terms). You can also select the number of similar data points which are displayed. Hit submit and get your data!!</p>
-            </div>
-        """);
-
-        // Add Div for page Content
-        html.append("<div class='data-container'>");
-
-        // Add filter section
-        html.append("""
-            <div class='filter-section'>
-                <h2>Filters</h2>
-                <form method='post' action='/page3A.html'>
-                    <label for='cr'>Country or Region:</label>
-                    <select name='cr' id='cr' onchange='toggleDropdown()'>
-                        <option value='country'>Country</option>
-                        <option value='region'>Region</option>
-                    </select><br><br>
-                    <div id='country-dropdown' style='display: block;'>
-                        <label for='country'>Country:</label>
-                        <select name='country' id='country'>
-                            """ + JDBCConnection.getCountriesforDropdown() + """
-                        </select><br><br>
-                    </div>
-                    <div id='region-dropdown' style='display: none;'>
-                        <label for='region'>Region:</label>
-                        <select name='region' id='region'>
-                            """ + JDBCConnection.getRegionsforDropdown() + """
-                        </select><br><br>
-                    </div>
-                    <div id='simbycountry-dropdown' style='display: none;'>
-                        <label for='simbycountry'>Similar By (Country):</label>
-                        <select name='simbycountry' id='simbycountry' onchange='toggleValueDropdown()'>
-                            <option value='food'>Select similarity in terms of the foods products they have in common</option>
-                            <option value='percentage'>Select similarity in terms of the overall percentage of food loss/waste</option>
-                            <option value='both'>Select similarity in terms of both common foods products and their loss/waste percentage</option>
-                        </select><br><br>
-                    </div>
-                    <div id='simbyregion-dropdown' style='display: none;'>
-                        <label for='simbyregion'>Similar By (Region):</label>
-                        <select name='simbyregion' id='simbyregion' onchange='toggleValueDropdown()'>
-                            <option value='food'>Select similarity in terms of the foods products they have in common</option>
-                            <option value='percentage'>Select similarity in terms of the overall percentage of food loss/waste</option>
-                        </select><br><br>
-                    </div>
-                    <div id='value-dropdown' style='display: none;'>
-                        <label for='value'>Similarity in terms of:</label>
-                        <select name='value' id='value'>
-                            <option value='abs'>the absolute values - ignoring food products that are not common between locations</option>
-                            <option value='overlap'>the level of overlap - food products that are not common to the selected country impact (reduce) the similarity score</option>
-                        </select><br><br>
-                    </div>
-                    <label for='year-start'>Year Start:</label>
-                    <input type='number' id='year-start' name='year-start' value='1966' min='1966' max='2022' required><br><br>
-                    <label for='num_similar_groups'>Select how many similar groups?:</label>
-                    <input type='number' id='num_similar_groups' name='num_similar_groups' value='5' style='resize: horizontal'><br><br>
-                    <button type='submit'>Apply Filters</button>
-                </form>
-                <label for='lastInputs'>View last 5 inputs</label>
-                <select id='lastInputs' readonly>
-            """);
-
-        // Retrieve last inputs from session and populate dropdown
-        List<List<String>> lastInputs = context.sessionAttribute("lastInputs");
-        for (List<String> input : lastInputs) {
-            if (input.get(0).equals("country")) {
-                html.append("<option>").append("Country: ").append(input.get(1)).append(", Similar By: ").append(input.get(2)).append(", Year Start: ").append(input.get(5)).append(", Groups: ").append(input.get(6)).append("</option>");
-            } else if (input.get(0).equals("region")) {
-                html.append("<option>").append("Region: ").append(input.get(1)).append(", Similar By: ").append(input.get(3)).append(", Year Start: ").append(input.get(5)).append(", Groups: ").append(input.get(6)).append("</option>");
-            }
-        }
+        // Head, nav and header text, encoded once at startup
+        Layout.write(html, "page3A", "top");
 
-        html.append("""
-                </select>
-            </div>
-            <script>
-                function toggleDropdown() {
-                    var cr = document.getElementById('cr').value;
-                    var countryDropdown = document.getElementById('country-dropdown');
-                    var regionDropdown = document.getElementById('region-dropdown');
-                    var simbycountryDropdown = document.getElementById('simbycountry-dropdown');
-                    var simbyregionDropdown = document.getElementById('simbyregion-dropdown');
-                    var valueDropdown = document.getElementById('value-dropdown');
-                    if (cr == 'country') {
-                        countryDropdown.style.display = 'block';
-                        regionDropdown.style.display = 'none';
-                        simbycountryDropdown.style.display = 'block';
-                        simbyregionDropdown.style.display = 'none';
-                        toggleValueDropdown();
-                    } else if (cr == 'region') {
-                        countryDropdown.style.display = 'none';
-                        regionDropdown.style.display = 'block';
-                        simbycountryDropdown.style.display = 'none';
-                        simbyregionDropdown.style.display = 'block';
-                        toggleValueDropdown();
-                    }
-                }
-                function toggleValueDropdown() {
-                    var simbycountryValue = document.getElementById('simbycountry').value;
-                    var simbyregionValue = document.getElementById('simbyregion').value;
-                    var valueDropdown = document.getElementById('value-dropdown');
-                    if ((simbycountryValue == 'food' || simbycountryValue == 'both') && simbyregionValue != 'percentage') {
-                        valueDropdown.style.display = 'block';
-                    } else if (simbyregionValue == 'food' && simbycountryValue != 'percentage') {
-                        valueDropdown.style.display = 'block';
-                    } else {
-                        valueDropdown.style.display = 'none';
-                    }
-                }
-                // Initial call to set initial state
-                toggleDropdown();
-            </script>
-        """);
-
-        // Variables for form parameters
-        boolean isCountry = context.formParam("cr", "").equals("country");
-        String simbycountry = "";
-        String simbyregion = "";
-        boolean isAbsolute = false;
+        // Render the filters and this session's input history
+        InputHistory lastInputs = HistoryStore.STORE.load(context, URL);
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("countryOptions", Dropdowns.countries());
+        model.put("regionOptions", Dropdowns.regions());
+        model.put("lastInputs", lastInputs.entries());
+        Templates.render(html, "page3A", "filters", model);
+        Layout.write(html, "page3A", "script");
 
         // Handle form submission
         if (context.method().equalsIgnoreCase("post")) {
+            boolean isCountry = context.formParam("cr", "").equals("country");
             String country = context.formParam("country");
             String region = context.formParam("region");
-            simbycountry = context.formParam("simbycountry", "");
-            simbyregion = context.formParam("simbyregion", "");
+            String simbycountry = context.formParam("simbycountry", "");
+            String simbyregion = context.formParam("simbyregion", "");
             String value = context.formParam("value", "");
             String yearStart = context.formParam("year-start");
             String numSimilarGroups = context.formParam("num_similar_groups");
 
-            List<String> currentInput = List.of(context.formParam("cr", ""), country, simbycountry, simbyregion, value, yearStart, numSimilarGroups);
-            if (!currentInput.isEmpty()) {
-                if (lastInputs.size() == 5) {
-                    lastInputs.remove(0);
-                }
-                lastInputs.add(currentInput);
-            }
-
-            // Determine similarity table value
-            if (simbycountry.equalsIgnoreCase("percentage")) {
-                html.append(JDBCConnection.get3APercentageCountry(country, yearStart, numSimilarGroups).replace("_value", ""));
-            } else if (simbyregion.equalsIgnoreCase("percentage")) {
-                html.append(JDBCConnection.get3APercentageRegion(region, yearStart, numSimilarGroups).replace("_value", ""));
-            } else if (simbyregion.equalsIgnoreCase("food") && value.equalsIgnoreCase("abs") && !isCountry) {
-                html.append(JDBCConnection.get3AABSR(region, yearStart, numSimilarGroups));
-            } else if (simbycountry.equalsIgnoreCase("food") && value.equalsIgnoreCase("abs") && isCountry) {
-                html.append(JDBCConnection.get3AABS(country, yearStart, numSimilarGroups));
-            } else if (simbycountry.equalsIgnoreCase("food") && value.equalsIgnoreCase("overlap") && isCountry) {
-                html.append(JDBCConnection.get3AOVC(country, yearStart, numSimilarGroups));
-            } else if (simbycountry.equalsIgnoreCase("food") && value.equalsIgnoreCase("overlap") && !isCountry) {
-                html.append(JDBCConnection.get3AOVCR(region, yearStart, numSimilarGroups));
-            } else if (simbycountry.equalsIgnoreCase("both") && value.equalsIgnoreCase("abs") && isCountry) {
-                html.append(JDBCConnection.getbotha(country, yearStart, numSimilarGroups));
-            } else if (simbycountry.equalsIgnoreCase("both") && value.equalsIgnoreCase("overlap") && isCountry) {
-                html.append(JDBCConnection.getbothp(country, yearStart, numSimilarGroups));
-            }
-
-            if ("abs".equals(value)) {
-                isAbsolute = true;
-            } else if ("overlap".equals(value)) {
-                isAbsolute = false;
+            String cr = context.formParam("cr", "");
+            lastInputs.add(cr, cr.equals("region") ? region : country, simbycountry, simbyregion, value, yearStart, numSimilarGroups);
+            HistoryStore.STORE.save(context, URL, lastInputs);
+
+            // Send the page with a placeholder for each result block, which the browser loads in parallel
+            String similar = Fragments.link(context, FRAGMENT_PATH + "similar");
+            if (isCountry && simbycountry.equalsIgnoreCase("both")) {
+                // The slowest ranking, so it is shown as the countries are scored
+                Fragments.placeholder(html, similar, SimilarityStream.link(context));
+            } else {
+                Fragments.placeholder(html, similar);
             }
             html.append("</div>");
             html.append("</div>");
 
-            if (isCountry) {
             html.append("<div class='header'>")
-            .append("<h2>Your selected countries Data:</h2>")
-            .append("</div>");
+                .append(isCountry ? "<h2>Your selected countries Data:</h2>" : "<h2>Your selected Regions Data:</h2>")
+                .append("</div>");
             html.append("<div class='data-container'>");
-            context.sessionAttribute("lastInputs", lastInputs);
-            html.append(JDBCConnection.getA1(country, yearStart, numSimilarGroups).replace("_value", ""));
+            Fragments.placeholder(html, Fragments.link(context, FRAGMENT_PATH + "selected"));
             html.append("</div>");
             html.append("<div class='data-container'>");
-            html.append(JDBCConnection.get2A(country, yearStart).replace("_value", ""));
+            Fragments.placeholder(html, Fragments.link(context, FRAGMENT_PATH + "commodities"));
             html.append("</div>");
-            }
-            if (!isCountry) {
-                html.append("<div class='header'>")
-                .append("<h2>Your selected Regions Data:</h2>")
-                .append("</div>");
-                html.append("<div class='data-container'>");
-                context.sessionAttribute("lastInputs", lastInputs);
-                html.append(JDBCConnection.getA11(region, yearStart, numSimilarGroups).replace("_value", ""));
-                html.append("</div>");
-                html.append("<div class='data-container'>");
-                html.append(JDBCConnection.get2A1(region, yearStart).replace("_value", ""));
-                html.append("</div>");
-            }
-
+            Layout.write(html, "layout", "loader");
         }
 
-        
-
         // Close Content div
         html.append("</div>");
 
+        // Footer, and finish the HTML webpage
+        Layout.write(html, "layout", "starterEnd");
 
+        // Send the rest of the webpage
+        html.close();
+    }
 
-        // Footer
-        html.append("""
-            <div class='footer'>
-                <p>COSC2803 - Studio Project Starter Code (Apr24)</p>
-                <p>COSC2803 - Programming studio 1 project</p>
-                <p>Completed by Benjamin Beattie s4007769 and Seth Tootell s4095464</p>
-            </div>
-        """);
+    /**
+     * One result block of the page: "similar" (the similarity table), "selected" (the
+     * selected location's average loss) or "commodities" (its commodities).
+     * Takes the form fields as query parameters.
+     */
+    public static void fragment(Context context) throws Exception {
+        String block = context.pathParam("block");
+        if (!block.equals("similar") && !block.equals("selected") && !block.equals("commodities")) {
+            throw new NotFoundResponse();
+        }
+        if (JsonApi.notModified(context)) {
+            return;
+        }
 
-        // Finish the HTML webpage
-        html.append("</body></html>");
+        boolean isCountry = context.queryParam("cr", "").equals("country");
+        String country = context.queryParam("country");
+        String region = context.queryParam("region");
+        String simbycountry = context.queryParam("simbycountry", "");
+        String simbyregion = context.queryParam("simbyregion", "");
+        String value = context.queryParam("value", "");
+        String yearStart = context.queryParam("year-start");
+        String numSimilarGroups = context.queryParam("num_similar_groups");
+
+        String result = "";
+        if (block.equals("similar")) {
+            // Determine similarity table value
+            if (simbycountry.equalsIgnoreCase("percentage")) {
+                result = ResultCache.get3APercentageCountry(country, yearStart, numSimilarGroups).replace("_value", "");
+            } else if (simbyregion.equalsIgnoreCase("percentage")) {
+                result = ResultCache.get3APercentageRegion(region, yearStart, numSimilarGroups).replace("_value", "");
+            } else if (simbyregion.equalsIgnoreCase("food") && value.equalsIgnoreCase("abs") && !isCountry) {
+                result = ResultCache.get3AABSR(region, yearStart, numSimilarGroups);
+            } else if (simbycountry.equalsIgnoreCase("food") && value.equalsIgnoreCase("abs") && isCountry) {
+                result = ResultCache.get3AABS(country, yearStart, numSimilarGroups);
+            } else if (simbycountry.equalsIgnoreCase("food") && value.equalsIgnoreCase("overlap") && isCountry) {
+                result = ResultCache.get3AOVC(country, yearStart, numSimilarGroups);
+            } else if (simbycountry.equalsIgnoreCase("food") && value.equalsIgnoreCase("overlap") && !isCountry) {
+                result = ResultCache.get3AOVCR(region, yearStart, numSimilarGroups);
+            } else if (simbycountry.equalsIgnoreCase("both") && value.equalsIgnoreCase("abs") && isCountry) {
+                result = ResultCache.getbotha(country, yearStart, numSimilarGroups);
+            } else if (simbycountry.equalsIgnoreCase("both") && value.equalsIgnoreCase("overlap") && isCountry) {
+                result = ResultCache.getbothp(country, yearStart, numSimilarGroups);
+            }
+        } else if (block.equals("selected")) {
+            result = isCountry ? ResultCache.getA1(country, yearStart, numSimilarGroups).replace("_value", "")
+                               : ResultCache.getA11(region, yearStart, numSimilarGroups).replace("_value", "");
+        } else {
+            result = isCountry ? ResultCache.get2A(country, yearStart).replace("_value", "")
+                               : ResultCache.get2A1(region, yearStart).replace("_value", "");
+        }
 
-        // Makes Javalin render the webpage
-        context.html(html.toString());
+        // A failed query, which must not be kept under the dataset's ETag
+        if (result.isEmpty() || result.contains(JDBCConnection.QUERY_ERROR)) {
+            context.header("Cache-Control", "no-store");
+        } else {
+            JsonApi.cacheable(context);
+        }
+        HtmlStream html = HtmlStream.open(context);
+        html.append(result);
+        html.close();
     }
 }
-
-
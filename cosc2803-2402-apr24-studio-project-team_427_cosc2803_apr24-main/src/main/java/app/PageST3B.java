@@ -1,109 +1,41 @@
 package app;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
-import java.util.ArrayList;
-import java.util.List;
+import io.javalin.http.NotFoundResponse;
 
 /**
  * Example Index HTML class using Javalin
  * <p>
- * Generate a static HTML page using Javalin
- * by writing the raw HTML into a Java String object
+ * Generate a HTML page using Javalin
+ * by rendering its Thymeleaf template (see Templates)
  */
 public class PageST3B implements Handler {
 
     // URL of this page relative to http://localhost:7001/
     public static final String URL = "/page3B.html";
+    // Result blocks loaded by the page, see fragment()
+    public static final String FRAGMENT_PATH = "/page3B/fragment/";
+    public static final String FRAGMENT_URL = FRAGMENT_PATH + ":block";
 
     @Override
     public void handle(Context context) throws Exception {
-        // Initialize the session list if it doesn't exist
-        if (context.sessionAttribute("lastInputs") == null) {
-            context.sessionAttribute("lastInputs", new ArrayList<List<String>>());
-        }
-    
-        // Create a simple HTML webpage in a String
-        String html = "<html>";
-    
-        // Add some Head information
-        html += "<head>" +
-                "<title>Exploring Food Commodities And Groups</title>" +
-                "<link rel='stylesheet' type='text/css' href='common.css' />" +
-                "<style>" +
-                "  .filter-section label, .filter-section input, .filter-section select, .filter-section button {" +
-                "    display: block;" +
-                "    margin-bottom: 10px;" +
-                "  }" +
-                "  .filter-section button {" +
-                "    margin-top: 20px;" +
-                "  }" +
-                "</style>" +
-                "</head>";
-    
-        // Add the body
-        html += "<body>";
-    
-        // Add the topnav
-        html += "<div class='topnav'>" +
-                "<a href='/'><img src='logo.png' class='top-image' alt='RMIT logo' height='75'></a>" +
-                "<a href='/'>Landing Page</a>" +
-                "<a href='mission.html'>Our Mission</a>" +
-                "<a href='page2A.html'>Focused View of loss/waste change by country</a>" +
-                "<a href='page2B.html'>Focused View of loss/waste change by food group</a>" +
-                "<a href='page3A.html'>Identify locations with similar food waste/loss percentages</a>" +
-                "<a href='page3B.html'>Exploring food commodities and groups</a>" +
-                "</div>";
-    
-        // Add header content block
-        html += "<div class='header'>" +
-                "<h1>Exploring food commodities and groups</h1>" +
-                "<p>On this page, you will be able to Explore food commodities and groups. " +
-                "To begin, on the left-hand side in the filter bar, select a Food type." +
-                " From here select the similarity in terms of, and how many groups you wish to display. " +
-                " Hit submit and get your data!!</p>" +
-                "<p>Similarity Scores are used to make comparisons on this table. 100 is the highest and represents a direct match in the data. 0 is the lowest and represents no match whatsoever in the data.</p>" +
-                "</div>";
-    
-        // Add Div for page Content
-        html += "<div class='data-container'>";
-    
-        // Add form and filters
-        html += "<div class='filter-section'>" +
-                "<h2>Filters</h2>" +
-                "<form method='post' action='/page3B.html' id='filterForm'>" +
-                "<label for='food'>Food</label>" +
-                "<select name='food' id='food'>" +
-                ST3BFilter.getFoodforDropdown() + // Populate food dropdown options
-                "</select>" +
-                "<label for='similarity'>Similar in terms of...</label>" +
-                "<select name='similarity' id='similarity'>" +
-                "<option value='food_loss_ratio'>ratio of food loss to food waste (% Average)</option>" +
-                "<option value='high_loss_waste'>highest percentage of food loss/waste</option>" +
-                "<option value='low_loss_waste'>lowest percentage of food loss/waste</option>" +
-                "</select>" +
-                "<label for='num_similar_groups'>Select how many similar groups?</label>" +
-                "<input type='number' id='num_similar_groups' name='num_similar_groups' value='5' min='1' max='21' required>" +
-                "<button type='submit'>Apply Filters</button>" +
-                "</form>";
-    
-        // Add dropdown for last 5 inputs
-        html += "<label for='lastInputs'>View last 5 inputs</label>" +
-                "<select id='lastInputs' onchange='populateFields()'>" +
-                "<option value=''>Select previous inputs</option>";
-    
-        // Retrieve last inputs from session and populate dropdown
-        List<List<String>> lastInputs = context.sessionAttribute("lastInputs");
-        for (List<String> input : lastInputs) {
-            html += "<option value='" + String.join(",", input) + "'>" + String.join(", ", input) + "</option>";
-        }
-    
-        html += "</select>";
+        // Stream the HTML webpage straight to the browser
+        HtmlStream html = HtmlStream.open(context);
+
+        // Head, nav and header text, encoded once at startup
+        Layout.write(html, "page3B", "top");
+
+        // Render the filters and this session's input history
+        InputHistory lastInputs = HistoryStore.STORE.load(context, URL);
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("foodOptions", Dropdowns.foods());
+        model.put("lastInputs", lastInputs.entries());
+        Templates.render(html, "page3B", "filters", model);
 
-    
-    
-        html += "</div>"; // End of filter-section
-    
         // Check if form was submitted (POST method)
         if (context.method().equalsIgnoreCase("post")) {
             // Retrieve form parameters
@@ -111,78 +43,79 @@ public class PageST3B implements Handler {
             String similarTerms = context.formParam("similarity");
             String similarGroups = context.formParam("num_similar_groups");
     
-            // Store the current inputs in the session
-            List<String> currentInput = List.of(selectedFood, similarTerms, similarGroups);
-            lastInputs.add(currentInput);
-            if (lastInputs.size() > 5) {
-                lastInputs.remove(0); // Keep only the last 5 inputs
-            }
-            context.sessionAttribute("lastInputs", lastInputs);
+            // Store the current inputs in this page's history
+            lastInputs.add(selectedFood, similarTerms, similarGroups);
+            HistoryStore.STORE.save(context, URL, lastInputs);
+
+            // Send the page with a placeholder for each result block, which the browser loads in parallel
+            Fragments.placeholder(html, Fragments.link(context, FRAGMENT_PATH + "similar"));
+            html.append("</div>");
+            html.append("</div>");
+
+            html.append("<div class='header'>");
+            html.append("<h2>Your selected commodities Data:</h2>");
+            html.append("</div>");
+            html.append("<div class='data-container'>");
+            Fragments.placeholder(html, Fragments.link(context, FRAGMENT_PATH + "selected"));
+            html.append("</div>");
+            Layout.write(html, "layout", "loader");
+        }
+
+        // Close Content div
+        html.append("</div>");
     
-            // Call JDBC method to execute SQL query and get HTML table
+        // Footer, and finish the HTML webpage
+        Layout.write(html, "layout", "end");
+
+        // Send the rest of the webpage
+        html.close();
+    }
+
+    /**
+     * One result block of the page: "similar" (the similar food groups) or "selected"
+     * (the selected commodity's group). Takes the form fields as query parameters.
+     */
+    public static void fragment(Context context) throws Exception {
+        String block = context.pathParam("block");
+        if (!block.equals("similar") && !block.equals("selected")) {
+            throw new NotFoundResponse();
+        }
+        if (JsonApi.notModified(context)) {
+            return;
+        }
+
+        String selectedFood = context.queryParam("food").replace("_value", "");
+        String similarTerms = context.queryParam("similarity");
+        String similarGroups = context.queryParam("num_similar_groups");
+
+        String result = "";
+        // Call JDBC method to execute SQL query and get HTML table
+        if (block.equals("similar")) {
             if (similarTerms.equalsIgnoreCase("high_loss_waste")) {
-                html += JDBCConnection.test(selectedFood, similarGroups);
+                result = JDBCConnection.test(selectedFood, similarGroups);
             } else if (similarTerms.equalsIgnoreCase("low_loss_waste")) {
-                html += JDBCConnection.test1(selectedFood, similarGroups);
+                result = JDBCConnection.test1(selectedFood, similarGroups);
             } else if (similarTerms.equalsIgnoreCase("food_loss_ratio")) {
-                html += JDBCConnection.compareGroups(selectedFood, similarGroups);
+                result = JDBCConnection.compareGroups(selectedFood, similarGroups);
             }
-
-
-            html += "</div>";
-            html += "</div>";
-    
+        } else {
             if (similarTerms.equalsIgnoreCase("high_loss_waste")) {
-                html += "<div class='header'>";
-                html += "<h2>Your selected commodities Data:</h2>";
-                html += "</div>";
-                html += "<div class='data-container'>";
-                context.sessionAttribute("lastInputs", lastInputs);
-                html += JDBCConnection.testA(selectedFood, similarGroups);
-                html += "</div>";
-                
-            }
-            else if (similarTerms.equalsIgnoreCase("low_loss_waste")) {
-                html += "<div class='header'>";
-                html += "<h2>Your selected commodities Data:</h2>";
-                html += "</div>";
-                html += "<div class='data-container'>";
-                context.sessionAttribute("lastInputs", lastInputs);
-                html += JDBCConnection.test1A(selectedFood, similarGroups);
-                html += "</div>";
+                result = JDBCConnection.testA(selectedFood, similarGroups);
+            } else if (similarTerms.equalsIgnoreCase("low_loss_waste")) {
+                result = JDBCConnection.test1A(selectedFood, similarGroups);
+            } else if (similarTerms.equalsIgnoreCase("food_loss_ratio")) {
+                result = JDBCConnection.getRatio(selectedFood);
             }
-            else if (similarTerms.equalsIgnoreCase("food_loss_ratio")) {
-                html += "<div class='header'>";
-                html += "<h2>Your selected commodities Data:</h2>";
-                html += "</div>";
-                html += "<div class='data-container'>";
-                context.sessionAttribute("lastInputs", lastInputs);
-                html += JDBCConnection.getRatio(selectedFood);
-                html += "</div>";
-        }
         }
 
-        
-        // Append query result HTML to existing HTML content
-    
-        // Close Content div
-        html += "</div>";
-    
-        // Footer
-        html += """
-            <div class='footer'>
-            <p>COSC2803 - Programming studio 1 project</p>
-            <p>Completed by Benjamin Beattie s4007769 and Seth Tootell s4095464</p>
-            </div>
-        """;
-    
-        // Finish the HTML webpage
-        html += "</body></html>";
-    
-        // Render the HTML response using Javalin context
-        context.html(html);
+        // A failed query, which must not be kept under the dataset's ETag
+        if (result.isEmpty() || result.contains(JDBCConnection.QUERY_ERROR)) {
+            context.header("Cache-Control", "no-store");
+        } else {
+            JsonApi.cacheable(context);
+        }
+        HtmlStream html = HtmlStream.open(context);
+        html.append(result);
+        html.close();
     }
-    
 }
-
-
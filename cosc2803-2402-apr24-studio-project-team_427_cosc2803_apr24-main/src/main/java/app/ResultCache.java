@@ -0,0 +1,205 @@
+package app;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-memory cache of the HTML tables produced by the analysis methods in JDBCConnection.
+ * <p>
+ * Results are keyed by the analysis name and the exact inputs it was called with,
+ * so the pages and the startup warm-up (see CacheWarmer) share the same entries.
+ * Each cached analysis has a wrapper here with the same name and arguments as the
+ * JDBCConnection method it calls.
+ * <p>
+ * Results are also written to the DiskCache, which is only read at startup: loadFromDisk()
+ * copies every entry of the current dataset into memory, so a miss here would be a miss
+ * on disk as well and goes straight to the query. Everything cached belongs to one
+ * DatasetVersion: when the database file changes the memory tier is cleared and the disk
+ * tier drops its old entries.
+ */
+public class ResultCache {
+
+    // Upper bound on cached results, once reached new results are computed but not stored
+    public static final int MAX_ENTRIES = Integer.getInteger("cache.maxEntries", 20000);
+
+    private static final ConcurrentHashMap<String, String> CACHE = new ConcurrentHashMap<String, String>();
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    // Dataset version the cached results were computed from
+    private static volatile String cachedVersion = null;
+
+    /**
+     * Open the disk tier and copy its entries for the current dataset into memory,
+     * so a restarted server starts with everything it had cached before.
+     */
+    public static void loadFromDisk() {
+        DiskCache.open();
+        String version = checkVersion();
+        CACHE.putAll(DiskCache.loadAll(version, MAX_ENTRIES));
+        if (!CACHE.isEmpty()) {
+            System.out.println("Loaded " + CACHE.size() + " cached results from " + DiskCache.FILE);
+        }
+    }
+
+    /**
+     * Look up a cached result, running the loader and storing its result on a miss.
+     * Empty results are never stored: the cached JDBCConnection methods return "" when their
+     * query fails, dropping any part of a table they had already written.
+     */
+    public static String get(String analysis, Supplier<String> loader, String... inputs) {
+        String version = checkVersion();
+        String key = key(analysis, inputs);
+        String result = CACHE.get(key);
+        if (result != null) {
+            HITS.incrementAndGet();
+            return result;
+        }
+
+        MISSES.incrementAndGet();
+        result = loader.get();
+        if (result != null && !result.isEmpty()) {
+            store(version, key, result);
+        }
+        return result;
+    }
+
+    public static int size() {
+        return CACHE.size();
+    }
+
+    public static long hits() {
+        return HITS.get();
+    }
+
+    public static long misses() {
+        return MISSES.get();
+    }
+
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    // Store a result computed from the given version, unless the database changed while it ran.
+    // Locked like the clear in checkVersion(), so an old result cannot land in the cleared cache
+    private static void store(String version, String key, String result) {
+        synchronized (ResultCache.class) {
+            if (!version.equals(cachedVersion)) {
+                return;
+            }
+            if (CACHE.size() < MAX_ENTRIES) {
+                CACHE.putIfAbsent(key, result);
+            }
+        }
+        DiskCache.put(version, key, result);
+    }
+
+    /**
+     * Clear both tiers if the database has changed since results were last cached.
+     */
+    private static String checkVersion() {
+        String version = DatasetVersion.current();
+        if (!version.equals(cachedVersion)) {
+            synchronized (ResultCache.class) {
+                if (!version.equals(cachedVersion)) {
+                    if (cachedVersion != null) {
+                        System.out.println("Database changed, clearing cached results");
+                    }
+                    CACHE.clear();
+                    DiskCache.invalidate(version);
+                    cachedVersion = version;
+                }
+            }
+        }
+        return version;
+    }
+
+    private static String key(String analysis, String... inputs) {
+        StringBuilder key = new StringBuilder(analysis);
+        for (String input : inputs) {
+            // The unit separator never appears in a form value, so it keeps inputs from running together
+            key.append('\u001f').append(input);
+        }
+        return key.toString();
+    }
+
+    // Page 2A
+    public static String get2ADifference(String country, String yrStart, String yrEnd) {
+        return get("get2ADifference", () -> JDBCConnection.get2ADifference(country, yrStart, yrEnd), country, yrStart, yrEnd);
+    }
+
+    public static String get2AYear(String country, String yr) {
+        return get("get2AYear", () -> JDBCConnection.get2AYear(country, yr), country, yr);
+    }
+
+    // Row counts of the paged "show all data" tables, so later pages skip the COUNT; -1 if the count failed
+    public static int count2AResults(String country, String yrStart, String yrEnd, boolean comd) {
+        return count(get("count2AResults", () -> count(JDBCConnection.count2AResults(country, yrStart, yrEnd, comd)),
+                         country, yrStart, yrEnd, String.valueOf(comd)));
+    }
+
+    public static int count2BResults(String foodGroup, String yearStart, String yearEnd) {
+        return count(get("count2BResults", () -> count(ST2BFilter.countResults(foodGroup, yearStart, yearEnd)),
+                         foodGroup, yearStart, yearEnd));
+    }
+
+    // A failed count (-1) as "", which is never cached, and back
+    private static String count(int count) {
+        return count < 0 ? "" : String.valueOf(count);
+    }
+
+    private static int count(String count) {
+        return count.isEmpty() ? -1 : Integer.parseInt(count);
+    }
+
+    // Page 3A - countries
+    public static String get3APercentageCountry(String name, String year, String numGroups) {
+        return get("get3APercentageCountry", () -> JDBCConnection.get3APercentageCountry(name, year, numGroups), name, year, numGroups);
+    }
+
+    public static String get3AABS(String name, String year, String numGroups) {
+        return get("get3AABS", () -> JDBCConnection.get3AABS(name, year, numGroups), name, year, numGroups);
+    }
+
+    public static String get3AOVC(String countryName, String defaultYear, String numGroups) {
+        return get("get3AOVC", () -> JDBCConnection.get3AOVC(countryName, defaultYear, numGroups), countryName, defaultYear, numGroups);
+    }
+
+    public static String getbotha(String countryName, String year, String numGroups) {
+        return get("getbotha", () -> JDBCConnection.getbotha(countryName, year, numGroups), countryName, year, numGroups);
+    }
+
+    public static String getbothp(String countryName, String year, String numGroups) {
+        return get("getbothp", () -> JDBCConnection.getbothp(countryName, year, numGroups), countryName, year, numGroups);
+    }
+
+    public static String getA1(String name, String year, String numGroups) {
+        return get("getA1", () -> JDBCConnection.getA1(name, year, numGroups), name, year, numGroups);
+    }
+
+    public static String get2A(String name, String year) {
+        return get("get2A", () -> JDBCConnection.get2A(name, year), name, year);
+    }
+
+    // Page 3A - regions
+    public static String get3APercentageRegion(String name, String year, String numGroups) {
+        return get("get3APercentageRegion", () -> JDBCConnection.get3APercentageRegion(name, year, numGroups), name, year, numGroups);
+    }
+
+    public static String get3AABSR(String regionName, String year, String numGroups) {
+        return get("get3AABSR", () -> JDBCConnection.get3AABSR(regionName, year, numGroups), regionName, year, numGroups);
+    }
+
+    public static String get3AOVCR(String regionName, String year, String numGroups) {
+        return get("get3AOVCR", () -> JDBCConnection.get3AOVCR(regionName, year, numGroups), regionName, year, numGroups);
+    }
+
+    public static String getA11(String regionName, String year, String numGroups) {
+        return get("getA11", () -> JDBCConnection.getA11(regionName, year, numGroups), regionName, year, numGroups);
+    }
+
+    public static String get2A1(String regionName, String year) {
+        return get("get2A1", () -> JDBCConnection.get2A1(regionName, year), regionName, year);
+    }
+}
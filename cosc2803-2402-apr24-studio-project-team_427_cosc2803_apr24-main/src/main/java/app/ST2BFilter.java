@@ -1,5 +1,6 @@
 package app;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -32,56 +33,69 @@ public class ST2BFilter {
         return str;
     }
 
-    public static String generateTable(String foodGroup, String yearStart, String yearEnd, boolean isActivityActive,
-            boolean isFoodSupplyStageActive, boolean isCauseOfLossActive, String sort) {
-        String str = "<table class='table-section'>\n";
-        // aggregate table
-        String minYearQuery = """
-                WITH MinYear AS (
-                    SELECT MIN(cl.year) as min_year
+    private static final String NO_INFORMATION = "<i>No available information</i>";
+
+    // First year with data on or after the start year, and its average loss: start year, food group, food group
+    public static final String SQL_FIRST_YEAR = """
+            WITH MinYear AS (
+                SELECT MIN(cl.year) as min_year
+                FROM CountryLossEvent as cl
+                JOIN CPC as cp ON cp.cpc_code = cl.cpc_code
+                JOIN CommodityGroup cg ON cg.groupID = cp.groupID
+                WHERE cl.year >= ?
+                    AND cg.DESCRIPTOR = ?
+            )
+            SELECT my.min_year,
+                (SELECT AVG(cl.percentage)
                     FROM CountryLossEvent as cl
                     JOIN CPC as cp ON cp.cpc_code = cl.cpc_code
-                    JOIN CommodityGroup cg ON cg.groupID = cp.groupID
-                    WHERE cl.year >= ?
-                        AND cg.DESCRIPTOR = ?
-                )
-                SELECT my.min_year,
-                    (SELECT AVG(cl.percentage)
-                        FROM CountryLossEvent as cl
-                        JOIN CPC as cp ON cp.cpc_code = cl.cpc_code
-                        JOIN CommodityGroup as cg ON cg.groupID = cp.groupID
-                        WHERE cl.year = my.min_year
-                            AND cg.DESCRIPTOR = ?) AS average_percentage
-                FROM MinYear as my
-                        """;
-
-        String maxYearQuery = """
-WITH maxYear AS (
-    SELECT max(cl.year) as max_year
-    FROM CountryLossEvent as cl
-    JOIN CPC as cp ON cp.cpc_code = cl.cpc_code
-    JOIN CommodityGroup cg ON cg.groupID = cp.groupID
-    WHERE cl.year <= ?
-        AND cg.DESCRIPTOR = ?
-)
-SELECT my.max_year,
-    (SELECT AVG(cl.percentage)
-        FROM CountryLossEvent as cl
-        JOIN CPC as cp ON cp.cpc_code = cl.cpc_code
-        JOIN CommodityGroup as cg ON cg.groupID = cp.groupID
-        WHERE cl.year = my.max_year
-            AND cg.DESCRIPTOR = ?) AS average_percentage
-FROM maxYear as my
-                        """;
+                    JOIN CommodityGroup as cg ON cg.groupID = cp.groupID
+                    WHERE cl.year = my.min_year
+                        AND cg.DESCRIPTOR = ?) AS average_percentage
+            FROM MinYear as my
+            """;
+
+    // Last year with data on or before the end year, and its average loss: end year, food group, food group
+    public static final String SQL_LAST_YEAR = """
+            WITH maxYear AS (
+                SELECT max(cl.year) as max_year
+                FROM CountryLossEvent as cl
+                JOIN CPC as cp ON cp.cpc_code = cl.cpc_code
+                JOIN CommodityGroup cg ON cg.groupID = cp.groupID
+                WHERE cl.year <= ?
+                    AND cg.DESCRIPTOR = ?
+            )
+            SELECT my.max_year,
+                (SELECT AVG(cl.percentage)
+                    FROM CountryLossEvent as cl
+                    JOIN CPC as cp ON cp.cpc_code = cl.cpc_code
+                    JOIN CommodityGroup as cg ON cg.groupID = cp.groupID
+                    WHERE cl.year = my.max_year
+                        AND cg.DESCRIPTOR = ?) AS average_percentage
+            FROM maxYear as my
+            """;
+
+    public static String generateTable(String foodGroup, String yearStart, String yearEnd, boolean isActivityActive,
+            boolean isFoodSupplyStageActive, boolean isCauseOfLossActive, String sort) {
+        StringBuilder str = new StringBuilder();
+        generateTable(str, foodGroup, yearStart, yearEnd, isActivityActive, isFoodSupplyStageActive, isCauseOfLossActive, sort,
+                      PageCursor.FIRST);
+        return str.toString();
+    }
+
+    // Writes the tables to str as the rows are read, so large food groups are never held in memory.
+    // Shows one page of PageCursor.PAGE_SIZE rows after the given position, and returns the position after it.
+    // Pages are keyed on (percentage, year, row id) so the rows stay sorted by percentage.
+    public static PageCursor generateTable(Appendable str, String foodGroup, String yearStart, String yearEnd, boolean isActivityActive,
+            boolean isFoodSupplyStageActive, boolean isCauseOfLossActive, String sort, PageCursor after) {
+        PageCursor next = after.end();
+        Connection connection = null;
 
         try {
-            Connection connection = null;
             connection = DriverManager.getConnection(DBHelper.DATABASE);
 
-            PreparedStatement preparedMinYear = connection.prepareStatement(minYearQuery);
-            PreparedStatement preparedMaxYear = connection.prepareStatement(maxYearQuery);
-
-            System.out.println("DEBUG: food group: " + foodGroup + " yearStart: " + yearStart + " yearEnd: " + yearEnd);
+            PreparedStatement preparedMinYear = connection.prepareStatement(SQL_FIRST_YEAR);
+            PreparedStatement preparedMaxYear = connection.prepareStatement(SQL_LAST_YEAR);
 
             preparedMinYear.setString(1, yearStart);
             preparedMinYear.setString(2, foodGroup);
@@ -102,103 +116,155 @@ FROM maxYear as my
 
             double percentageDifference = averagePercentageMin - averagePercentageMax;
 
-            // aggregate information
-            str += """
-                    <tr>
-                        <th>Food Group</th>
-                        <th>First Year</th>
-                        <th>First Year Avg %</th>
-                        <th>Max Year</th>
-                        <th>Max Year Avg %</th>
-                        <th>Percentage Change</th>
-                    </tr>
-                        """;
-
-            str += """
-                    <tr>
-                        <td>%s</td>
-                        <td>%d</td>
-                        <td>%.2f</td>
-                        <td>%d</td>
-                        <td>%.2f</td>
-                        <td>%.2f</td>
-                    </tr>
-                        """.formatted(foodGroup, minYear, averagePercentageMin, maxYear, averagePercentageMax,
-                    percentageDifference);
-            str += "</table>\n";
-
-            // show i"SELECT cg.DESCRIPTOR, year, percentage";
-            String dataQuery = """
-                        SELECT cg.DESCRIPTOR, year, percentage, activity, cause, supply_stage
-                            FROM CountryLossEvent as co
-                                JOIN CPC as cp ON cp.cpc_code = co.cpc_code
-                                JOIN CommodityGroup as cg ON cg.groupID = cp.groupID
-                                WHERE year BETWEEN ? AND ?
-                                AND cg.DESCRIPTOR = ?
-                                ORDER BY PERCENTAGE %s
-                    """.formatted(sort);
-            System.out.println(dataQuery);
-
-            dataQuery += """
-                    """; // 1 = minYear, 2 = maxYear, 3 = foodGroup
-
-            PreparedStatement statement = connection.prepareStatement(dataQuery);
-
-            statement.setString(1, yearStart);
-            statement.setString(2, yearEnd);
-            statement.setString(3, foodGroup);
+            // aggregate information, shown on the first page only
+            if (after.isFirst()) {
+                str.append("<table class='table-section'>\n");
+                str.append("""
+                        <tr>
+                            <th>Food Group</th>
+                            <th>First Year</th>
+                            <th>First Year Avg %</th>
+                            <th>Max Year</th>
+                            <th>Max Year Avg %</th>
+                            <th>Percentage Change</th>
+                        </tr>
+                            """);
+
+                str.append("""
+                        <tr>
+                            <td>%s</td>
+                            <td>%d</td>
+                            <td>%.2f</td>
+                            <td>%d</td>
+                            <td>%.2f</td>
+                            <td>%.2f</td>
+                        </tr>
+                            """.formatted(foodGroup, minYear, averagePercentageMin, maxYear, averagePercentageMax,
+                        percentageDifference));
+                str.append("</table>\n");
+            }
 
+            PreparedStatement statement = prepareResults(connection, foodGroup, yearStart, yearEnd, sort, after);
             ResultSet dataResult = statement.executeQuery();
 
-            str += "<table class='table-section'>\n";
-
-            str += """
-                    <tr>
-                        <th>Food Group</th>
-                        <th>Year</th>
-                        <th>Percentage Loss/Waste</th>
-                    """;
-            str += isActivityActive ? "<th>Activity</th>" : "";
-            str += isCauseOfLossActive ? "<th>Cause of Loss</th>" : "";
-            str += isFoodSupplyStageActive ? "<th>Supply Stage</th>" : "";
-            str += "</tr>";
-
-            while (dataResult.next()) {
-                str += "<tr>";
-                String descriptor = dataResult.getString("DESCRIPTOR");
-                int year = dataResult.getInt("year");
-                double percentage = dataResult.getDouble("percentage");
-                String activity = isActivityActive ? dataResult.getString("activity") : null;
-                String cause = isCauseOfLossActive ? dataResult.getString("cause") : null;
-                String supplyStage = isFoodSupplyStageActive ? dataResult.getString("supply_stage") : null;
-
-                str += "<td>%s</td>".formatted(descriptor);
-                str += "<td>%s</td>".formatted(year);
-                // If percentage < 0.01, state so
-                str += percentage > 0.01 ? "<td>%.2f</td>".formatted(percentage) : "<td>< 0.01%</td>";
-
-                // If information exists, show the information in the appropiate column, else,
-                // state the information isn't available(is waste);
-                str += isActivityActive
-                        ? "<td>%s</td>".formatted(!activity.isEmpty() ? activity : "<i>No available information</i>")
-                        : "";
-                str += isCauseOfLossActive
-                        ? "<td>%s</td>".formatted(!cause.isEmpty() ? cause : "<i>No available information</i>")
-                        : "";
-                str += isFoodSupplyStageActive
-                        ? "<td>%s</td>"
-                                .formatted(!supplyStage.isEmpty() ? supplyStage : "<i>No available information</i>")
-                        : "";
-
-                str += "</tr>";
+            // If percentage < 0.01, state so. If information exists, show the information in the
+            // appropiate column, else, state the information isn't available(is waste);
+            HtmlTable table = new HtmlTable("table-section")
+                .text("Food Group", "DESCRIPTOR")
+                .integer("Year", "year")
+                .decimal("Percentage Loss/Waste", "percentage", 2, "", 0.01, "&lt; 0.01%");
+            if (isActivityActive) {
+                table.text("Activity", "activity", NO_INFORMATION);
             }
-            str += "</table>";
+            if (isCauseOfLossActive) {
+                table.text("Cause of Loss", "cause", NO_INFORMATION);
+            }
+            if (isFoodSupplyStageActive) {
+                table.text("Supply Stage", "supply_stage", NO_INFORMATION);
+            }
+            int written = table.write(str, dataResult, PageCursor.PAGE_SIZE);
+            next = after.after(dataResult, written, "year", "percentage", "row_id");
 
         } catch (SQLException e) {
             e.printStackTrace();
+        } catch (IOException e) {
+            // The browser went away part way through the table
+            System.err.println("Error writing results: " + e.getMessage());
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
         }
+        return next;
+    }
 
-        return str;
+    /**
+     * The query for one page of the food group table after the given cursor, shared by the
+     * page and the JSON API.
+     */
+    public static PreparedStatement prepareResults(Connection connection, String foodGroup, String yearStart, String yearEnd,
+            String sort, PageCursor after) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sqlResults(sort, after));
+
+        // 1 = minYear, 2 = maxYear, 3 = foodGroup, then the key of the last row shown and the page size
+        int param = 1;
+        statement.setString(param++, yearStart);
+        statement.setString(param++, yearEnd);
+        statement.setString(param++, foodGroup);
+        if (!after.isFirst()) {
+            statement.setDouble(param++, after.percentage);
+            statement.setInt(param++, after.year);
+            statement.setLong(param++, after.id);
+        }
+        statement.setInt(param++, PageCursor.PAGE_SIZE + 1);
+        return statement;
+    }
+
+    /**
+     * The SQL of prepareResults(), which only depends on the cursor being the first page or not.
+     */
+    public static String sqlResults(String sort, PageCursor after) {
+        String dataQuery = """
+                    SELECT cg.DESCRIPTOR, year, percentage, activity, cause, supply_stage, co.rowid AS row_id
+                        FROM CountryLossEvent as co
+                            JOIN CPC as cp ON cp.cpc_code = co.cpc_code
+                            JOIN CommodityGroup as cg ON cg.groupID = cp.groupID
+                            WHERE year BETWEEN ? AND ?
+                            AND cg.DESCRIPTOR = ?
+                """;
+        if (!after.isFirst()) {
+            dataQuery += "AND (co.percentage, co.year, co.rowid) %s (?, ?, ?)\n".formatted(sort.equals("Asc") ? ">" : "<");
+        }
+        dataQuery += "ORDER BY percentage %s, year %s, row_id %s LIMIT ?".formatted(sort, sort, sort);
+        return dataQuery;
+    }
+
+    // Rows in the full table for a food group: start year, end year, food group
+    public static final String SQL_COUNT = """
+                SELECT COUNT(*) AS row_count
+                    FROM CountryLossEvent as co
+                        JOIN CPC as cp ON cp.cpc_code = co.cpc_code
+                        JOIN CommodityGroup as cg ON cg.groupID = cp.groupID
+                        WHERE year BETWEEN ? AND ?
+                        AND cg.DESCRIPTOR = ?
+                """;
+
+    /**
+     * Number of rows in the full table for a food group, for the "showing rows" line.
+     * Returns -1 if the query failed.
+     */
+    public static int countResults(String foodGroup, String yearStart, String yearEnd) {
+        int count = -1;
+
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(DBHelper.DATABASE);
+
+            PreparedStatement statement = connection.prepareStatement(SQL_COUNT);
+            statement.setString(1, yearStart);
+            statement.setString(2, yearEnd);
+            statement.setString(3, foodGroup);
+
+            ResultSet result = statement.executeQuery();
+            count = result.next() ? result.getInt("row_count") : 0;
+            statement.close();
+        } catch (SQLException e) {
+            count = -1;
+            System.err.println(e.getMessage());
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        return count;
     }
 
 }
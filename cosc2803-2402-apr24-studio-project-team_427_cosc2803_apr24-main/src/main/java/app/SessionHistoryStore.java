@@ -0,0 +1,29 @@
+package app;
+
+import javax.servlet.http.HttpSession;
+
+import io.javalin.http.Context;
+
+/**
+ * Keeps each page's InputHistory as its own attribute of the HTTP session.
+ */
+public class SessionHistoryStore implements HistoryStore {
+
+    private static final String ATTRIBUTE_PREFIX = "history:";
+
+    @Override
+    public InputHistory load(Context context, String page) {
+        HttpSession session = context.req.getSession(false);
+        if (session == null) {
+            return new InputHistory();
+        }
+
+        Object history = session.getAttribute(ATTRIBUTE_PREFIX + page);
+        return history instanceof InputHistory ? (InputHistory) history : new InputHistory();
+    }
+
+    @Override
+    public void save(Context context, String page, InputHistory history) {
+        context.req.getSession(true).setAttribute(ATTRIBUTE_PREFIX + page, history);
+    }
+}
@@ -0,0 +1,318 @@
+package app;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Semaphore;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * The "both" similarity rankings of page 3A (getbotha and getbothp), sent as server-sent
+ * events while the candidate countries are scored.
+ * <pre>
+ *    GET /api/3A/stream?cr=country&amp;country=Australia&amp;year-start=2000&amp;num_similar_groups=5&amp;similarity=both-abs
+ * </pre>
+ * Rather than one query that ranks every country before returning anything, the selected
+ * country is looked up first and each other country with data in its closest year is then
+ * scored on its own, keeping the best num_similar_groups in a bounded queue. The stream sends:
+ * <ul>
+ * <li>start: the closest year and the number of candidates</li>
+ * <li>partial: the ranking so far, after every -Dstream.every candidates (default 10)</li>
+ * <li>done: the final top num_similar_groups, ranked as JDBCConnection.SQL_3A_BOTH_ABS or SQL_3A_BOTH_OVERLAP would</li>
+ * <li>failed: a query failed, the stream ends</li>
+ * </ul>
+ * Each event is flushed as it is written, and a write that fails means the browser has gone
+ * (closed the tab or moved to another page), so scoring stops and the connection is closed
+ * instead of finishing work nobody will see. Events are sent uncompressed so that each one
+ * reaches the browser as soon as it is written.
+ * <p>
+ * At most -Dstream.maxConcurrent streams (default 4) run at once; further requests get a 503.
+ */
+public class SimilarityStream {
+
+    public static final String URL = "/api/3A/stream";
+
+    public static final int EVERY = Math.max(1, Integer.getInteger("stream.every", 10));
+    public static final int MAX_CONCURRENT = Math.max(1, Integer.getInteger("stream.maxConcurrent", 4));
+
+    private static final Semaphore SLOTS = new Semaphore(MAX_CONCURRENT);
+
+    // The selected country's code, closest year to the one asked for, average loss that year and the
+    // number of commodities with data that year: country, year, year
+    public static final String SQL_TARGET = """
+            WITH Selected AS (
+                SELECT m49_code FROM Country WHERE country_name = ?
+            ),
+            CountryYear AS (
+                SELECT COALESCE(
+                    (SELECT MIN(cle.year) FROM CountryLossEvent cle JOIN Selected s ON cle.m49_code = s.m49_code
+                        WHERE cle.year >= ?),
+                    (SELECT MAX(cle.year) FROM CountryLossEvent cle JOIN Selected s ON cle.m49_code = s.m49_code),
+                    ?
+                ) AS closest_year
+            )
+            SELECT s.m49_code, cy.closest_year,
+                   (SELECT AVG(cle.percentage) FROM CountryLossEvent cle
+                        WHERE cle.m49_code = s.m49_code AND cle.year = cy.closest_year) AS avg_percentage,
+                   (SELECT COUNT(DISTINCT cle.cpc_code) FROM CountryLossEvent cle
+                        WHERE cle.year = cy.closest_year) AS year_cpc_codes
+                FROM Selected s, CountryYear cy
+            """;
+
+    // Countries with data in a year, other than the selected one: year, country
+    public static final String SQL_CANDIDATES = """
+            SELECT DISTINCT c.m49_code, c.country_name
+                FROM CountryLossEvent cle
+                    JOIN Country c ON c.m49_code = cle.m49_code
+                WHERE cle.year = ?
+                    AND c.country_name <> ?
+                ORDER BY c.country_name
+            """;
+
+    // One candidate's average loss over all its events and over the commodities it shares with
+    // the selected country, and how many it shares: selected code, year, candidate code, year
+    public static final String SQL_SCORE = """
+            SELECT AVG(cle.percentage) AS avg_percentage,
+                   AVG(CASE WHEN common.cpc_code IS NOT NULL THEN cle.percentage END) AS common_avg_percentage,
+                   COUNT(DISTINCT common.cpc_code) AS common_cpc_codes
+                FROM CountryLossEvent cle
+                    LEFT JOIN (SELECT DISTINCT cpc_code FROM CountryLossEvent WHERE m49_code = ? AND year = ?) common
+                        ON common.cpc_code = cle.cpc_code
+                WHERE cle.m49_code = ?
+                    AND cle.year = ?
+            """;
+
+    /**
+     * A scored country. For both-abs common is the number of shared commodities, for
+     * both-overlap the percentage of that year's commodities they share.
+     */
+    private static class Candidate {
+        final String country;
+        final double average;
+        final double common;
+        final double difference;
+
+        Candidate(String country, double average, double common, double difference) {
+            this.country = country;
+            this.average = average;
+            this.common = common;
+            this.difference = difference;
+        }
+    }
+
+    // Closest average first, then most in common, as the SQL orders them; by name when those tie
+    private static final Comparator<Candidate> RANKING = Comparator.<Candidate>comparingDouble(c -> c.difference)
+                                                                   .thenComparing(c -> -c.common)
+                                                                   .thenComparing(c -> c.country);
+
+    /**
+     * Add the stream route. Its input is checked by InputValidator like the JSON API.
+     */
+    public static void register(Javalin app) {
+        app.get(URL, SimilarityStream::stream);
+    }
+
+    /**
+     * Link to the stream for a page 3A form using the "both" similarity.
+     */
+    public static String link(Context context) {
+        StringBuilder link = new StringBuilder(URL);
+        link.append("?cr=country&country=").append(Fragments.encode(context.formParam("country")))
+            .append("&year-start=").append(Fragments.encode(context.formParam("year-start")))
+            .append("&num_similar_groups=").append(Fragments.encode(context.formParam("num_similar_groups")))
+            .append("&similarity=both-").append(context.formParam("value", "").equalsIgnoreCase("overlap") ? "overlap" : "abs");
+        return link.toString();
+    }
+
+    private static void stream(Context context) throws IOException {
+        // Checked here too, as InputValidator lets everything through when it has nothing to check against
+        String country = context.queryParam("country");
+        int year = number(context.queryParam("year-start"), "year-start");
+        int limit = number(context.queryParam("num_similar_groups"), "num_similar_groups");
+        boolean overlap = "both-overlap".equals(context.queryParam("similarity"));
+
+        context.contentType("text/event-stream; charset=utf-8");
+        context.header("Cache-Control", "no-cache");
+        // Stop proxies such as nginx holding the events back
+        context.header("X-Accel-Buffering", "no");
+
+        Writer out = new OutputStreamWriter(context.res.getOutputStream(), StandardCharsets.UTF_8);
+        // Nothing between here and the try may throw, or the slot is never released
+        if (!SLOTS.tryAcquire()) {
+            throw new ServiceUnavailableResponse("Too many rankings running, try again shortly");
+        }
+        Connection connection = null;
+        int scored = 0;
+        int total = 0;
+        try {
+            connection = DriverManager.getConnection(JDBCConnection.DATABASE);
+
+            PreparedStatement statement = connection.prepareStatement(SQL_TARGET);
+            statement.setString(1, country);
+            statement.setInt(2, year);
+            statement.setInt(3, year);
+            ResultSet target = statement.executeQuery();
+            if (!target.next()) {
+                statement.close();
+                send(out, "done", 0, 0, year, overlap, new ArrayList<Candidate>());
+                return;
+            }
+            String selectedCode = target.getString("m49_code");
+            int closestYear = target.getInt("closest_year");
+            double selectedAverage = target.getDouble("avg_percentage");
+            int yearCodes = target.getInt("year_cpc_codes");
+            statement.close();
+            if (overlap) {
+                selectedAverage = round(selectedAverage);
+            }
+
+            List<String[]> candidates = new ArrayList<String[]>();
+            statement = connection.prepareStatement(SQL_CANDIDATES);
+            statement.setInt(1, closestYear);
+            statement.setString(2, country);
+            ResultSet rows = statement.executeQuery();
+            while (rows.next()) {
+                candidates.add(new String[] { rows.getString("m49_code"), rows.getString("country_name") });
+            }
+            statement.close();
+            total = candidates.size();
+            send(out, "start", 0, total, closestYear, overlap, null);
+
+            // Worst of the best so far at the head, so it is the one dropped when a better candidate arrives
+            PriorityQueue<Candidate> best = new PriorityQueue<Candidate>(limit + 1, RANKING.reversed());
+            statement = connection.prepareStatement(SQL_SCORE);
+            statement.setString(1, selectedCode);
+            statement.setInt(2, closestYear);
+            statement.setInt(4, closestYear);
+            for (String[] candidate : candidates) {
+                statement.setString(3, candidate[0]);
+                Candidate scoredCandidate = score(statement.executeQuery(), candidate[1], overlap, selectedAverage, yearCodes);
+                scored++;
+                if (scoredCandidate != null) {
+                    best.add(scoredCandidate);
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+                if (scored % EVERY == 0 && scored < total) {
+                    send(out, "partial", scored, total, closestYear, overlap, ranked(best));
+                }
+            }
+            statement.close();
+            send(out, "done", scored, total, closestYear, overlap, ranked(best));
+        } catch (SQLException e) {
+            System.err.println("Error executing SQL query: " + e.getMessage());
+            try {
+                out.write("event: failed\ndata: {\"error\":\"Query failed\"}\n\n");
+                out.flush();
+            } catch (IOException closed) {
+                // Nobody left to tell
+            }
+        } catch (IOException e) {
+            // The browser went away, so there is no point scoring the rest
+            System.out.println("Ranking for " + country + " cancelled after " + scored + " of " + total + " countries");
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                System.err.println("Error closing connection: " + e.getMessage());
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Already disconnected
+            }
+            SLOTS.release();
+        }
+    }
+
+    private static int number(String value, String field) {
+        try {
+            return Integer.parseInt(value == null ? "" : value.trim());
+        } catch (NumberFormatException e) {
+            throw new BadRequestResponse(field + " must be a whole number");
+        }
+    }
+
+    /**
+     * Score one candidate from its SQL_SCORE row, or null if it shares no commodities with the
+     * selected country (the SQL leaves those out).
+     */
+    private static Candidate score(ResultSet row, String country, boolean overlap, double selectedAverage, int yearCodes)
+            throws SQLException {
+        if (!row.next() || row.getInt("common_cpc_codes") == 0) {
+            row.close();
+            return null;
+        }
+        double average;
+        double common;
+        if (overlap) {
+            average = round(row.getDouble("avg_percentage"));
+            common = round(row.getInt("common_cpc_codes") * 100.0 / yearCodes);
+        } else {
+            average = row.getDouble("common_avg_percentage");
+            common = row.getInt("common_cpc_codes");
+        }
+        row.close();
+        return new Candidate(country, average, common, Math.abs(average - selectedAverage));
+    }
+
+    private static List<Candidate> ranked(PriorityQueue<Candidate> best) {
+        List<Candidate> ranked = new ArrayList<Candidate>(best);
+        ranked.sort(RANKING);
+        return ranked;
+    }
+
+    /**
+     * Write one event with the progress and, unless results is null, the ranking so far, then flush it.
+     */
+    private static void send(Writer out, String event, int scored, int total, int closestYear, boolean overlap,
+                             List<Candidate> results)
+            throws IOException {
+        out.write("event: " + event + "\ndata: ");
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject()
+            .name("closest_year").value(closestYear)
+            .name("scored").value(scored)
+            .name("candidates").value(total);
+        if (results != null) {
+            json.name("results").beginArray();
+            for (Candidate candidate : results) {
+                json.beginObject()
+                    .name("country_name").value(candidate.country)
+                    .name("avg_percentage").value(candidate.average);
+                if (overlap) {
+                    json.name("common_cpc_code_percentage").value(candidate.common);
+                } else {
+                    json.name("common_cpc_codes").value((long) candidate.common);
+                }
+                json.endObject();
+            }
+            json.endArray();
+        }
+        json.endObject();
+        out.write("\n\n");
+        out.flush();
+    }
+
+    // Three decimal places, as ROUND(x, 3) in the overlap SQL
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,156 @@
+package app;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpSession;
+
+import io.javalin.http.Context;
+
+/**
+ * Keeps encoded InputHistory entries in a sidecar SQLite file, keyed by session id and page,
+ * so the heap only holds the session id no matter how many sessions are open.
+ * <p>
+ * Each load and save opens its own connection rather than sharing one behind a lock, so
+ * requests only wait on each other where SQLite makes them: the file is in WAL mode, where
+ * readers never wait and writers queue for up to BUSY_TIMEOUT_MS.
+ * <p>
+ * Histories not updated for a day are removed when the store is opened and every hour after.
+ * Use -Dhistory.file to change the file (default database/history.db).
+ */
+public class SqliteHistoryStore implements HistoryStore {
+
+    public static final String FILE = System.getProperty("history.file", "database/history.db");
+
+    private static final long EXPIRY_MS = 24L * 60 * 60 * 1000;
+    private static final long EXPIRE_EVERY_MINUTES = 60;
+    private static final int BUSY_TIMEOUT_MS = 5000;
+
+    private boolean open = false;
+
+    public SqliteHistoryStore() {
+        Connection connection = null;
+        try {
+            connection = connect();
+
+            Statement statement = connection.createStatement();
+            // WAL is kept by the file, so every connection opened later uses it
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("CREATE TABLE IF NOT EXISTS InputHistory ( " +
+                              "    session_id TEXT NOT NULL, " +
+                              "    page       TEXT NOT NULL, " +
+                              "    entries    TEXT NOT NULL, " +
+                              "    updated    INTEGER NOT NULL, " +
+                              "    PRIMARY KEY (session_id, page) " +
+                              ")");
+            statement.execute("CREATE INDEX IF NOT EXISTS InputHistory_updated ON InputHistory (updated)");
+            statement.close();
+            open = true;
+        } catch (SQLException e) {
+            System.err.println("Could not open history store " + FILE + ": " + e.getMessage());
+            return;
+        } finally {
+            close(connection);
+        }
+
+        expire();
+        ScheduledExecutorService expiry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiry.scheduleWithFixedDelay(this::expire, EXPIRE_EVERY_MINUTES, EXPIRE_EVERY_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public InputHistory load(Context context, String page) {
+        HttpSession session = context.req.getSession(false);
+        if (session == null || !open) {
+            return new InputHistory();
+        }
+
+        Connection connection = null;
+        try {
+            connection = connect();
+            PreparedStatement statement = connection.prepareStatement(
+                "SELECT entries FROM InputHistory WHERE session_id = ? AND page = ?");
+            statement.setString(1, session.getId());
+            statement.setString(2, page);
+            ResultSet result = statement.executeQuery();
+            if (result.next()) {
+                return InputHistory.decode(result.getString("entries"));
+            }
+        } catch (SQLException e) {
+            System.err.println("History read failed: " + e.getMessage());
+        } finally {
+            close(connection);
+        }
+        return new InputHistory();
+    }
+
+    @Override
+    public void save(Context context, String page, InputHistory history) {
+        if (!open) {
+            return;
+        }
+
+        Connection connection = null;
+        try {
+            connection = connect();
+            PreparedStatement statement = connection.prepareStatement(
+                "INSERT OR REPLACE INTO InputHistory (session_id, page, entries, updated) VALUES (?, ?, ?, ?)");
+            statement.setString(1, context.req.getSession(true).getId());
+            statement.setString(2, page);
+            statement.setString(3, history.encode());
+            statement.setLong(4, System.currentTimeMillis());
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("History write failed: " + e.getMessage());
+        } finally {
+            close(connection);
+        }
+    }
+
+    // Remove the histories of sessions not seen for EXPIRY_MS
+    private void expire() {
+        Connection connection = null;
+        try {
+            connection = connect();
+            PreparedStatement expire = connection.prepareStatement("DELETE FROM InputHistory WHERE updated < ?");
+            expire.setLong(1, System.currentTimeMillis() - EXPIRY_MS);
+            int removed = expire.executeUpdate();
+            if (removed > 0) {
+                System.out.println("History store: removed " + removed + " expired histories");
+            }
+        } catch (SQLException e) {
+            System.err.println("History expiry failed: " + e.getMessage());
+        } finally {
+            close(connection);
+        }
+    }
+
+    private static Connection connect() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("busy_timeout", Integer.toString(BUSY_TIMEOUT_MS));
+        properties.setProperty("synchronous", "NORMAL");
+        return DriverManager.getConnection("jdbc:sqlite:" + FILE, properties);
+    }
+
+    private static void close(Connection connection) {
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
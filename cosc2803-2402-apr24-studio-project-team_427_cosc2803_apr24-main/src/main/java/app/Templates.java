@@ -0,0 +1,149 @@
+package app;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.cache.ICache;
+import org.thymeleaf.cache.StandardCache;
+import org.thymeleaf.cache.StandardCacheManager;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+/**
+ * Thymeleaf templates for the pages, kept in src/main/resources/templates.
+ * <p>
+ * Templates are parsed once (preload() does this at startup) and then served from the
+ * engine's template cache, so rendering a page only binds its model and writes output.
+ * layout.html holds the head, topnav and footer fragments shared by every page.
+ * <p>
+ * Each page template is split into fragments. The static ones (head, nav, header text
+ * and footer) are encoded once by Layout, the rest are rendered here per request, and
+ * pages with large result tables stream the tables from JDBC in between.
+ * Cache hits and render times are shown on the STATUS_URL route.
+ */
+public class Templates {
+
+    public static final String STATUS_URL = "/status/templates";
+
+    // Fragments rendered per request, parsed by preload(). The static ones belong to Layout.
+    private static final String[][] FRAGMENTS = {
+        { "layout", "options" },
+        { "layout", "pager" },
+        { "index", "snapshot" },
+        { "mission", "people" },
+        { "page2A", "filters" },
+        { "page2B", "filters" },
+        { "page3A", "filters" },
+        { "page3B", "filters" },
+    };
+
+    private static final StandardCacheManager CACHE_MANAGER = new StandardCacheManager();
+    private static final TemplateEngine ENGINE = new TemplateEngine();
+
+    private static final ConcurrentHashMap<String, RenderStats> STATS = new ConcurrentHashMap<String, RenderStats>();
+
+    static {
+        ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+        resolver.setPrefix("templates/");
+        resolver.setSuffix(".html");
+        resolver.setTemplateMode(TemplateMode.HTML);
+        resolver.setCharacterEncoding("UTF-8");
+        resolver.setCacheable(true);
+        resolver.setCacheTTLMs(null);
+
+        CACHE_MANAGER.setTemplateCacheEnableCounters(true);
+        CACHE_MANAGER.setExpressionCacheEnableCounters(true);
+
+        ENGINE.setTemplateResolver(resolver);
+        ENGINE.setCacheManager(CACHE_MANAGER);
+    }
+
+    /**
+     * Parse every dynamic fragment into the cache, so no request pays for parsing.
+     * Fragments are rendered with an empty model and the output discarded.
+     */
+    public static void preload() {
+        long start = System.currentTimeMillis();
+        Context empty = new Context();
+        for (String[] fragment : FRAGMENTS) {
+            ENGINE.process(fragment[0], Set.of(fragment[1]), empty, Writer.nullWriter());
+        }
+        System.out.println("Parsed " + FRAGMENTS.length + " template fragments in "
+                           + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Render one fragment of a template to the page.
+     */
+    public static void render(HtmlStream html, String template, String fragment, Map<String, Object> model) throws IOException {
+        Context context = new Context();
+        context.setVariables(model);
+
+        long start = System.nanoTime();
+        ENGINE.process(template, Set.of(fragment), context, html.writer());
+        record(template + " :: " + fragment, System.nanoTime() - start);
+    }
+
+    /**
+     * Render a fragment to a String, for output that is cached and reused (see Dropdowns and Layout).
+     */
+    public static String renderToString(String template, String fragment, Map<String, Object> model) {
+        Context context = new Context();
+        context.setVariables(model);
+
+        long start = System.nanoTime();
+        String result = ENGINE.process(template, Set.of(fragment), context);
+        record(template + " :: " + fragment, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Plain text report of the template caches and render times.
+     */
+    public static String status() {
+        StringBuilder report = new StringBuilder();
+        report.append(cacheLine("Template cache", CACHE_MANAGER.getTemplateCache()));
+        report.append(cacheLine("Expression cache", CACHE_MANAGER.getExpressionCache()));
+        report.append(String.format("Dropdown cache: %d hits, %d misses%n", Dropdowns.hits(), Dropdowns.misses()));
+        report.append(String.format("Layout segments: %d (%d bytes)%n", Layout.size(), Layout.bytes()));
+        report.append(Compression.status());
+        report.append(String.format("%nRender times:%n"));
+        report.append(String.format("%-20s %10s %10s %10s%n", "template", "renders", "avg ms", "max ms"));
+        for (Map.Entry<String, RenderStats> entry : STATS.entrySet()) {
+            RenderStats stats = entry.getValue();
+            long count = stats.count.get();
+            report.append(String.format("%-20s %10d %10.3f %10.3f%n", entry.getKey(), count,
+                                        count == 0 ? 0 : stats.totalNanos.get() / 1e6 / count,
+                                        stats.maxNanos.get() / 1e6));
+        }
+        return report.toString();
+    }
+
+    private static String cacheLine(String name, ICache<?, ?> cache) {
+        if (!(cache instanceof StandardCache)) {
+            return name + ": disabled" + System.lineSeparator();
+        }
+        StandardCache<?, ?> standard = (StandardCache<?, ?>) cache;
+        return String.format("%s: %d entries, %d hits, %d misses (%.1f%% hit rate)%n", name, standard.size(),
+                             standard.getHitCount(), standard.getMissCount(), standard.getHitRatio() * 100);
+    }
+
+    private static void record(String name, long nanos) {
+        RenderStats stats = STATS.computeIfAbsent(name, key -> new RenderStats());
+        stats.count.incrementAndGet();
+        stats.totalNanos.addAndGet(nanos);
+        stats.maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static class RenderStats {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+    }
+}
@@ -0,0 +1,142 @@
+package helper;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Loads the rows of one table in a single transaction.
+ * <p>
+ * In autocommit mode SQLite commits (and syncs the journal to disk) after every INSERT,
+ * which is what made the loaders in FoodProcessCSV take minutes. A BulkLoad instead
+ * prepares its INSERT once, sends the rows in batches of BATCH_SIZE and commits once at
+ * the end. While it runs the journal is kept in memory and syncing is turned off; both
+ * pragmas are put back as they were when the load finishes or fails.
+ * <pre>
+ *    BulkLoad load = new BulkLoad(connection, "Country", "INSERT INTO Country (m49Code, countryName) VALUES (?, ?)");
+ *    try {
+ *       load.row().setString(1, m49Code);
+ *       ...
+ *       load.add();
+ *       load.finish();
+ *    } finally {
+ *       load.close();
+ *    }
+ * </pre>
+ * A load that is closed without finish() is rolled back, so a failure part way through
+ * leaves the table as it was.
+ */
+public class BulkLoad implements AutoCloseable {
+
+   public static final int BATCH_SIZE = 1000;
+
+   private final Connection connection;
+   private final String table;
+   private final PreparedStatement statement;
+   private final String journalMode;
+   private final String synchronous;
+   private final long start = System.nanoTime();
+
+   private int rows = 0;
+   private int batched = 0;
+   private boolean finished = false;
+
+   public BulkLoad(Connection connection, String table, String insert) throws SQLException {
+      this.connection = connection;
+      this.table = table;
+
+      // The journal mode cannot change inside a transaction, so relax the pragmas first
+      journalMode = pragma("journal_mode");
+      synchronous = pragma("synchronous");
+      setPragma("journal_mode", "MEMORY");
+      setPragma("synchronous", "OFF");
+
+      connection.setAutoCommit(false);
+      statement = connection.prepareStatement(insert);
+   }
+
+   /**
+    * The INSERT statement, for setting the parameters of the next row.
+    */
+   public PreparedStatement row() {
+      return statement;
+   }
+
+   /**
+    * Add the row whose parameters have been set, sending the batch once it is full.
+    */
+   public void add() throws SQLException {
+      statement.addBatch();
+      rows++;
+      if (++batched == BATCH_SIZE) {
+         statement.executeBatch();
+         batched = 0;
+      }
+   }
+
+   /**
+    * Send the last batch, commit and report how fast the table loaded.
+    */
+   public void finish() throws SQLException {
+      if (batched > 0) {
+         statement.executeBatch();
+         batched = 0;
+      }
+      connection.commit();
+      finished = true;
+
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("Loaded %d rows into %s in %.3f s (%.0f rows/s)",
+                                       rows, table, seconds, seconds > 0 ? rows / seconds : 0));
+   }
+
+   public int rows() {
+      return rows;
+   }
+
+   public String table() {
+      return table;
+   }
+
+   /**
+    * Roll back if the load did not finish, then restore autocommit and the pragmas.
+    */
+   @Override
+   public void close() throws SQLException {
+      try {
+         statement.close();
+         if (!finished) {
+            connection.rollback();
+            System.out.println("Load of " + table + " rolled back");
+         }
+      } finally {
+         connection.setAutoCommit(true);
+         setPragma("synchronous", synchronous);
+         setPragma("journal_mode", journalMode);
+      }
+   }
+
+   private String pragma(String name) throws SQLException {
+      Statement query = connection.createStatement();
+      try {
+         ResultSet result = query.executeQuery("PRAGMA " + name);
+         return result.next() ? result.getString(1) : null;
+      } finally {
+         query.close();
+      }
+   }
+
+   private void setPragma(String name, String value) throws SQLException {
+      if (value == null) {
+         return;
+      }
+      Statement update = connection.createStatement();
+      try {
+         update.execute("PRAGMA " + name + " = " + value);
+      } finally {
+         update.close();
+      }
+   }
+}
@@ -0,0 +1,309 @@
+package helper;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reads a CSV file one record at a time, in a single pass over its characters.
+ * <p>
+ * Fields may be quoted, with "" for a quote inside a quoted field, and quoted fields may
+ * hold commas and line breaks. The quotes are removed from the values. Lines may end in
+ * \n, \r\n or \r, and blank lines are skipped.
+ * <p>
+ * The fields of a record are unescaped into one character buffer that is reused for every
+ * record, so reading a file makes no garbage beyond the Strings asked for with get().
+ * getInt() and getDouble() parse numbers straight from the buffer.
+ * <pre>
+ *    CsvReader csv = new CsvReader(new FileReader(FOOD_CSV_FILE));
+ *    csv.next();   // the header
+ *    while (csv.next()) {
+ *       String m49Code = csv.get(CountryFields.M49CODE);
+ *       int year = csv.getInt(CountryFields.YEAR);
+ *       double lossPercentage = csv.getDouble(CountryFields.LOSSPERCENT);
+ *    }
+ *    csv.close();
+ * </pre>
+ */
+public class CsvReader implements CsvRecord, AutoCloseable {
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   // Powers of ten that a double holds exactly, for getDouble()
+   private static final double[] POWERS_OF_TEN = new double[23];
+   static {
+      POWERS_OF_TEN[0] = 1;
+      for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+         POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+      }
+   }
+
+   private final Reader in;
+   private final char[] buffer = new char[BUFFER_SIZE];
+   private int position = 0;
+   private int limit = 0;
+
+   // Unescaped contents of the current record's fields, and where each one starts and ends
+   private char[] chars = new char[1024];
+   private int length = 0;
+   private int[] starts = new int[16];
+   private int[] ends = new int[16];
+   private int fields = 0;
+
+   private long line = 1;
+   private long recordLine = 0;
+
+   public CsvReader(Reader in) {
+      this.in = in;
+   }
+
+   /**
+    * Read the next record, returning false at the end of the file.
+    */
+   public boolean next() throws IOException {
+      int c = read();
+      // Skip blank lines
+      while (c == '\n' || c == '\r') {
+         endOfLine(c);
+         c = read();
+      }
+      if (c < 0) {
+         fields = 0;
+         return false;
+      }
+
+      recordLine = line;
+      length = 0;
+      fields = 0;
+      startField();
+      while (true) {
+         if (c < 0) {
+            endField();
+            return true;
+         } else if (c == '\n' || c == '\r') {
+            endField();
+            endOfLine(c);
+            return true;
+         } else if (c == ',') {
+            endField();
+            startField();
+         } else if (c == '"') {
+            quoted();
+         } else {
+            append((char) c);
+         }
+         c = read();
+      }
+   }
+
+   /**
+    * Number of fields in the current record.
+    */
+   public int size() {
+      return fields;
+   }
+
+   /**
+    * Line of the file the current record started on, counting from 1.
+    */
+   public long line() {
+      return recordLine;
+   }
+
+   /**
+    * A field of the current record, or "" if the record has fewer fields.
+    */
+   public String get(int field) {
+      if (field >= fields) {
+         return "";
+      }
+      return new String(chars, starts[field], ends[field] - starts[field]);
+   }
+
+   public boolean isEmpty(int field) {
+      return field >= fields || starts[field] == ends[field];
+   }
+
+   /**
+    * A field of the current record as an int.
+    * @throws NumberFormatException if it is empty or not a whole number
+    */
+   public int getInt(int field) {
+      int start = field < fields ? starts[field] : 0;
+      int end = field < fields ? ends[field] : 0;
+      if (start == end) {
+         throw error(field, "an int");
+      }
+      boolean negative = chars[start] == '-';
+      int i = negative || chars[start] == '+' ? start + 1 : start;
+      if (i == end) {
+         throw error(field, "an int");
+      }
+      long value = 0;
+      for (; i < end; i++) {
+         int digit = chars[i] - '0';
+         if (digit < 0 || digit > 9) {
+            throw error(field, "an int");
+         }
+         value = value * 10 + digit;
+         if (value > (long) Integer.MAX_VALUE + 1) {
+            throw error(field, "an int");
+         }
+      }
+      value = negative ? -value : value;
+      if (value > Integer.MAX_VALUE) {
+         throw error(field, "an int");
+      }
+      return (int) value;
+   }
+
+   /**
+    * A field of the current record as a double. Plain decimals such as 12.5 are parsed
+    * from the buffer, anything else (exponents, very long numbers) by Double.parseDouble.
+    * @throws NumberFormatException if it is empty or not a number
+    */
+   public double getDouble(int field) {
+      int start = field < fields ? starts[field] : 0;
+      int end = field < fields ? ends[field] : 0;
+      if (start == end) {
+         throw error(field, "a number");
+      }
+      boolean negative = chars[start] == '-';
+      int i = negative || chars[start] == '+' ? start + 1 : start;
+      long mantissa = 0;
+      int digits = 0;
+      int decimals = -1;
+      for (; i < end; i++) {
+         char c = chars[i];
+         if (c == '.' && decimals < 0) {
+            decimals = 0;
+         } else if (c >= '0' && c <= '9' && digits < 15) {
+            mantissa = mantissa * 10 + (c - '0');
+            digits++;
+            if (decimals >= 0) {
+               decimals++;
+            }
+         } else {
+            return slowDouble(field);
+         }
+      }
+      if (digits == 0) {
+         throw error(field, "a number");
+      }
+      // Both values are exact, so one division rounds the same way parseDouble does
+      double value = decimals > 0 ? mantissa / powerOfTen(decimals) : mantissa;
+      return negative ? -value : value;
+   }
+
+   // 10^exponent, exact for exponents up to 22
+   static double powerOfTen(int exponent) {
+      return POWERS_OF_TEN[exponent];
+   }
+
+   @Override
+   public void close() throws IOException {
+      in.close();
+   }
+
+   /**
+    * The current record as a line of CSV, for messages.
+    */
+   @Override
+   public String toString() {
+      StringBuilder record = new StringBuilder();
+      for (int i = 0; i < fields; i++) {
+         if (i > 0) {
+            record.append(',');
+         }
+         record.append(chars, starts[i], ends[i] - starts[i]);
+      }
+      return record.toString();
+   }
+
+   // Read the rest of a quoted section, up to its closing quote
+   private void quoted() throws IOException {
+      while (true) {
+         int c = read();
+         if (c < 0) {
+            return;
+         }
+         if (c == '"') {
+            c = read();
+            if (c != '"') {
+               // The closing quote; whatever follows is read as part of the field
+               if (c >= 0) {
+                  unread();
+               }
+               return;
+            }
+         } else if (c == '\n' || (c == '\r' && peek() != '\n')) {
+            line++;
+         }
+         append((char) c);
+      }
+   }
+
+   private double slowDouble(int field) {
+      try {
+         return Double.parseDouble(get(field));
+      } catch (NumberFormatException e) {
+         throw error(field, "a number");
+      }
+   }
+
+   private NumberFormatException error(int field, String type) {
+      return new NumberFormatException("Line " + recordLine + " field " + (field + 1) + " is not " + type + ": \"" + get(field) + "\"");
+   }
+
+   private void startField() {
+      if (fields == starts.length) {
+         starts = Arrays.copyOf(starts, fields * 2);
+         ends = Arrays.copyOf(ends, fields * 2);
+      }
+      starts[fields] = length;
+   }
+
+   private void endField() {
+      ends[fields++] = length;
+   }
+
+   private void append(char c) {
+      if (length == chars.length) {
+         chars = Arrays.copyOf(chars, length * 2);
+      }
+      chars[length++] = c;
+   }
+
+   // Step past a line ending whose first character c has been read; \r\n counts as one
+   private void endOfLine(int c) throws IOException {
+      line++;
+      if (c == '\r' && peek() == '\n') {
+         read();
+      }
+   }
+
+   private int read() throws IOException {
+      if (position == limit) {
+         limit = in.read(buffer, 0, buffer.length);
+         position = 0;
+         if (limit <= 0) {
+            limit = 0;
+            return -1;
+         }
+      }
+      return buffer[position++];
+   }
+
+   private int peek() throws IOException {
+      int c = read();
+      if (c >= 0) {
+         unread();
+      }
+      return c;
+   }
+
+   // Only ever called straight after a read() that returned a character, so it is still in the buffer
+   private void unread() {
+      position--;
+   }
+}
@@ -0,0 +1,36 @@
+package helper;
+
+/*
+* The current record of a CSV reader (CsvReader or MappedCsvReader), field by field.
+* Fields are numbered from 0, in the order of ClassFields and CountryFields.
+*/
+
+public interface CsvRecord {
+
+   /**
+    * Number of fields in the current record.
+    */
+   int size();
+
+   /**
+    * A field of the current record, or "" if the record has fewer fields.
+    */
+   String get(int field);
+
+   boolean isEmpty(int field);
+
+   /**
+    * @throws NumberFormatException if the field is empty or not a whole number
+    */
+   int getInt(int field);
+
+   /**
+    * @throws NumberFormatException if the field is empty or not a number
+    */
+   double getDouble(int field);
+
+   /**
+    * Line of the file the current record started on, counting from 1.
+    */
+   long line();
+}
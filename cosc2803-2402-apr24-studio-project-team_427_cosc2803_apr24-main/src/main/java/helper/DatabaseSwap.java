@@ -0,0 +1,139 @@
+package helper;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Runs an ingest against a copy of the database and swaps the copy into place, so the
+ * web server never reads a half-loaded database.
+ * <p>
+ * The live database is copied with VACUUM INTO to "food_loss.db.loading" next to it, which
+ * reads one consistent snapshot even while the server is reading, and keeps the tables the
+ * ingest does not touch (Persona, Student, ...). FoodLossIngest then loads the copy, which
+ * can take its time and hold its write lock without blocking a single request. The copy is
+ * checked (see verify()) and renamed over the live file in one atomic step.
+ * <p>
+ * The server opens a connection per request, so requests already running finish on the old
+ * file, which stays readable until they close it, and every connection opened after the
+ * rename reads the new one. app.DatasetVersion sees the new file and the caches and the data
+ * snapshot move over to it.
+ * <p>
+ * If the load or the check fails the copy is deleted and the live database is untouched.
+ * Only one ingest can run against a database at a time, held by a lock on
+ * "food_loss.db.lock", which is left in place; a second one fails straight away.
+ */
+public class DatabaseSwap {
+
+   private static final String PREFIX = "jdbc:sqlite:";
+
+   /**
+    * Bring a copy of database up to date with FoodLoss.csv (see FoodLossIngest.update()) and
+    * swap it in. If nothing was loaded the copy is thrown away and the database left as it is.
+    */
+   public static IngestReport update(String database, String foodCsvFile, String cpcCsvFile, boolean rebuild) throws Exception {
+      Path live = file(database);
+      Path staging = live.resolveSibling(live.getFileName() + ".loading");
+      Path lockFile = live.resolveSibling(live.getFileName() + ".lock");
+
+      // Never deleted, so every ingest locks the same file: were it deleted, one ingest could
+      // still hold a lock on the old file while another created and locked a new one
+      FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      try {
+         if (lockChannel.tryLock() == null) {
+            throw new IllegalStateException("Another ingest is loading " + live);
+         }
+
+         // Left behind by an ingest that was killed part way
+         Files.deleteIfExists(staging);
+         Files.deleteIfExists(staging.resolveSibling(staging.getFileName() + "-journal"));
+
+         long start = System.nanoTime();
+         boolean swapped = false;
+         try {
+            if (Files.exists(live)) {
+               copy(database, staging);
+            }
+            IngestReport report = FoodLossIngest.update(PREFIX + staging, foodCsvFile, cpcCsvFile, rebuild);
+            if (report.loadedRows() == 0) {
+               report.note("Nothing loaded, " + live + " left as it was");
+               return report;
+            }
+
+            verify(PREFIX + staging, foodCsvFile);
+            Files.move(staging, live, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            swapped = true;
+            report.note(String.format("Loaded into a copy and swapped into %s (%.3f s)", live, (System.nanoTime() - start) / 1e9));
+            return report;
+         } finally {
+            if (!swapped) {
+               Files.deleteIfExists(staging);
+            }
+         }
+      } finally {
+         // Closing the channel releases the lock
+         lockChannel.close();
+      }
+   }
+
+   /**
+    * The file of a jdbc:sqlite: url.
+    */
+   public static Path file(String database) {
+      if (!database.startsWith(PREFIX)) {
+         throw new IllegalArgumentException("Not an SQLite database url: " + database);
+      }
+      return Paths.get(database.substring(PREFIX.length()));
+   }
+
+   // A consistent copy of the database as it is now, written to file
+   private static void copy(String database, Path file) throws SQLException {
+      Connection connection = DriverManager.getConnection(database);
+      try {
+         Statement statement = connection.createStatement();
+         statement.execute("VACUUM INTO '" + file.toString().replace("'", "''") + "'");
+         statement.close();
+      } finally {
+         connection.close();
+      }
+   }
+
+   /**
+    * Check a loaded copy before it goes live: the file is not damaged, and the event tables
+    * hold exactly the rows its watermark says were loaded. The query plans were checked by
+    * the load itself (see PostLoad).
+    */
+   static void verify(String database, String foodCsvFile) throws SQLException {
+      Connection connection = DriverManager.getConnection(database);
+      try {
+         Statement statement = connection.createStatement();
+         try {
+            ResultSet result = statement.executeQuery("PRAGMA quick_check");
+            String check = result.next() ? result.getString(1) : "no result";
+            if (!check.equals("ok")) {
+               throw new IllegalStateException("Loaded database failed its check: " + check);
+            }
+
+            IngestWatermark watermark = IngestWatermark.read(connection, foodCsvFile);
+            result = statement.executeQuery(
+               "SELECT (SELECT COUNT(*) FROM CountryLossEvent) + (SELECT COUNT(*) FROM RegionLossEvent)");
+            long events = result.next() ? result.getLong(1) : 0;
+            if (watermark == null || events == 0 || events != watermark.events) {
+               throw new IllegalStateException("Loaded database has " + events + " events, expected those of " + watermark);
+            }
+         } finally {
+            statement.close();
+         }
+      } finally {
+         connection.close();
+      }
+   }
+}
@@ -0,0 +1,59 @@
+package helper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What was read from FoodLoss.csv besides the events themselves: the country and cpc
+ * codes it uses, the number of events and the records that were rejected.
+ * <p>
+ * The events are handed on as they are read (see ParallelCsv.Events) rather than kept
+ * here, so reading a file of any size holds only its distinct codes. Codes are kept in the
+ * order they appear in the file, so data read in chunks and merged with addAll() in chunk
+ * order is the same as data read in one go.
+ */
+public class FoodLossData {
+
+   // m49 code to country name, first name seen for each code
+   public final LinkedHashMap<String, String> countries = new LinkedHashMap<String, String>();
+   public final LinkedHashSet<String> cpcCodes = new LinkedHashSet<String>();
+   public long events = 0;
+   // Why each record that could not be read was rejected (the messages name the line), so one bad row does not stop a load
+   public final List<String> rejected = new ArrayList<String>();
+
+   /**
+    * The current record of a FoodLoss.csv reader as an event, or null, noting it as
+    * rejected, if its year or loss percentage is not a number.
+    */
+   public LossEvent read(CsvRecord csv) {
+      try {
+         LossEvent event = LossEvent.read(csv);
+         add(event);
+         return event;
+      } catch (NumberFormatException e) {
+         rejected.add(e.getMessage());
+         return null;
+      }
+   }
+
+   public void add(LossEvent event) {
+      countries.putIfAbsent(event.m49Code, event.countryName);
+      cpcCodes.add(event.cpcCode);
+      events++;
+   }
+
+   /**
+    * Append the data read from the part of the file after this one.
+    */
+   public void addAll(FoodLossData later) {
+      for (Map.Entry<String, String> country : later.countries.entrySet()) {
+         countries.putIfAbsent(country.getKey(), country.getValue());
+      }
+      cpcCodes.addAll(later.cpcCodes);
+      events += later.events;
+      rejected.addAll(later.rejected);
+   }
+}
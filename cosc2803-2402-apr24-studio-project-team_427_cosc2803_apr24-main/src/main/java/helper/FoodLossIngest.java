@@ -0,0 +1,674 @@
+package helper;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds the tables the web server reads from one pass over FoodLoss.csv.
+ * <p>
+ * CPC.csv is read first into two maps: commodity group (3 digit code) to descriptor, and
+ * class (4 digit) or sub-class (5 digit) code to descriptor. FoodLoss.csv is then read once
+ * and every row is resolved against in-memory maps rather than by a query per row:
+ * <ul>
+ * <li>the country, added to Country the first time its code is seen</li>
+ * <li>the region, if the row has one, given the code "m49 code.n" the first time the
+ *     (country, region) pair is seen; the event goes to RegionLossEvent instead of
+ *     CountryLossEvent</li>
+ * <li>the cpc code, matched as a sub-class or class of CPC.csv, or failing that filed
+ *     under its class, and its commodity group from the first 3 digits</li>
+ * </ul>
+ * Each event is inserted in batches as soon as it is resolved, so only the maps are held in
+ * memory however large the file is, and the other five tables are written from the maps
+ * once the file has been read (see BulkLoad). A code that cannot be matched does not stop
+ * the load; it is loaded as well as it can be and listed in the IngestReport, along with any
+ * record whose year or loss percentage is not a number.
+ * <p>
+ * The load runs as a graph of stages (see IngestRunner): CPC.csv is read, the tables
+ * recreated and FoodLoss.csv hashed at the same time, and the events are loaded once CPC.csv
+ * has been read.
+ * <p>
+ * After the first load only the rows appended to FoodLoss.csv since are read (see
+ * update() and IngestWatermark): the maps are filled from the tables already loaded, and
+ * the new events and any new countries, regions and codes are inserted in one transaction
+ * together with the new watermark.
+ * <p>
+ * Either way the load ends by building the indexes, running ANALYZE and checking the
+ * plans of the application's queries (see PostLoad).
+ * <p>
+ * Persona, PersonaAttribute and Student are not touched.
+ */
+public class FoodLossIngest {
+
+   private static final String[] TABLES = {
+      "Country", "Region", "CommodityGroup", "CPC", "Commodity", "CountryLossEvent", "RegionLossEvent"
+   };
+
+   private static final String[] CREATE_TABLES = {
+      "CREATE TABLE Country (" +
+      "   m49_code        TEXT PRIMARY KEY," +
+      "   country_name    TEXT NOT NULL)",
+      "CREATE TABLE Region (" +
+      "   m49_code        TEXT PRIMARY KEY," +
+      "   region_name     TEXT NOT NULL)",
+      "CREATE TABLE CommodityGroup (" +
+      "   groupID         TEXT PRIMARY KEY," +
+      "   descriptor      TEXT NOT NULL)",
+      "CREATE TABLE CPC (" +
+      "   cpc_code        TEXT PRIMARY KEY," +
+      "   descriptor      TEXT," +
+      "   groupID         TEXT REFERENCES CommodityGroup(groupID))",
+      "CREATE TABLE Commodity (" +
+      "   cpc_code        TEXT PRIMARY KEY," +
+      "   commodityName   TEXT NOT NULL)",
+      "CREATE TABLE CountryLossEvent (" +
+      "   m49_code        TEXT," +
+      "   cpc_code        TEXT," +
+      "   year            INTEGER," +
+      "   percentage      REAL," +
+      "   activity        TEXT," +
+      "   supply_stage    TEXT," +
+      "   cause           TEXT)",
+      "CREATE TABLE RegionLossEvent (" +
+      "   m49_code        TEXT," +
+      "   cpc_code        TEXT," +
+      "   year            INTEGER," +
+      "   percentage      REAL," +
+      "   activity        TEXT," +
+      "   supply_stage    TEXT," +
+      "   cause           TEXT)"
+   };
+
+   private static final String EVENT_COLUMNS =
+      "(m49_code, cpc_code, year, percentage, activity, supply_stage, cause) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+   private static final int GROUP_LENGTH = 3;
+
+   // A file changed more recently than this may still be being written (see update())
+   public static final long SETTLE_MS = Long.getLong("ingest.settle", 2000);
+
+   // CPC.csv was saved from Excel on Windows ("Maté", "bakers’ wares")
+   private static final Charset CPC_CHARSET = Charset.forName("windows-1252");
+
+   // From CPC.csv: group code to descriptor, and class or sub-class code to descriptor
+   private final LinkedHashMap<String, String> groups = new LinkedHashMap<String, String>();
+   private final LinkedHashMap<String, String> cpcCodes = new LinkedHashMap<String, String>();
+
+   // From FoodLoss.csv, in the order first seen
+   private final LinkedHashMap<String, String> countries = new LinkedHashMap<String, String>();
+   // "m49 code \t region name" to the region's code
+   private final HashMap<String, String> regionCodes = new HashMap<String, String>();
+   private final LinkedHashMap<String, String> regions = new LinkedHashMap<String, String>();
+   private final LinkedHashMap<String, String> commodities = new LinkedHashMap<String, String>();
+   // cpc codes used by FoodLoss.csv that CPC.csv does not list, to their descriptor and group
+   private final LinkedHashMap<String, String> extraCpcNames = new LinkedHashMap<String, String>();
+   private final LinkedHashMap<String, String> extraCpcGroups = new LinkedHashMap<String, String>();
+
+   // Passed from stage to stage; the runner makes each stage see what the ones it needs wrote
+   // The codes and number of events read, without the events, which are inserted as they are read
+   private FoodLossData data;
+   private String prefixHash;
+
+   private final IngestReport report = new IngestReport();
+
+   /**
+    * Drop and rebuild the food loss tables of database from the two CSV files.
+    */
+   public static IngestReport run(String database, String foodCsvFile, String cpcCsvFile) throws Exception {
+      return update(database, foodCsvFile, cpcCsvFile, true);
+   }
+
+   /**
+    * Bring the food loss tables of database up to date with FoodLoss.csv.
+    * <p>
+    * Only the rows appended since the last load are read and inserted, along with any
+    * country, region, commodity or cpc code they are the first to use. Every table is
+    * rebuilt instead if rebuild is true, the database has no watermark for the file,
+    * the start of the file has changed since (see IngestWatermark) or the event tables
+    * no longer hold the rows the watermark says were loaded.
+    * <p>
+    * An append stops at the last line break outside quotes if the file was changed in the
+    * last SETTLE_MS, so a row still being written is left for the next run rather than
+    * loaded cut short. Otherwise, and for a rebuild, the end of the file ends the last row.
+    */
+   public static IngestReport update(String database, String foodCsvFile, String cpcCsvFile, boolean rebuild) throws Exception {
+      long start = System.nanoTime();
+      FoodLossIngest ingest = new FoodLossIngest();
+      Connection connection = null;
+      FileChannel channel = null;
+      try {
+         connection = DriverManager.getConnection(database);
+         channel = FileChannel.open(Paths.get(foodCsvFile), StandardOpenOption.READ);
+         // Rows appended while this runs are left for the next run
+         long end = channel.size();
+
+         IngestWatermark watermark = IngestWatermark.read(connection, foodCsvFile);
+         String reason = null;
+         if (rebuild) {
+            reason = "rebuild requested";
+         } else if (watermark == null) {
+            reason = "no watermark for " + foodCsvFile;
+         } else if (!watermark.matches(channel)) {
+            reason = "the start of the file has changed since the load of " + watermark;
+         } else if (loadedEvents(connection) != watermark.events) {
+            reason = "the event tables do not hold the rows of " + watermark;
+         }
+
+         // A row still being written is left for the next run too, so it is not loaded cut short
+         long size = end;
+         if (reason == null && System.currentTimeMillis() - Files.getLastModifiedTime(Paths.get(foodCsvFile)).toMillis() < SETTLE_MS) {
+            size = recordsEnd(channel, watermark.bytes, end);
+         }
+         if (size < end) {
+            ingest.report.note("Left bytes " + size + " to " + end + " for the next run, as they do not end in a line break yet");
+         }
+
+         if (reason != null) {
+            ingest.report.note("Full rebuild: " + reason);
+            ingest.rebuild(connection, channel, size, foodCsvFile, cpcCsvFile, IngestWatermark.generation(connection) + 1);
+         } else if (size == watermark.bytes) {
+            ingest.report.note("Nothing new after " + watermark);
+         } else {
+            ingest.report.note("Appending bytes " + watermark.bytes + " to " + size + " after " + watermark);
+            ingest.append(connection, channel, watermark, size);
+         }
+      } finally {
+         if (channel != null) {
+            channel.close();
+         }
+         if (connection != null) {
+            connection.close();
+         }
+      }
+
+      System.out.println(String.format("Ingest of %s took %.3f s", foodCsvFile, (System.nanoTime() - start) / 1e9));
+      return ingest.report;
+   }
+
+   // Drop every table and load them from the first size bytes of the file
+   private void rebuild(Connection connection, FileChannel channel, long size, String foodCsvFile, String cpcCsvFile,
+                        long generation) throws Exception {
+      new IngestRunner("Rebuild")
+         .stage("read CPC.csv", () -> readCpc(cpcCsvFile))
+         .stage("hash FoodLoss.csv", () -> {
+            prefixHash = IngestWatermark.prefixHash(channel, size);
+            return 0;
+         })
+         // The load runs against a copy of the database (see DatabaseSwap), so the tables can be
+         // dropped before the file is read. SQLite has one writer at a time, so from here the
+         // stages that write run one after another
+         .stage("recreate tables", () -> recreateTables(connection))
+         .stage("events", () -> writeEvents(connection, channel, size, foodCsvFile), "read CPC.csv", "recreate tables")
+         .stage("countries and regions", () -> writeCountries(connection), "events")
+         .stage("cpc hierarchy", () -> writeCpc(connection), "countries and regions")
+         .stage("commodities", () -> writeCommodities(connection), "cpc hierarchy")
+         .stage("indexes and analyze", () -> indexes(connection), "commodities")
+         // No watermark if a query would scan a table, so the next run rebuilds
+         .stage("query plans", () -> PostLoad.checkPlans(connection), "indexes and analyze")
+         .stage("watermark", () -> {
+            new IngestWatermark(foodCsvFile, size, prefixHash, data.events, generation).save(connection);
+            return 1;
+         }, "query plans", "hash FoodLoss.csv")
+         .run();
+   }
+
+   // Insert the rows from the watermark to size, and the watermark after them, in one transaction
+   private void append(Connection connection, FileChannel channel, IngestWatermark watermark, long size) throws Exception {
+      int[] loaded = new int[3];
+      new IngestRunner("Append")
+         .stage("load dimensions", () -> {
+            long rows = loadDimensions(connection);
+            loaded[0] = countries.size();
+            loaded[1] = regions.size();
+            loaded[2] = commodities.size();
+            return rows;
+         })
+         .stage("hash FoodLoss.csv", () -> {
+            prefixHash = IngestWatermark.prefixHash(channel, size);
+            return 0;
+         })
+         // The transaction is left open for the watermark, which needs the hash. If the hash fails
+         // it is rolled back when the connection closes
+         .stage("insert", () -> insertAppended(connection, channel, watermark, size, loaded), "load dimensions")
+         .stage("watermark", () -> {
+            try {
+               new IngestWatermark(watermark.source, size, prefixHash, watermark.events + data.events, watermark.generation).save(connection);
+               connection.commit();
+            } catch (Exception e) {
+               connection.rollback();
+               throw e;
+            } finally {
+               connection.setAutoCommit(true);
+            }
+            return 1;
+         }, "insert", "hash FoodLoss.csv")
+         .stage("indexes and analyze", () -> indexes(connection), "watermark")
+         .stage("query plans", () -> PostLoad.checkPlans(connection), "indexes and analyze")
+         .run();
+   }
+
+   // Build the indexes the queries need, if missing, and refresh the planner's statistics
+   private long indexes(Connection connection) throws Exception {
+      long indexes = PostLoad.createIndexes(connection);
+      PostLoad.analyze(connection);
+      report.note(indexes + " indexes built and analyzed");
+      return indexes;
+   }
+
+   // Begin the transaction of an append and insert its events and new dimension rows; the watermark stage commits
+   private long insertAppended(Connection connection, FileChannel channel, IngestWatermark watermark, long size, int[] loaded)
+         throws Exception {
+      long rows = 0;
+      connection.setAutoCommit(false);
+      try {
+         rows += readEvents(connection, channel, watermark.bytes, size, null);
+         rows += insertPairs(connection, "Country", "INSERT INTO Country (m49_code, country_name) VALUES (?, ?)", countries, loaded[0]);
+         rows += insertPairs(connection, "Region", "INSERT INTO Region (m49_code, region_name) VALUES (?, ?)", regions, loaded[1]);
+         rows += insertPairs(connection, "Commodity", "INSERT INTO Commodity (cpc_code, commodityName) VALUES (?, ?)", commodities, loaded[2]);
+
+         PreparedStatement insert = connection.prepareStatement("INSERT INTO CPC (cpc_code, descriptor, groupID) VALUES (?, ?, ?)");
+         for (Map.Entry<String, String> cpc : extraCpcNames.entrySet()) {
+            insert.setString(1, cpc.getKey());
+            insert.setString(2, cpc.getValue());
+            insert.setString(3, extraCpcGroups.get(cpc.getKey()));
+            insert.addBatch();
+         }
+         insert.executeBatch();
+         insert.close();
+         report.loaded("CPC", extraCpcNames.size());
+         rows += extraCpcNames.size();
+      } catch (Exception e) {
+         connection.rollback();
+         connection.setAutoCommit(true);
+         throw e;
+      }
+      return rows;
+   }
+
+   // Fill the maps from the tables already loaded, so appended rows resolve against them
+   private long loadDimensions(Connection connection) throws Exception {
+      Statement statement = connection.createStatement();
+      try {
+         ResultSet result = statement.executeQuery("SELECT m49_code, country_name FROM Country ORDER BY rowid");
+         while (result.next()) {
+            countries.put(result.getString(1), result.getString(2));
+         }
+         result = statement.executeQuery("SELECT m49_code, region_name FROM Region ORDER BY rowid");
+         while (result.next()) {
+            String code = result.getString(1);
+            int dot = code.lastIndexOf('.');
+            regionCodes.put((dot < 0 ? code : code.substring(0, dot)) + "\t" + result.getString(2), code);
+            regions.put(code, result.getString(2));
+         }
+         result = statement.executeQuery("SELECT groupID, descriptor FROM CommodityGroup");
+         while (result.next()) {
+            groups.put(result.getString(1), result.getString(2));
+         }
+         result = statement.executeQuery("SELECT cpc_code, descriptor FROM CPC");
+         while (result.next()) {
+            cpcCodes.put(result.getString(1), result.getString(2));
+         }
+         result = statement.executeQuery("SELECT cpc_code, commodityName FROM Commodity ORDER BY rowid");
+         while (result.next()) {
+            commodities.put(result.getString(1), result.getString(2));
+         }
+         return countries.size() + regions.size() + groups.size() + cpcCodes.size() + commodities.size();
+      } finally {
+         statement.close();
+      }
+   }
+
+   // Insert the entries of map after the first skip as (key, value) rows
+   private int insertPairs(Connection connection, String table, String sql, LinkedHashMap<String, String> map, int skip)
+         throws Exception {
+      PreparedStatement insert = connection.prepareStatement(sql);
+      try {
+         int index = 0;
+         for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (index++ >= skip) {
+               insert.setString(1, entry.getKey());
+               insert.setString(2, entry.getValue());
+               insert.addBatch();
+            }
+         }
+         insert.executeBatch();
+         report.loaded(table, map.size() - skip);
+         return map.size() - skip;
+      } finally {
+         insert.close();
+      }
+   }
+
+   // Rows in the event tables, or -1 if they are missing
+   private static long loadedEvents(Connection connection) {
+      try {
+         Statement statement = connection.createStatement();
+         try {
+            ResultSet result = statement.executeQuery(
+               "SELECT (SELECT COUNT(*) FROM CountryLossEvent) + (SELECT COUNT(*) FROM RegionLossEvent)");
+            return result.next() ? result.getLong(1) : -1;
+         } finally {
+            statement.close();
+         }
+      } catch (SQLException e) {
+         return -1;
+      }
+   }
+
+   /**
+    * The offset just after the last line break outside quotes in bytes from to to of a
+    * FoodLoss.csv file, or from if there is none; from must be at the start of a record.
+    * Everything before it is whole records.
+    */
+   static long recordsEnd(FileChannel channel, long from, long to) throws Exception {
+      long end = from;
+      boolean inQuotes = false;
+      long position = from;
+      while (position < to) {
+         MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MappedCsvReader.WINDOW, to - position));
+         for (int i = 0; i < bytes.limit(); i++) {
+            byte b = bytes.get(i);
+            if (b == '"') {
+               inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+               end = position + i + 1;
+            }
+         }
+         position += bytes.limit();
+      }
+      return end;
+   }
+
+   /**
+    * Read the events in bytes start to end of a FoodLoss.csv file, skipping the header if
+    * start is 0, and pass each one to events. Rows appended to the file are whole lines, so
+    * start is at the beginning of a record. The lines before start are counted so rejected
+    * records name their line in the file.
+    */
+   static FoodLossData read(FileChannel channel, long start, long end, ParallelCsv.Events events) throws Exception {
+      FoodLossData data = new FoodLossData();
+      long line = start == 0 ? 1 : 1 + MappedCsvReader.lines(channel, 0, start);
+      MappedCsvReader reader = new MappedCsvReader(channel, start, end, line, new StringDictionary());
+      if (start == 0) {
+         reader.next();
+      }
+      while (reader.next()) {
+         LossEvent event = data.read(reader);
+         if (event != null) {
+            events.add(event);
+         }
+      }
+      return data;
+   }
+
+   // Read the events in bytes start to end of FoodLoss.csv, in parallel if file is given (start
+   // must then be 0), resolving each one and inserting it as soon as it is read
+   private long readEvents(Connection connection, FileChannel channel, long start, long end, String file) throws Exception {
+      EventWriter writer = new EventWriter(connection);
+      try {
+         data = file != null ? ParallelCsv.read(file, end, writer) : read(channel, start, end, writer);
+         writer.finish();
+      } finally {
+         writer.close();
+      }
+      for (String rejected : data.rejected) {
+         report.unmatched("Rejected records", rejected);
+      }
+      return data.events;
+   }
+
+   /**
+    * Drop the food loss tables and create them empty.
+    */
+   static long recreateTables(Connection connection) throws Exception {
+      Statement statement = connection.createStatement();
+      try {
+         for (String table : TABLES) {
+            statement.execute("DROP TABLE IF EXISTS " + table);
+         }
+         for (String query : CREATE_TABLES) {
+            statement.execute(query);
+         }
+         return TABLES.length;
+      } finally {
+         statement.close();
+      }
+   }
+
+   // Load the commodity groups and the class and sub-class codes of CPC.csv
+   long readCpc(String cpcCsvFile) throws Exception {
+      // CPC.csv is not UTF-8, so it is decoded as text rather than read with MappedCsvReader
+      CsvReader reader = new CsvReader(new InputStreamReader(new FileInputStream(cpcCsvFile), CPC_CHARSET));
+      try {
+         long rows = 0;
+         reader.next();
+         while (reader.next()) {
+            rows++;
+            String group = reader.get(ClassFields.GROUP_SECTION_DIVISION);
+            String cpcClass = reader.get(ClassFields.CLASS);
+            String cpcSubClass = reader.get(ClassFields.SUBCLASS);
+            String description = reader.get(ClassFields.DESCRIPTION);
+
+            // Sections and divisions ("Section 0 ...", "Division 01") are above the groups and not kept
+            if (isGroupCode(group)) {
+               groups.put(group, description);
+            }
+            String code = !cpcClass.equals("") ? cpcClass : cpcSubClass;
+            if (!code.equals("")) {
+               cpcCodes.putIfAbsent(code, description);
+            }
+         }
+         return rows;
+      } finally {
+         reader.close();
+      }
+   }
+
+   // Resolve the country, region and cpc code of an event, noting whatever does not match
+   private void resolve(LossEvent event) {
+      if (event.m49Code.equals("")) {
+         report.unmatched("Events without an m49 code", event.countryName + " " + event.cpcCode + " " + event.year);
+      }
+      String name = countries.putIfAbsent(event.m49Code, event.countryName);
+      if (name != null && !name.equals(event.countryName)) {
+         report.unmatched("m49 codes with more than one country name", event.m49Code + " " + name + " / " + event.countryName);
+      }
+
+      if (!event.regionName.equals("")) {
+         regionCode(event);
+      }
+
+      commodities.putIfAbsent(event.cpcCode, event.commodity);
+      if (!cpcCodes.containsKey(event.cpcCode)) {
+         resolveMissingCpc(event);
+      }
+   }
+
+   // The code of the event's region, making one up for a (country, region) pair not seen before
+   private String regionCode(LossEvent event) {
+      String key = event.m49Code + "\t" + event.regionName;
+      String code = regionCodes.get(key);
+      if (code == null) {
+         code = event.m49Code + "." + (regionCodes.size() + 1);
+         regionCodes.put(key, code);
+         regions.put(code, event.regionName);
+      }
+      return code;
+   }
+
+   // A cpc code CPC.csv does not list: file it under its class, or at least its group
+   private void resolveMissingCpc(LossEvent event) {
+      String code = event.cpcCode;
+      String cpcClass = code.length() > ClassFields.CLASS_LENGTH ? code.substring(0, ClassFields.CLASS_LENGTH) : null;
+      String group = code.length() >= GROUP_LENGTH ? code.substring(0, GROUP_LENGTH) : null;
+
+      if (cpcClass != null && cpcCodes.containsKey(cpcClass)) {
+         report.unmatched("cpc codes not in CPC.csv, filed under their class",
+                          code + " " + event.commodity + " -> " + cpcClass + " " + cpcCodes.get(cpcClass));
+      } else if (group != null && groups.containsKey(group)) {
+         report.unmatched("cpc codes not in CPC.csv, filed under their group",
+                          code + " " + event.commodity + " -> " + group + " " + groups.get(group));
+      } else {
+         report.unmatched("cpc codes with no commodity group", code + " " + event.commodity);
+         group = null;
+      }
+      extraCpcNames.putIfAbsent(code, event.commodity);
+      extraCpcGroups.putIfAbsent(code, group);
+   }
+
+   // Each table is written in its own transaction (see BulkLoad)
+   private long writeCountries(Connection connection) throws Exception {
+      return loadPairs(connection, "Country", "INSERT INTO Country (m49_code, country_name) VALUES (?, ?)", countries)
+           + loadPairs(connection, "Region", "INSERT INTO Region (m49_code, region_name) VALUES (?, ?)", regions);
+   }
+
+   private long writeCpc(Connection connection) throws Exception {
+      long rows = loadPairs(connection, "CommodityGroup", "INSERT INTO CommodityGroup (groupID, descriptor) VALUES (?, ?)", groups);
+
+      BulkLoad load = new BulkLoad(connection, "CPC", "INSERT INTO CPC (cpc_code, descriptor, groupID) VALUES (?, ?, ?)");
+      try {
+         for (Map.Entry<String, String> cpc : cpcCodes.entrySet()) {
+            String group = cpc.getKey().substring(0, Math.min(GROUP_LENGTH, cpc.getKey().length()));
+            load.row().setString(1, cpc.getKey());
+            load.row().setString(2, cpc.getValue());
+            load.row().setString(3, groups.containsKey(group) ? group : null);
+            load.add();
+         }
+         for (Map.Entry<String, String> cpc : extraCpcNames.entrySet()) {
+            load.row().setString(1, cpc.getKey());
+            load.row().setString(2, cpc.getValue());
+            load.row().setString(3, extraCpcGroups.get(cpc.getKey()));
+            load.add();
+         }
+         finish(load);
+         return rows + load.rows();
+      } finally {
+         load.close();
+      }
+   }
+
+   private long writeCommodities(Connection connection) throws Exception {
+      return loadPairs(connection, "Commodity", "INSERT INTO Commodity (cpc_code, commodityName) VALUES (?, ?)", commodities);
+   }
+
+   // Read every event of the first size bytes of FoodLoss.csv into the event tables, in one transaction
+   private long writeEvents(Connection connection, FileChannel channel, long size, String foodCsvFile) throws Exception {
+      connection.setAutoCommit(false);
+      try {
+         long events = readEvents(connection, channel, 0, size, FoodProcessCSV.PARALLEL ? foodCsvFile : null);
+         connection.commit();
+         return events;
+      } catch (Exception e) {
+         connection.rollback();
+         throw e;
+      } finally {
+         connection.setAutoCommit(true);
+      }
+   }
+
+   // Load every entry of map as a (key, value) row of table
+   private int loadPairs(Connection connection, String table, String sql, LinkedHashMap<String, String> map) throws Exception {
+      BulkLoad load = new BulkLoad(connection, table, sql);
+      try {
+         for (Map.Entry<String, String> entry : map.entrySet()) {
+            load.row().setString(1, entry.getKey());
+            load.row().setString(2, entry.getValue());
+            load.add();
+         }
+         finish(load);
+         return load.rows();
+      } finally {
+         load.close();
+      }
+   }
+
+   private void setEvent(PreparedStatement insert, LossEvent event, boolean regional) throws SQLException {
+      insert.setString(1, regional ? regionCodes.get(event.m49Code + "\t" + event.regionName) : event.m49Code);
+      insert.setString(2, event.cpcCode);
+      insert.setInt(3, event.year);
+      insert.setDouble(4, event.lossPercentage);
+      insert.setString(5, event.activity);
+      insert.setString(6, event.foodSupplyStage);
+      insert.setString(7, event.causeOfLoss);
+   }
+
+   /**
+    * Resolves each event as it is read and inserts it into CountryLossEvent or
+    * RegionLossEvent, in batches of BulkLoad.BATCH_SIZE, in the transaction already begun.
+    */
+   private class EventWriter implements ParallelCsv.Events, AutoCloseable {
+
+      private final String[] tables = { "CountryLossEvent", "RegionLossEvent" };
+      private final PreparedStatement[] inserts = new PreparedStatement[2];
+      private final int[] rows = new int[2];
+      private final int[] batched = new int[2];
+
+      EventWriter(Connection connection) throws SQLException {
+         for (int table = 0; table < 2; table++) {
+            inserts[table] = connection.prepareStatement("INSERT INTO " + tables[table] + " " + EVENT_COLUMNS);
+         }
+      }
+
+      @Override
+      public void add(LossEvent event) throws Exception {
+         resolve(event);
+         int table = event.regionName.equals("") ? 0 : 1;
+         setEvent(inserts[table], event, table == 1);
+         inserts[table].addBatch();
+         rows[table]++;
+         if (++batched[table] == BulkLoad.BATCH_SIZE) {
+            inserts[table].executeBatch();
+            batched[table] = 0;
+         }
+      }
+
+      // Send the last batches and note the rows loaded
+      void finish() throws SQLException {
+         for (int table = 0; table < 2; table++) {
+            if (batched[table] > 0) {
+               inserts[table].executeBatch();
+               batched[table] = 0;
+            }
+            report.loaded(tables[table], rows[table]);
+         }
+      }
+
+      @Override
+      public void close() throws SQLException {
+         for (PreparedStatement insert : inserts) {
+            insert.close();
+         }
+      }
+   }
+
+   private void finish(BulkLoad load) throws Exception {
+      load.finish();
+      report.loaded(load.table(), load.rows());
+   }
+
+   private static boolean isGroupCode(String code) {
+      if (code.length() != GROUP_LENGTH) {
+         return false;
+      }
+      for (int i = 0; i < code.length(); i++) {
+         if (!Character.isDigit(code.charAt(i))) {
+            return false;
+         }
+      }
+      return true;
+   }
+}
@@ -1,8 +1,9 @@
 package helper;
 
-import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.PrintWriter;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -25,8 +26,16 @@ import java.sql.Statement;
  * <p>
  * This assumes that the CSV files are in the **database** folder.
  * <p>
- * WARNING: This code may take quite a while to run as there could be a lot
- * of SQL insert statments and queries to run!
+ * The loads run in bulk (see BulkLoad): one transaction and batched inserts per
+ * table, with the time and rows per second printed for each.
+ * <p>
+ * WARNING: checkCountryAndClassCodesMatch() may take quite a while to run as it
+ * runs a lookup query for every row! Run with -Dingest.all=true instead to build
+ * every table the web server reads in one pass over FoodLoss.csv, with the codes
+ * that do not match listed in a report rather than stopping the load (see FoodLossIngest).
+ * That load runs against a copy of the database which is swapped in once it is complete,
+ * so a running web server keeps reading the old tables until then (see DatabaseSwap).
+ * IngestRunner runs the same load without asking anything, for scheduled reloads.
  *
  * @author Timothy Wiley, 2023. email: timothy.wiley@rmit.edu.au
  * @author Halil Ali, 2024. email: halil.ali@rmit.edu.au
@@ -41,7 +50,29 @@ public class FoodProcessCSV {
    private static final int START_YEAR = 1966;
    private static final int END_YEAR = 2025;
 
+   // Run with -Dingest.parallel=true to read FoodLoss.csv once, on every core (see ParallelCsv)
+   static final boolean PARALLEL = Boolean.getBoolean("ingest.parallel");
+
+   // Run with -Dingest.all=true to build every table the web server uses in one pass (see FoodLossIngest)
+   // Only the rows appended to FoodLoss.csv since the last run are loaded, unless -Dingest.rebuild=true
+   private static final boolean INGEST_ALL = Boolean.getBoolean("ingest.all");
+   private static final boolean REBUILD = Boolean.getBoolean("ingest.rebuild");
+   private static final String REPORT_FILE = "database/ingest_report.txt";
+
    public static void main (String[] args) {
+
+      if (INGEST_ALL) {
+         confirmDrop();
+         try {
+            IngestReport report = DatabaseSwap.update(DATABASE, FOOD_CSV_FILE, CPC_CSV_FILE, REBUILD);
+            report.print(new PrintWriter(System.out));
+            report.write(REPORT_FILE);
+            System.out.println("\n" + report.unmatchedCount() + " unmatched codes and records, report written to " + REPORT_FILE);
+         } catch (Exception e) {
+            e.printStackTrace();
+         }
+         return;
+      }
       
       // Drops the date, country and class tables then recreates them
       // This only needs to be done once (unless your tables need to be updated and recreated)
@@ -65,6 +96,20 @@ public class FoodProcessCSV {
        loadCpcClass();
 
 
+      if (PARALLEL) {
+         // Read FoodLoss.csv once and load the Country table and check the codes from what was read
+         FoodLossData data = null;
+         try {
+            data = ParallelCsv.read(FOOD_CSV_FILE);
+         } catch (Exception e) {
+            e.printStackTrace();
+            return;
+         }
+         loadCountries(data);
+         checkCountryAndClassCodesMatch(data);
+         return;
+      }
+
       // Load up the Country table
       // This only needs to be done once
       // Comment this out after runnning it the first time
@@ -85,20 +130,8 @@ public class FoodProcessCSV {
       public static void dropTablesAndRecreateTables() {
       // JDBC Database Object
       Connection connection = null;
-      Scanner s = new Scanner(System.in);
-      String response = null;
 
-      System.out.println("\nWARNING: existing tables will be dropped and recreated\nAre you sure? (y/n)");
-      response = s.nextLine();
-      while(!response.equalsIgnoreCase("y") && !response.equalsIgnoreCase("n"))
-      {
-         response = s.nextLine();
-      }
-      if(response.equalsIgnoreCase("n")){
-         System.out.println("aborting");
-         System.out.println("Comment out 'dropTablesAndRecreateTables();' to avoid deleting tables and run again");
-         System.exit(0);
-      }
+      confirmDrop();
       // Like JDBCConnection, we need some error handling.
       try {
          connection = DriverManager.getConnection(DATABASE);
@@ -139,7 +172,7 @@ public class FoodProcessCSV {
                   "      PRIMARY KEY (year)" + "\n" +
                   ")";
          System.out.println("Executing: \n" + query);
-         
+         statement.execute(query);
 
          query =  "CREATE TABLE Class (" + "\n" +
                   "      classNo           TEXT NOT NULL," + "\n" +
@@ -156,33 +189,49 @@ public class FoodProcessCSV {
       }
    }
 
+   // Asks before any tables are dropped, and exits if the answer is no
+   private static void confirmDrop() {
+      Scanner s = new Scanner(System.in);
+      String response = null;
+
+      System.out.println("\nWARNING: existing tables will be dropped and recreated\nAre you sure? (y/n)");
+      response = s.nextLine();
+      while(!response.equalsIgnoreCase("y") && !response.equalsIgnoreCase("n"))
+      {
+         response = s.nextLine();
+      }
+      if(response.equalsIgnoreCase("n")){
+         System.out.println("aborting");
+         System.out.println("Comment out 'dropTablesAndRecreateTables();' to avoid deleting tables and run again");
+         System.exit(0);
+      }
+   }
+
    public static void loadYears() {
       // JDBC Database Object
       Connection connection = null;
+      BulkLoad load = null;
 
       // Like JDBCConnection, we need some error handling.
       try {
          connection = DriverManager.getConnection(DATABASE);
 
+         // One transaction for the whole table (see BulkLoad)
+         load = new BulkLoad(connection, "Date", "INSERT into Date VALUES (?)");
          for (int i = START_YEAR; i != END_YEAR; ++i) {
-            // Prepare a new SQL Query & Set a timeout
-            Statement statement = connection.createStatement();
-
-            // Create Insert Statement
-            String query = "INSERT into Date VALUES ("
-                           + i
-                           + ")";
-
-            // Execute the INSERT
-            System.out.println("Executing: \n" + query);
-            statement.execute(query);
+            load.row().setInt(1, i);
+            load.add();
          }
+         load.finish();
          System.out.println("\ninserted all years\npress enter to continue");
          System.in.read();
 
       } catch (Exception e) {
          e.printStackTrace();
       }
+      finally {
+         close(load, connection);
+      }
    }
 
    // loads all the 'Class' level codes into class table
@@ -191,51 +240,49 @@ public class FoodProcessCSV {
    public static void loadCpcClass() {
       // JDBC Database Object
       Connection connection = null;
-      PreparedStatement statement = null;
-      BufferedReader reader = null;
-      String line;
+      BulkLoad load = null;
+      CsvReader reader = null;
 
       // We need some error handling.
       try {
          // Open A CSV File to process, one line at a time
          // CHANGE THIS to process a different file
-         reader = new BufferedReader(new FileReader(CPC_CSV_FILE));
+         // CPC.csv is not UTF-8, so it is read as text rather than with MappedCsvReader
+         reader = new CsvReader(new FileReader(CPC_CSV_FILE));
 
          // Read the first line of "headings"
-         String header = reader.readLine();
+         reader.next();
+         String header = reader.toString();
          System.out.println("Heading row\n" + header + "\n");
 
          // Setup JDBC
          // Connect to JDBC database
          connection = DriverManager.getConnection(DATABASE);
 
+         // One transaction for the whole table (see BulkLoad)
+         load = new BulkLoad(connection, "Class", "INSERT INTO Class (classNo, className) VALUES (?, ?)");
+
          //read CSV file line by line, stop if not more lines
-         while ((line = reader.readLine())!=null) {
+         while (reader.next()) {
             //System.out.println(row);
-            // split the line up by commas (ignoring commas within quoted fields)
-            String[] splitline = line.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
 
-            // Get all of the columns in order (and remove double quuotes)
-            // Note you will need to do the same in the FoodLoss.csv to match
-            String cpcGroupSectionDivision = (splitline[ClassFields.GROUP_SECTION_DIVISION]).replaceAll("^\"|\"$", "");
-            String cpcClass = (splitline[ClassFields.CLASS]).replaceAll("^\"|\"$", "");
-            String cpcSubClass = (splitline[ClassFields.SUBCLASS]).replaceAll("^\"|\"$", "");
-            String cpcDescription = (splitline[ClassFields.DESCRIPTION]).replaceAll("^\"|\"$", "");
+            // Get all of the columns in order (CsvReader removes the double quotes)
+            String cpcGroupSectionDivision = reader.get(ClassFields.GROUP_SECTION_DIVISION);
+            String cpcClass = reader.get(ClassFields.CLASS);
+            String cpcSubClass = reader.get(ClassFields.SUBCLASS);
+            String cpcDescription = reader.get(ClassFields.DESCRIPTION);
 
             // only dealing with cpc codes at the class level
             // you will need to update code to also insert sub classes and sub classes (and division/section/group)
             // insert if record has a class code but no sub class code (its a class only)
             if(!cpcClass.equals("") && cpcSubClass.equals(""))
             {
-                  // Create Insert Statement
-               String myStatement = " INSERT INTO Class (classNo, className) VALUES (?, ?)";
-               statement= connection.prepareStatement(myStatement );
-               statement.setString(1, cpcClass);
-               statement.setString(2, cpcDescription);
-               System.out.println(statement.toString());
-               statement.executeUpdate();
+               load.row().setString(1, cpcClass);
+               load.row().setString(2, cpcDescription);
+               load.add();
             }
          }
+         load.finish();
          System.out.println("\ninserted all class level cpc code\npress enter to continue");
          System.in.read();
 
@@ -250,66 +297,63 @@ public class FoodProcessCSV {
                e.printStackTrace();
             }
          }
+         close(load, connection);
       }
    }
 
    public static void loadCountries() {
       // JDBC Database Object
       Connection connection = null;
-      PreparedStatement statement = null;
+      BulkLoad load = null;
       HashMap<String, String> countries = new HashMap<String, String>();
-      BufferedReader reader = null;
-      String line;
+      MappedCsvReader reader = null;
 
       // We need some error handling.
       try {
-         // Open A CSV File to process, one line at a time
+         // Open A CSV File to process, one line at a time (mapped and read as bytes, see MappedCsvReader)
          // CHANGE THIS to process a different file
-         reader = new BufferedReader(new FileReader(FOOD_CSV_FILE));
+         reader = MappedCsvReader.open(FOOD_CSV_FILE);
 
          // Read the first line of "headings"
-         String header = reader.readLine();
+         reader.next();
+         String header = reader.toString();
          System.out.println("Heading row" + header + "\n");
 
          // Setup JDBC
          // Connect to JDBC database
          connection = DriverManager.getConnection(DATABASE);
 
-         //read CSV file line by line, stop if not more lines
-         while ((line = reader.readLine())!=null) {
+         // One transaction for the whole table (see BulkLoad)
+         load = new BulkLoad(connection, "Country", "INSERT INTO Country (m49Code, countryName) VALUES (?, ?)");
 
-            // split the line up by commas (ignoring commas within quoted fields)
-            String[] splitline = line.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
+         //read CSV file line by line, stop if not more lines
+         while (reader.next()) {
 
             // Get all of the columns in order
-            String m49Code = splitline[CountryFields.M49CODE];
-            String countryName = splitline[CountryFields.COUNTRYNAME];
+            String m49Code = reader.get(CountryFields.M49CODE);
+            String countryName = reader.get(CountryFields.COUNTRYNAME);
 
             // Note: the rest of the attributes are not used, but you can copy this method 
             // and modify to load appropriate attributes into your other tables using insert statements
 
-            // String regionName = splitline[CountryFields.REGIONAME];
-            // String cpcCode = splitline[CountryFields.CPCCODE];
-            // // remove double quotes from commodity
-            // String commodity = splitline[CountryFields.COMMODITY].replaceAll("^\"|\"$", "");
-            // String year = splitline[CountryFields.YEAR];
-            // String lossPercentage = splitline[CountryFields.LOSSPERCENT];
-            // String activity = splitline[CountryFields.ACTIVITY];
-            // String foodSupplyStage = splitline[CountryFields.SUPPLYSTAGE];
-            // String causeOfLoss = splitline[CountryFields.LOSSCAUSE];
+            // String regionName = reader.get(CountryFields.REGIONAME);
+            // String cpcCode = reader.get(CountryFields.CPCCODE);
+            // String commodity = reader.get(CountryFields.COMMODITY);
+            // int year = reader.getInt(CountryFields.YEAR);
+            // double lossPercentage = reader.getDouble(CountryFields.LOSSPERCENT);
+            // String activity = reader.get(CountryFields.ACTIVITY);
+            // String foodSupplyStage = reader.get(CountryFields.SUPPLYSTAGE);
+            // String causeOfLoss = reader.get(CountryFields.LOSSCAUSE);
 
             // check that the country code does not already exists by trying to insert into a hashmap data structure
             if(countries.put(m49Code, countryName) == null){
                //doesn't exists - insert it
-               // Create Insert Statement
-               String myStatement = " INSERT INTO Country (m49Code, countryName) VALUES (?, ?)";
-               statement= connection.prepareStatement(myStatement );
-               statement.setString(1, m49Code);
-               statement.setString(2, countryName);
-               System.out.println(statement.toString());
-               statement.executeUpdate();
+               load.row().setString(1, m49Code);
+               load.row().setString(2, countryName);
+               load.add();
             }
          }
+         load.finish();
          System.out.println("\ninserted all countries\npress enter to continue");
          System.in.read();
 
@@ -324,6 +368,48 @@ public class FoodProcessCSV {
                e.printStackTrace();
             }
          }
+         close(load, connection);
+      }
+   }
+
+   // Load up the Country table from FoodLoss.csv data already read, in the order the codes appear
+   public static void loadCountries(FoodLossData data) {
+      Connection connection = null;
+      BulkLoad load = null;
+
+      try {
+         connection = DriverManager.getConnection(DATABASE);
+
+         // One transaction for the whole table (see BulkLoad)
+         load = new BulkLoad(connection, "Country", "INSERT INTO Country (m49Code, countryName) VALUES (?, ?)");
+         for (Map.Entry<String, String> country : data.countries.entrySet()) {
+            load.row().setString(1, country.getKey());
+            load.row().setString(2, country.getValue());
+            load.add();
+         }
+         load.finish();
+         System.out.println("\ninserted all countries\npress enter to continue");
+         System.in.read();
+
+      } catch (Exception e) {
+         e.printStackTrace();
+      }
+      finally {
+         close(load, connection);
+      }
+   }
+
+   // Ends a load (rolling it back if it did not finish) and closes the connection
+   private static void close(BulkLoad load, Connection connection) {
+      try {
+         if (load != null) {
+            load.close();
+         }
+         if (connection != null) {
+            connection.close();
+         }
+      } catch (Exception e) {
+         e.printStackTrace();
       }
    }
 
@@ -332,22 +418,22 @@ public class FoodProcessCSV {
       // JDBC Database Object
       Connection connection = null;
       Statement statement = null;
-      BufferedReader reader = null;
-      String line;
+      MappedCsvReader reader = null;
       String query = "";
       int row = 1;
 
       // We need some error handling.
       try {
-         // Open A CSV File to process, one line at a time
+         // Open A CSV File to process, one line at a time (mapped and read as bytes, see MappedCsvReader)
          // CHANGE THIS to process a different file
-         reader = new BufferedReader(new FileReader(FOOD_CSV_FILE));
+         reader = MappedCsvReader.open(FOOD_CSV_FILE);
 
          System.out.println("begining check of country and 'class' level cpc code\nthis will take some time\npress enter to continue");
          System.in.read();
 
          // Read the first line of "headings"
-         String header = reader.readLine();
+         reader.next();
+         String header = reader.toString();
          System.out.println("Heading row" + header + "\n");
 
          // Setup JDBC
@@ -355,27 +441,23 @@ public class FoodProcessCSV {
          connection = DriverManager.getConnection(DATABASE);
 
          //read CSV file line by line, stop if not more lines
-         while ((line = reader.readLine())!=null) {
+         while (reader.next()) {
             //System.out.println(row);
 
-            // split the line up by commas (ignoring commas within quoted fields)
-            String[] splitline = line.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-
            // Get all of the columns in order
-           String m49Code = splitline[CountryFields.M49CODE];
-           String countryName = splitline[CountryFields.COUNTRYNAME];
+           String m49Code = reader.get(CountryFields.M49CODE);
+           String countryName = reader.get(CountryFields.COUNTRYNAME);
 
            // Note: the rest of the attributes are not used, but you can copy this method 
            // and modify to do a lookup and then load appropriate attributes into your other tables
-           // String regionName = splitline[CountryFields.REGIONAME];
-           String cpcCode = splitline[CountryFields.CPCCODE];
-           // // remove double quotes from commodity
-           // String commodity = splitline[CountryFields.COMMODITY].replaceAll("^\"|\"$", "");
-           // String year = splitline[CountryFields.YEAR];
-           // String lossPercentage = splitline[CountryFields.LOSSPERCENT];
-           // String activity = splitline[CountryFields.ACTIVITY];
-           // String foodSupplyStage = splitline[CountryFields.SUPPLYSTAGE];
-           // String causeOfLoss = splitline[CountryFields.LOSSCAUSE];
+           // String regionName = reader.get(CountryFields.REGIONAME);
+           String cpcCode = reader.get(CountryFields.CPCCODE);
+           // String commodity = reader.get(CountryFields.COMMODITY);
+           // int year = reader.getInt(CountryFields.YEAR);
+           // double lossPercentage = reader.getDouble(CountryFields.LOSSPERCENT);
+           // String activity = reader.get(CountryFields.ACTIVITY);
+           // String foodSupplyStage = reader.get(CountryFields.SUPPLYSTAGE);
+           // String causeOfLoss = reader.get(CountryFields.LOSSCAUSE);
 
             statement = connection.createStatement();
             query =  "SELECT *" + "\n" + 
@@ -446,4 +528,48 @@ public class FoodProcessCSV {
          }
       }
    }
-}
\ No newline at end of file
+
+   // Check the codes in FoodLoss.csv data already read against the country and class tables.
+   // Each distinct code is looked up once, rather than once per row
+   public static void checkCountryAndClassCodesMatch(FoodLossData data) {
+      Connection connection = null;
+      String code = "";
+
+      try {
+         connection = DriverManager.getConnection(DATABASE);
+         PreparedStatement country = connection.prepareStatement("SELECT * FROM country WHERE m49Code = ?");
+         PreparedStatement cpcClass = connection.prepareStatement("SELECT * FROM Class WHERE ClassNo = ?");
+
+         for (String m49Code : data.countries.keySet()) {
+            code = m49Code;
+            country.setString(1, m49Code);
+            if (!country.executeQuery().next()) {
+               System.out.println("Country code " + m49Code + " not Found in country table!");
+               System.out.println("Double check that all the codes have been loaded into country");
+               System.out.println("You may need to run loadCountries() again");
+               return;
+            }
+         }
+         for (String cpcCode : data.cpcCodes) {
+            code = cpcCode;
+            if (cpcCode.length() <= ClassFields.CLASS_LENGTH) {
+               cpcClass.setString(1, cpcCode);
+               if (!cpcClass.executeQuery().next()) {
+                  System.out.println("Class level code " + cpcCode + " not found in class table!");
+                  System.out.println("Double check that all the class codes have been loaded into class");
+                  System.out.println("You may need to run loadCpcClass() again");
+                  return;
+               }
+            }
+         }
+
+         System.out.println("\nAll Country codes and 'Class' level cpc codes found in " + data.events + " records");
+      } catch (Exception e) {
+         e.printStackTrace();
+         System.out.println("Code being looked up when exception occured: " + code);
+      }
+      finally {
+         close(null, connection);
+      }
+   }
+}
@@ -0,0 +1,106 @@
+package helper;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What an ingest loaded, and every code or record it could not match.
+ * <p>
+ * Problems are grouped by kind ("cpc codes not in CPC.csv", "rejected records", ...) and
+ * each distinct problem is kept once with the number of rows it affected, so a code that
+ * is missing from a dimension table is listed once however many events use it. The load
+ * carries on past them; the report is printed at the end and written next to the database.
+ * Stages of an ingest that run at the same time (see IngestRunner) can add to it safely.
+ */
+public class IngestReport {
+
+   // What kind of load ran and why
+   private final List<String> notes = new ArrayList<String>();
+   // Rows loaded into each table, in load order
+   private final LinkedHashMap<String, Integer> rows = new LinkedHashMap<String, Integer>();
+   // Kind of problem to each problem and the number of rows it affected
+   private final LinkedHashMap<String, LinkedHashMap<String, Integer>> problems = new LinkedHashMap<String, LinkedHashMap<String, Integer>>();
+
+   public synchronized void note(String note) {
+      notes.add(note);
+   }
+
+   public synchronized void loaded(String table, int count) {
+      rows.put(table, count);
+   }
+
+   /**
+    * Note a row with a problem; the same problem seen again only adds to its count.
+    */
+   public synchronized void unmatched(String kind, String problem) {
+      problems.computeIfAbsent(kind, k -> new LinkedHashMap<String, Integer>()).merge(problem, 1, Integer::sum);
+   }
+
+   public int rows(String table) {
+      return rows.getOrDefault(table, 0);
+   }
+
+   /**
+    * Rows loaded into every table, 0 if the load found nothing new.
+    */
+   public synchronized int loadedRows() {
+      int count = 0;
+      for (int table : rows.values()) {
+         count += table;
+      }
+      return count;
+   }
+
+   /**
+    * Number of distinct problems of every kind.
+    */
+   public int unmatchedCount() {
+      int count = 0;
+      for (LinkedHashMap<String, Integer> kind : problems.values()) {
+         count += kind.size();
+      }
+      return count;
+   }
+
+   public void print(PrintWriter out) {
+      for (String note : notes) {
+         out.println(note);
+      }
+      out.println("Rows loaded:");
+      for (Map.Entry<String, Integer> table : rows.entrySet()) {
+         out.println(String.format("   %-18s %8d", table.getKey(), table.getValue()));
+      }
+      if (problems.isEmpty()) {
+         out.println("Every code matched");
+      }
+      for (Map.Entry<String, LinkedHashMap<String, Integer>> kind : problems.entrySet()) {
+         out.println(kind.getKey() + " (" + kind.getValue().size() + "):");
+         for (Map.Entry<String, Integer> problem : kind.getValue().entrySet()) {
+            out.println("   " + problem.getKey() + " (" + problem.getValue() + (problem.getValue() == 1 ? " row)" : " rows)"));
+         }
+      }
+      out.flush();
+   }
+
+   public void write(String file) throws IOException {
+      PrintWriter out = new PrintWriter(new FileWriter(file));
+      try {
+         print(out);
+      } finally {
+         out.close();
+      }
+   }
+
+   @Override
+   public String toString() {
+      StringWriter text = new StringWriter();
+      print(new PrintWriter(text));
+      return text.toString();
+   }
+}
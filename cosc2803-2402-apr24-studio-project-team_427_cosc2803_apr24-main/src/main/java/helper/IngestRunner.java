@@ -0,0 +1,213 @@
+package helper;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs an ingest as a graph of stages, and runs the ingest from the command line without
+ * asking anything, for scheduled reloads.
+ * <p>
+ * Each stage names the stages it needs. A stage starts as soon as those have finished,
+ * so stages that do not depend on each other (reading CPC.csv and reading FoodLoss.csv,
+ * say) run at the same time on a pool of THREADS threads. Stages that write to the
+ * database depend on each other, as SQLite allows one writer at a time. If a stage fails
+ * the stages after it are skipped and run() throws its exception.
+ * <p>
+ * Every stage returns the number of rows it handled, and once the graph has run the
+ * start, wall time and rows per second of each stage are printed. While it runs,
+ * progress() tells how far it has got. The stage threads have the priority of the
+ * thread that called run(), so an ingest started from a low priority thread (see
+ * app.DropWatcher) stays low priority.
+ * <pre>
+ *    java -cp ... helper.IngestRunner [--rebuild]
+ * </pre>
+ * loads database/FoodLoss.csv and database/CPC.csv into database/food_loss.db (see
+ * FoodLossIngest), or the files given by -Dingest.csv, -Dingest.cpc and -Dingest.database.
+ * The load is built in a copy of the database and swapped in when complete (see DatabaseSwap).
+ * The exit status is 0 if the load succeeded, with any unmatched codes listed in the
+ * report (see IngestReport), and 1 if it failed.
+ */
+public class IngestRunner {
+
+   public static final int THREADS = Math.max(2, Integer.getInteger("ingest.stageThreads", Runtime.getRuntime().availableProcessors()));
+
+   private static final String DATABASE = System.getProperty("ingest.database", "jdbc:sqlite:database/food_loss.db");
+   private static final String FOOD_CSV_FILE = System.getProperty("ingest.csv", "database/FoodLoss.csv");
+   private static final String CPC_CSV_FILE = System.getProperty("ingest.cpc", "database/CPC.csv");
+   private static final String REPORT_FILE = System.getProperty("ingest.report", "database/ingest_report.txt");
+
+   /**
+    * Work done by a stage, returning the number of rows it handled.
+    */
+   public interface Task {
+      long run() throws Exception;
+   }
+
+   private static class Stage {
+      final String name;
+      final Task task;
+      final String[] needs;
+      CompletableFuture<Void> done;
+      volatile long started;
+      volatile long finished;
+      long rows;
+
+      Stage(String name, Task task, String[] needs) {
+         this.name = name;
+         this.task = task;
+         this.needs = needs;
+      }
+   }
+
+   // The graph running now, for progress()
+   private static volatile IngestRunner running = null;
+
+   private final String name;
+   private final LinkedHashMap<String, Stage> stages = new LinkedHashMap<String, Stage>();
+
+   public IngestRunner(String name) {
+      this.name = name;
+   }
+
+   /**
+    * Add a stage that runs once the stages named in needs (already added) have finished.
+    */
+   public IngestRunner stage(String stage, Task task, String... needs) {
+      for (String need : needs) {
+         if (!stages.containsKey(need)) {
+            throw new IllegalArgumentException("Stage " + stage + " needs " + need + ", which has not been added");
+         }
+      }
+      if (stages.put(stage, new Stage(stage, task, needs)) != null) {
+         throw new IllegalArgumentException("Stage " + stage + " added twice");
+      }
+      return this;
+   }
+
+   /**
+    * Run every stage, waiting for them all, then print their timings.
+    */
+   public void run() throws Exception {
+      int priority = Thread.currentThread().getPriority();
+      ExecutorService pool = Executors.newFixedThreadPool(THREADS, runnable -> {
+         Thread thread = new Thread(runnable, "ingest-stage");
+         thread.setPriority(priority);
+         thread.setDaemon(true);
+         return thread;
+      });
+      long start = System.nanoTime();
+      running = this;
+      try {
+         // Stages can only need stages added before them, so this order starts needs first
+         for (Stage stage : stages.values()) {
+            CompletableFuture<?>[] needs = new CompletableFuture<?>[stage.needs.length];
+            for (int i = 0; i < needs.length; i++) {
+               needs[i] = stages.get(stage.needs[i]).done;
+            }
+            stage.done = CompletableFuture.allOf(needs).thenRunAsync(() -> {
+               stage.started = System.nanoTime();
+               try {
+                  stage.rows = stage.task.run();
+               } catch (Exception e) {
+                  throw new CompletionException(e);
+               } finally {
+                  stage.finished = System.nanoTime();
+               }
+            }, pool);
+         }
+
+         List<CompletableFuture<Void>> all = new ArrayList<CompletableFuture<Void>>();
+         for (Stage stage : stages.values()) {
+            all.add(stage.done);
+         }
+         try {
+            CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).join();
+         } catch (CompletionException e) {
+            // The first failure, rather than one of the stages skipped because of it
+            for (Stage stage : stages.values()) {
+               if (stage.done.isCompletedExceptionally() && stage.finished != 0) {
+                  Throwable cause = stage.done.handle((result, failure) -> failure).join();
+                  while (cause instanceof CompletionException && cause.getCause() != null) {
+                     cause = cause.getCause();
+                  }
+                  System.err.println("Stage " + stage.name + " of " + name + " failed: " + cause);
+                  if (cause instanceof Exception) {
+                     throw (Exception) cause;
+                  }
+                  throw e;
+               }
+            }
+            throw e;
+         }
+      } finally {
+         running = null;
+         pool.shutdown();
+         print(start);
+      }
+   }
+
+   /**
+    * How far the graph running now has got, such as "Rebuild: 6 of 12 stages done, running events",
+    * or null if none is running.
+    */
+   public static String progress() {
+      IngestRunner runner = running;
+      if (runner == null) {
+         return null;
+      }
+      int done = 0;
+      List<String> active = new ArrayList<String>();
+      for (Stage stage : runner.stages.values()) {
+         if (stage.finished != 0) {
+            done++;
+         } else if (stage.started != 0) {
+            active.add(stage.name);
+         }
+      }
+      return runner.name + ": " + done + " of " + runner.stages.size() + " stages done"
+             + (active.isEmpty() ? "" : ", running " + String.join(", ", active));
+   }
+
+   private void print(long start) {
+      System.out.println(String.format("%n%s stages (%d threads):", name, THREADS));
+      System.out.println(String.format("   %-28s %10s %10s %10s %12s", "stage", "start ms", "time ms", "rows", "rows/s"));
+      for (Stage stage : stages.values()) {
+         if (stage.started == 0) {
+            System.out.println(String.format("   %-28s %10s", stage.name, "skipped"));
+            continue;
+         }
+         double seconds = (stage.finished - stage.started) / 1e9;
+         if (stage.rows == 0) {
+            System.out.println(String.format("   %-28s %10.1f %10.1f %10s %12s", stage.name,
+                                             (stage.started - start) / 1e6, seconds * 1000, "-", "-"));
+            continue;
+         }
+         System.out.println(String.format("   %-28s %10.1f %10.1f %10d %12.0f", stage.name,
+                                          (stage.started - start) / 1e6, seconds * 1000, stage.rows,
+                                          seconds > 0 ? stage.rows / seconds : 0));
+      }
+      System.out.println(String.format("   %-28s %10s %10.1f", "total", "", (System.nanoTime() - start) / 1e6));
+   }
+
+   public static void main(String[] args) {
+      boolean rebuild = Arrays.asList(args).contains("--rebuild");
+      int status = 0;
+      try {
+         IngestReport report = DatabaseSwap.update(DATABASE, FOOD_CSV_FILE, CPC_CSV_FILE, rebuild);
+         report.print(new PrintWriter(System.out));
+         report.write(REPORT_FILE);
+         System.out.println("\n" + report.unmatchedCount() + " unmatched codes and records, report written to " + REPORT_FILE);
+      } catch (Exception e) {
+         e.printStackTrace();
+         status = 1;
+      }
+      System.exit(status);
+   }
+}
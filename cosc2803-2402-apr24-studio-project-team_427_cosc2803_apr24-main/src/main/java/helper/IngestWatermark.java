@@ -0,0 +1,142 @@
+package helper;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HexFormat;
+
+/**
+ * How much of a FoodLoss.csv file is already in the database.
+ * <p>
+ * The upstream feed only ever appends rows, so after a load the database records the
+ * number of bytes of the file it consumed and a SHA-256 hash of those bytes. The next
+ * load can then check the file still starts with exactly those bytes and read only
+ * what comes after them. If the file is shorter or its start has changed (a row edited
+ * or removed), the tables have to be rebuilt from the whole file.
+ * <p>
+ * The watermark is kept in the IngestWatermark table of the database it describes, and
+ * written in the same transaction as the rows, so the two cannot disagree. generation
+ * goes up by one on every full rebuild, so a reader that remembers it can tell rows that
+ * were appended from tables that were replaced (see app.DataSnapshot).
+ */
+public class IngestWatermark {
+
+   public static final String CREATE_TABLE =
+      "CREATE TABLE IF NOT EXISTS IngestWatermark (" +
+      "   source          TEXT PRIMARY KEY," +
+      "   bytes           INTEGER NOT NULL," +
+      "   prefix_sha256   TEXT NOT NULL," +
+      "   events          INTEGER NOT NULL," +
+      "   generation      INTEGER NOT NULL," +
+      "   loaded_at       TEXT NOT NULL)";
+
+   // Bytes hashed per mapping
+   private static final long HASH_WINDOW = 64L * 1024 * 1024;
+
+   public final String source;
+   public final long bytes;
+   public final String prefixHash;
+   public final long events;
+   public final long generation;
+
+   public IngestWatermark(String source, long bytes, String prefixHash, long events, long generation) {
+      this.source = source;
+      this.bytes = bytes;
+      this.prefixHash = prefixHash;
+      this.events = events;
+      this.generation = generation;
+   }
+
+   /**
+    * The watermark saved for source, or null if it has never been loaded.
+    */
+   public static IngestWatermark read(Connection connection, String source) throws SQLException {
+      Statement statement = connection.createStatement();
+      try {
+         statement.execute(CREATE_TABLE);
+      } finally {
+         statement.close();
+      }
+
+      PreparedStatement query = connection.prepareStatement(
+         "SELECT bytes, prefix_sha256, events, generation FROM IngestWatermark WHERE source = ?");
+      try {
+         query.setString(1, source);
+         ResultSet result = query.executeQuery();
+         if (!result.next()) {
+            return null;
+         }
+         return new IngestWatermark(source, result.getLong("bytes"), result.getString("prefix_sha256"),
+                                    result.getLong("events"), result.getLong("generation"));
+      } finally {
+         query.close();
+      }
+   }
+
+   /**
+    * The highest generation of any source, 0 if nothing has been loaded.
+    */
+   public static long generation(Connection connection) throws SQLException {
+      Statement statement = connection.createStatement();
+      try {
+         statement.execute(CREATE_TABLE);
+         ResultSet result = statement.executeQuery("SELECT COALESCE(MAX(generation), 0) FROM IngestWatermark");
+         return result.next() ? result.getLong(1) : 0;
+      } finally {
+         statement.close();
+      }
+   }
+
+   /**
+    * Save the watermark, replacing the one for the same source. Runs in the caller's transaction.
+    */
+   public void save(Connection connection) throws SQLException {
+      PreparedStatement update = connection.prepareStatement(
+         "INSERT OR REPLACE INTO IngestWatermark (source, bytes, prefix_sha256, events, generation, loaded_at) " +
+         "VALUES (?, ?, ?, ?, ?, datetime('now'))");
+      try {
+         update.setString(1, source);
+         update.setLong(2, bytes);
+         update.setString(3, prefixHash);
+         update.setLong(4, events);
+         update.setLong(5, generation);
+         update.executeUpdate();
+      } finally {
+         update.close();
+      }
+   }
+
+   /**
+    * Whether the file still starts with the bytes this watermark consumed.
+    */
+   public boolean matches(FileChannel channel) throws IOException {
+      return channel.size() >= bytes && prefixHash.equals(prefixHash(channel, bytes));
+   }
+
+   /**
+    * Hex SHA-256 of the first bytes of the file.
+    */
+   public static String prefixHash(FileChannel channel, long bytes) throws IOException {
+      MessageDigest digest;
+      try {
+         digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      }
+      for (long position = 0; position < bytes; position += HASH_WINDOW) {
+         digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(HASH_WINDOW, bytes - position)));
+      }
+      return HexFormat.of().formatHex(digest.digest());
+   }
+
+   @Override
+   public String toString() {
+      return source + " up to byte " + bytes + " (" + events + " events, generation " + generation + ")";
+   }
+}
@@ -0,0 +1,49 @@
+package helper;
+
+/*
+* One row of FoodLoss.csv, with the year and loss percentage parsed.
+* The fields are in the same order as the columns (see CountryFields).
+*/
+
+public class LossEvent {
+   public final String m49Code;
+   public final String countryName;
+   public final String regionName;
+   public final String cpcCode;
+   public final String commodity;
+   public final int year;
+   public final double lossPercentage;
+   public final String activity;
+   public final String foodSupplyStage;
+   public final String causeOfLoss;
+
+   public LossEvent(String m49Code, String countryName, String regionName, String cpcCode, String commodity,
+                    int year, double lossPercentage, String activity, String foodSupplyStage, String causeOfLoss) {
+      this.m49Code = m49Code;
+      this.countryName = countryName;
+      this.regionName = regionName;
+      this.cpcCode = cpcCode;
+      this.commodity = commodity;
+      this.year = year;
+      this.lossPercentage = lossPercentage;
+      this.activity = activity;
+      this.foodSupplyStage = foodSupplyStage;
+      this.causeOfLoss = causeOfLoss;
+   }
+
+   /**
+    * The current record of a FoodLoss.csv reader as an event.
+    */
+   public static LossEvent read(CsvRecord csv) {
+      return new LossEvent(csv.get(CountryFields.M49CODE),
+                           csv.get(CountryFields.COUNTRYNAME),
+                           csv.get(CountryFields.REGIONAME),
+                           csv.get(CountryFields.CPCCODE),
+                           csv.get(CountryFields.COMMODITY),
+                           csv.getInt(CountryFields.YEAR),
+                           csv.getDouble(CountryFields.LOSSPERCENT),
+                           csv.get(CountryFields.ACTIVITY),
+                           csv.get(CountryFields.SUPPLYSTAGE),
+                           csv.get(CountryFields.LOSSCAUSE));
+   }
+}
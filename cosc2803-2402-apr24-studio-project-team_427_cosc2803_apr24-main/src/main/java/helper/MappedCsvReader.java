@@ -0,0 +1,353 @@
+package helper;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a UTF-8 CSV file straight from its bytes, for loading large FoodLoss.csv extracts.
+ * <p>
+ * The file is mapped into memory with FileChannel.map (in windows of up to WINDOW bytes,
+ * so files over 2GB can be read) and parsed as bytes, a block at a time, without decoding
+ * it to characters first. Quoting works as in CsvReader. The unquoted bytes of each record's
+ * fields are copied into one buffer reused for every record, so:
+ * <ul>
+ * <li>getInt() and getDouble() parse the bytes and allocate nothing</li>
+ * <li>get() looks the bytes up in a StringDictionary, so a String is only made the first
+ *     time each distinct value is seen</li>
+ * </ul>
+ * Reading a file therefore makes almost no garbage however large it is.
+ */
+public class MappedCsvReader implements CsvRecord, AutoCloseable {
+
+   public static final long WINDOW = 512L * 1024 * 1024;
+
+   private static final int BLOCK_SIZE = 64 * 1024;
+
+   private final FileChannel channel;
+   private final boolean ownChannel;
+   private final long end;
+   private final StringDictionary dictionary;
+
+   // The mapped window, and the file offset it starts at
+   private MappedByteBuffer window;
+   private long windowStart;
+   private int windowPosition = 0;
+
+   // Bytes of the window being parsed, copied out in blocks as plain array reads are faster than ByteBuffer.get
+   private final byte[] block = new byte[BLOCK_SIZE];
+   private int position = 0;
+   private int limit = 0;
+
+   // Unescaped bytes of the current record's fields, and where each one starts and ends
+   private byte[] bytes = new byte[1024];
+   private int length = 0;
+   private int[] starts = new int[16];
+   private int[] ends = new int[16];
+   private int fields = 0;
+
+   private long line = 1;
+   private long recordLine = 0;
+
+   /**
+    * Read a whole file.
+    */
+   public static MappedCsvReader open(String file) throws IOException {
+      FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+      return new MappedCsvReader(channel, true, 0, channel.size(), new StringDictionary());
+   }
+
+   /**
+    * Read the bytes of channel from start up to end, which should both be at the start of a
+    * record (see ParallelCsv), numbering the lines in messages from line, the line of the
+    * file start is on. The channel is left open.
+    */
+   public MappedCsvReader(FileChannel channel, long start, long end, long line, StringDictionary dictionary) throws IOException {
+      this(channel, false, start, end, dictionary);
+      this.line = line;
+   }
+
+   private MappedCsvReader(FileChannel channel, boolean ownChannel, long start, long end, StringDictionary dictionary)
+         throws IOException {
+      this.channel = channel;
+      this.ownChannel = ownChannel;
+      this.end = end;
+      this.dictionary = dictionary;
+      map(start);
+   }
+
+   /**
+    * The number of line endings in bytes from up to to of channel, counted as next() counts
+    * them (\r\n is one), so a reader starting at to can be given the line it starts on.
+    * to should be at the start of a record.
+    */
+   public static long lines(FileChannel channel, long from, long to) throws IOException {
+      long count = 0;
+      boolean carriageReturn = false;
+      long position = from;
+      while (position < to) {
+         MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, to - position));
+         for (int i = 0; i < bytes.limit(); i++) {
+            byte b = bytes.get(i);
+            if (b == '\n' || carriageReturn) {
+               count++;
+            }
+            carriageReturn = b == '\r';
+         }
+         position += bytes.limit();
+      }
+      // A \r ending the range ends its line: a range ends after a line ending or at the end of the file
+      return carriageReturn ? count + 1 : count;
+   }
+
+   /**
+    * Read the next record, returning false at the end of the file.
+    */
+   public boolean next() throws IOException {
+      int b = read();
+      // Skip blank lines
+      while (b == '\n' || b == '\r') {
+         endOfLine(b);
+         b = read();
+      }
+      if (b < 0) {
+         fields = 0;
+         return false;
+      }
+
+      recordLine = line;
+      length = 0;
+      fields = 0;
+      startField();
+      while (true) {
+         if (b < 0) {
+            endField();
+            return true;
+         } else if (b == '\n' || b == '\r') {
+            endField();
+            endOfLine(b);
+            return true;
+         } else if (b == ',') {
+            endField();
+            startField();
+         } else if (b == '"') {
+            quoted();
+         } else {
+            append((byte) b);
+         }
+         b = read();
+      }
+   }
+
+   public int size() {
+      return fields;
+   }
+
+   public long line() {
+      return recordLine;
+   }
+
+   public String get(int field) {
+      if (field >= fields) {
+         return "";
+      }
+      return dictionary.get(bytes, starts[field], ends[field] - starts[field]);
+   }
+
+   public boolean isEmpty(int field) {
+      return field >= fields || starts[field] == ends[field];
+   }
+
+   public int getInt(int field) {
+      int start = field < fields ? starts[field] : 0;
+      int end = field < fields ? ends[field] : 0;
+      if (start == end) {
+         throw error(field, "an int");
+      }
+      boolean negative = bytes[start] == '-';
+      int i = negative || bytes[start] == '+' ? start + 1 : start;
+      if (i == end) {
+         throw error(field, "an int");
+      }
+      long value = 0;
+      for (; i < end; i++) {
+         int digit = bytes[i] - '0';
+         if (digit < 0 || digit > 9) {
+            throw error(field, "an int");
+         }
+         value = value * 10 + digit;
+         if (value > (long) Integer.MAX_VALUE + 1) {
+            throw error(field, "an int");
+         }
+      }
+      value = negative ? -value : value;
+      if (value > Integer.MAX_VALUE) {
+         throw error(field, "an int");
+      }
+      return (int) value;
+   }
+
+   /**
+    * Plain decimals such as 12.5 are parsed from the bytes, anything else (exponents,
+    * very long numbers) by Double.parseDouble, as in CsvReader.
+    */
+   public double getDouble(int field) {
+      int start = field < fields ? starts[field] : 0;
+      int end = field < fields ? ends[field] : 0;
+      if (start == end) {
+         throw error(field, "a number");
+      }
+      boolean negative = bytes[start] == '-';
+      int i = negative || bytes[start] == '+' ? start + 1 : start;
+      long mantissa = 0;
+      int digits = 0;
+      int decimals = -1;
+      for (; i < end; i++) {
+         byte b = bytes[i];
+         if (b == '.' && decimals < 0) {
+            decimals = 0;
+         } else if (b >= '0' && b <= '9' && digits < 15) {
+            mantissa = mantissa * 10 + (b - '0');
+            digits++;
+            if (decimals >= 0) {
+               decimals++;
+            }
+         } else {
+            return slowDouble(field);
+         }
+      }
+      if (digits == 0) {
+         throw error(field, "a number");
+      }
+      // Both values are exact, so one division rounds the same way parseDouble does
+      double value = decimals > 0 ? mantissa / CsvReader.powerOfTen(decimals) : mantissa;
+      return negative ? -value : value;
+   }
+
+   /**
+    * The current record as a line of CSV, for messages.
+    */
+   @Override
+   public String toString() {
+      StringBuilder record = new StringBuilder();
+      for (int i = 0; i < fields; i++) {
+         if (i > 0) {
+            record.append(',');
+         }
+         record.append(get(i));
+      }
+      return record.toString();
+   }
+
+   public StringDictionary dictionary() {
+      return dictionary;
+   }
+
+   @Override
+   public void close() throws IOException {
+      if (ownChannel) {
+         channel.close();
+      }
+   }
+
+   // Read the rest of a quoted section, up to its closing quote
+   private void quoted() throws IOException {
+      while (true) {
+         int b = read();
+         if (b < 0) {
+            return;
+         }
+         if (b == '"') {
+            b = read();
+            if (b != '"') {
+               // The closing quote; whatever follows is read as part of the field
+               if (b >= 0) {
+                  unread();
+               }
+               return;
+            }
+         } else if (b == '\n' || (b == '\r' && peek() != '\n')) {
+            line++;
+         }
+         append((byte) b);
+      }
+   }
+
+   private double slowDouble(int field) {
+      try {
+         return Double.parseDouble(get(field));
+      } catch (NumberFormatException e) {
+         throw error(field, "a number");
+      }
+   }
+
+   private NumberFormatException error(int field, String type) {
+      return new NumberFormatException("Line " + recordLine + " field " + (field + 1) + " is not " + type + ": \"" + get(field) + "\"");
+   }
+
+   private void startField() {
+      if (fields == starts.length) {
+         starts = Arrays.copyOf(starts, fields * 2);
+         ends = Arrays.copyOf(ends, fields * 2);
+      }
+      starts[fields] = length;
+   }
+
+   private void endField() {
+      ends[fields++] = length;
+   }
+
+   private void append(byte b) {
+      if (length == bytes.length) {
+         bytes = Arrays.copyOf(bytes, length * 2);
+      }
+      bytes[length++] = b;
+   }
+
+   // Step past a line ending whose first byte b has been read; \r\n counts as one
+   private void endOfLine(int b) throws IOException {
+      line++;
+      if (b == '\r' && peek() == '\n') {
+         read();
+      }
+   }
+
+   private int read() throws IOException {
+      if (position == limit) {
+         if (windowPosition == window.limit()) {
+            long next = windowStart + windowPosition;
+            if (next >= end) {
+               return -1;
+            }
+            map(next);
+         }
+         limit = Math.min(BLOCK_SIZE, window.limit() - windowPosition);
+         window.get(windowPosition, block, 0, limit);
+         windowPosition += limit;
+         position = 0;
+      }
+      return block[position++] & 0xff;
+   }
+
+   private int peek() throws IOException {
+      int b = read();
+      if (b >= 0) {
+         unread();
+      }
+      return b;
+   }
+
+   // Only ever called straight after a read() that returned a byte, so it is still in the block
+   private void unread() {
+      position--;
+   }
+
+   private void map(long start) throws IOException {
+      windowStart = start;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, end - start));
+      windowPosition = 0;
+   }
+}
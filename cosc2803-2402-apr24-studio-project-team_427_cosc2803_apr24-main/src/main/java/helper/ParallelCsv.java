@@ -0,0 +1,221 @@
+package helper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Reads FoodLoss.csv on every core.
+ * <p>
+ * The file is cut into chunks that each start at the beginning of a record, and the
+ * chunks are parsed by a fork/join pool, each with its own MappedCsvReader. A line break
+ * inside a quoted field is not a record boundary, so the cuts are found in two passes,
+ * both run in parallel:
+ * <ol>
+ * <li>the file is divided into equal byte ranges and the quotes in each are counted,
+ *     which gives whether each range starts inside a quoted field</li>
+ * <li>from the start of each range the cut moves forward to just after the first line
+ *     break that is outside quotes</li>
+ * </ol>
+ * The line breaks in each chunk are then counted, also in parallel, so each reader numbers
+ * its lines from the line its chunk starts on.
+ * <p>
+ * The events of each chunk are handed on in file order, on the thread that called read(),
+ * and the chunk's codes are merged into the FoodLossData returned, so the result is the
+ * same whatever the number of threads. Only the chunks up to THREADS ahead of the one being
+ * handed on are parsed, so the events held at once are bounded by the chunk size rather
+ * than the size of the file. Set -Dingest.threads to change the number of threads
+ * (default: one per core). The file must be UTF-8.
+ */
+public class ParallelCsv {
+
+   public static final int THREADS = Math.max(1, Integer.getInteger("ingest.threads", Runtime.getRuntime().availableProcessors()));
+
+   // Chunks per thread, so a thread that finishes early can take another
+   private static final int CHUNKS_PER_THREAD = 4;
+   // Largest chunk, which bounds the events a chunk waiting to be handed on holds
+   private static final long MAX_CHUNK = 16L * 1024 * 1024;
+   // Smallest chunk worth a task of its own
+   private static final long MIN_CHUNK = 64 * 1024;
+   // Bytes mapped at a time while looking for the end of a record
+   private static final long SCAN_SIZE = 64 * 1024;
+
+   /**
+    * Takes each event read, in file order.
+    */
+   public interface Events {
+      void add(LossEvent event) throws Exception;
+   }
+
+   /**
+    * Read the codes in a FoodLoss.csv file, skipping its header, and count its events.
+    */
+   public static FoodLossData read(String file) throws Exception {
+      return read(file, -1, event -> { });
+   }
+
+   /**
+    * Read the first size bytes of a FoodLoss.csv file (all of it if size is negative), so
+    * rows appended while it is read are left out, passing each event to events.
+    */
+   public static FoodLossData read(String file, long size, Events events) throws Exception {
+      long start = System.nanoTime();
+      ForkJoinPool pool = new ForkJoinPool(THREADS);
+      try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+         size = size < 0 ? channel.size() : Math.min(size, channel.size());
+         long[] cuts = cuts(pool, channel, size);
+         long[] lines = lines(pool, channel, cuts);
+         int chunks = cuts.length - 1;
+
+         FoodLossData data = new FoodLossData();
+         ArrayDeque<ForkJoinTask<Chunk>> parsing = new ArrayDeque<ForkJoinTask<Chunk>>();
+         int next = 0;
+         for (int i = 0; i < chunks; i++) {
+            while (next < chunks && next <= i + THREADS) {
+               int chunk = next++;
+               parsing.add(pool.submit(() -> parse(channel, cuts[chunk], cuts[chunk + 1], lines[chunk])));
+            }
+            Chunk chunk = parsing.remove().join();
+            for (LossEvent event : chunk.events) {
+               events.add(event);
+            }
+            data.addAll(chunk.data);
+         }
+
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.println(String.format("Read %d events from %s in %d chunks on %d threads in %.3f s (%.0f rows/s)",
+                                          data.events, file, chunks, THREADS, seconds,
+                                          seconds > 0 ? data.events / seconds : 0));
+         return data;
+      } finally {
+         // Chunks still parsing when a failure stops the read are not waited for
+         pool.shutdownNow();
+      }
+   }
+
+   /**
+    * Offsets at which the chunks start, each at the start of a record, with the file size last.
+    */
+   static long[] cuts(ForkJoinPool pool, FileChannel channel, long size) throws IOException {
+      int wanted = (int) Math.max(1, Math.min((long) THREADS * CHUNKS_PER_THREAD, size / MIN_CHUNK));
+      int ranges = (int) Math.max(wanted, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+      long[] starts = new long[ranges + 1];
+      for (int i = 0; i <= ranges; i++) {
+         starts[i] = size * i / ranges;
+      }
+
+      // Pass 1: quotes in each range, so the ranges before it say whether a range starts inside quotes
+      long[] quotes = pool.submit(() -> IntStream.range(0, ranges).parallel()
+                                                 .mapToLong(i -> countQuotes(channel, starts[i], starts[i + 1]))
+                                                 .toArray()).join();
+      boolean[] inQuotes = new boolean[ranges];
+      for (int i = 1; i < ranges; i++) {
+         inQuotes[i] = inQuotes[i - 1] ^ (quotes[i - 1] % 2 == 1);
+      }
+
+      // Pass 2: move each cut to the start of the next record
+      long[] cuts = pool.submit(() -> IntStream.rangeClosed(0, ranges).parallel()
+                                               .mapToLong(i -> i == 0 || i == ranges ? starts[i]
+                                                              : nextRecord(channel, starts[i], size, inQuotes[i]))
+                                               .toArray()).join();
+      // A record longer than a range moves two cuts to the same place; drop the empty chunks
+      return LongStream.of(cuts).distinct().toArray();
+   }
+
+   /**
+    * The line of the file each chunk starts on, so rejected records name their line in the
+    * file rather than in their chunk.
+    */
+   static long[] lines(ForkJoinPool pool, FileChannel channel, long[] cuts) {
+      long[] counts = pool.submit(() -> IntStream.range(0, cuts.length - 1).parallel()
+                                                 .mapToLong(i -> countLines(channel, cuts[i], cuts[i + 1]))
+                                                 .toArray()).join();
+      // An empty file is one empty chunk
+      long[] lines = new long[Math.max(1, cuts.length - 1)];
+      lines[0] = 1;
+      for (int i = 1; i < lines.length; i++) {
+         lines[i] = lines[i - 1] + counts[i - 1];
+      }
+      return lines;
+   }
+
+   private static long countLines(FileChannel channel, long from, long to) {
+      try {
+         return MappedCsvReader.lines(channel, from, to);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   private static long countQuotes(FileChannel channel, long from, long to) {
+      MappedByteBuffer bytes = map(channel, from, to - from);
+      long count = 0;
+      for (int i = 0; i < bytes.limit(); i++) {
+         if (bytes.get(i) == '"') {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   // Offset just after the first line break at or after from that is outside quotes
+   private static long nextRecord(FileChannel channel, long from, long size, boolean inQuotes) {
+      long position = from;
+      while (position < size) {
+         MappedByteBuffer bytes = map(channel, position, Math.min(SCAN_SIZE, size - position));
+         for (int i = 0; i < bytes.limit(); i++) {
+            byte b = bytes.get(i);
+            if (b == '"') {
+               inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+               return position + i + 1;
+            }
+         }
+         position += bytes.limit();
+      }
+      return size;
+   }
+
+   private static MappedByteBuffer map(FileChannel channel, long position, long length) {
+      try {
+         return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * The events of one chunk, and its codes.
+    */
+   private static class Chunk {
+      final FoodLossData data = new FoodLossData();
+      final List<LossEvent> events = new ArrayList<LossEvent>();
+   }
+
+   // Parse the chunk from start to end, which starts on line; the chunk at 0 starts with the header
+   private static Chunk parse(FileChannel channel, long start, long end, long line) throws IOException {
+      Chunk chunk = new Chunk();
+      MappedCsvReader csv = new MappedCsvReader(channel, start, end, line, new StringDictionary());
+      if (start == 0) {
+         // The header
+         csv.next();
+      }
+      while (csv.next()) {
+         LossEvent event = chunk.data.read(csv);
+         if (event != null) {
+            chunk.events.add(event);
+         }
+      }
+      return chunk;
+   }
+}
@@ -0,0 +1,141 @@
+package helper;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import app.HotQueries;
+
+/**
+ * What is done to the database once the rows are in: build the indexes the queries need,
+ * ANALYZE, and check the query plans.
+ * <p>
+ * The indexes are built after the bulk load rather than kept up to date by every insert.
+ * Each covers the columns its queries filter, join and sort on, plus the columns they read,
+ * so SQLite can answer from the index without going back to the table:
+ * <ul>
+ * <li>events by country or region and year, for pages 2A and 3A</li>
+ * <li>events by year and cpc code, for the food group queries of 2B and 3B</li>
+ * <li>events by cpc code, for the commodity similarity of 3B</li>
+ * <li>cpc codes by group and every name looked up from a form</li>
+ * </ul>
+ * ANALYZE then records how selective each index is, so the planner picks between them.
+ * <p>
+ * Finally every query in app.HotQueries is run through EXPLAIN QUERY PLAN, and if any of
+ * them scans a table rather than searching an index the check throws, which fails the
+ * ingest. A scan that walks a (covering) index still reads every row, so it counts as a
+ * scan too. Scans of a WITH clause or subquery are fine: they read rows already found.
+ * So are scans of the SMALL_TABLES, a few hundred rows each, which queries ranking every
+ * country or commodity read in full.
+ */
+public class PostLoad {
+
+   public static final String[] INDEXES = {
+      "CREATE INDEX IF NOT EXISTS CountryLossEvent_country_year ON CountryLossEvent (m49_code, year, percentage, cpc_code)",
+      "CREATE INDEX IF NOT EXISTS CountryLossEvent_year_cpc ON CountryLossEvent (year, cpc_code, m49_code, percentage)",
+      "CREATE INDEX IF NOT EXISTS CountryLossEvent_cpc_year ON CountryLossEvent (cpc_code, year, percentage)",
+      "CREATE INDEX IF NOT EXISTS RegionLossEvent_region_year ON RegionLossEvent (m49_code, year, percentage, cpc_code)",
+      "CREATE INDEX IF NOT EXISTS RegionLossEvent_year_cpc ON RegionLossEvent (year, cpc_code, m49_code, percentage)",
+      "CREATE INDEX IF NOT EXISTS CPC_group ON CPC (groupID, cpc_code)",
+      "CREATE INDEX IF NOT EXISTS Commodity_name ON Commodity (commodityName)",
+      "CREATE INDEX IF NOT EXISTS Country_name ON Country (country_name)",
+      "CREATE INDEX IF NOT EXISTS Region_name ON Region (region_name)",
+      "CREATE INDEX IF NOT EXISTS CommodityGroup_descriptor ON CommodityGroup (descriptor)"
+   };
+
+   // Dimension tables small enough to read whole, lower case
+   public static final Set<String> SMALL_TABLES = Set.of("country", "region", "commoditygroup", "cpc", "commodity");
+
+   // A table named after FROM or JOIN, and the alias after it if there is one
+   private static final Pattern TABLE_REFERENCE = Pattern.compile("(?i)\\b(?:FROM|JOIN)\\s+(\\w+)(?:\\s+(?:AS\\s+)?(\\w+))?");
+
+   /**
+    * Build any of the indexes that are missing. Returns the number of indexes.
+    */
+   public static long createIndexes(Connection connection) throws SQLException {
+      Statement statement = connection.createStatement();
+      try {
+         for (String index : INDEXES) {
+            statement.execute(index);
+         }
+         return INDEXES.length;
+      } finally {
+         statement.close();
+      }
+   }
+
+   /**
+    * Gather the index statistics the query planner uses.
+    */
+   public static void analyze(Connection connection) throws SQLException {
+      Statement statement = connection.createStatement();
+      try {
+         statement.execute("ANALYZE");
+      } finally {
+         statement.close();
+      }
+   }
+
+   /**
+    * Check no registered query scans a table other than the SMALL_TABLES.
+    * Returns the number of queries checked, or throws IllegalStateException listing the scans.
+    */
+   public static long checkPlans(Connection connection) throws SQLException {
+      HashSet<String> tables = new HashSet<String>();
+      Statement statement = connection.createStatement();
+      try {
+         ResultSet result = statement.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table'");
+         while (result.next()) {
+            tables.add(result.getString(1).toLowerCase());
+         }
+
+         List<String> scans = new ArrayList<String>();
+         for (Map.Entry<String, String> query : HotQueries.all().entrySet()) {
+            HashMap<String, String> aliases = aliases(query.getValue());
+            result = statement.executeQuery("EXPLAIN QUERY PLAN " + query.getValue());
+            while (result.next()) {
+               String detail = result.getString("detail");
+               if (!detail.startsWith("SCAN ")) {
+                  continue;
+               }
+               String name = detail.substring(5).split(" ")[0].toLowerCase();
+               String table = aliases.getOrDefault(name, name);
+               if (tables.contains(table) && !SMALL_TABLES.contains(table)) {
+                  scans.add(query.getKey() + ": " + detail);
+               }
+            }
+         }
+
+         if (!scans.isEmpty()) {
+            throw new IllegalStateException(scans.size() + " full table scans in the query plans:\n   "
+                                            + String.join("\n   ", scans));
+         }
+         return HotQueries.all().size();
+      } finally {
+         statement.close();
+      }
+   }
+
+   // Alias (or table name) to table name, lower case, for every table the query names
+   private static HashMap<String, String> aliases(String sql) {
+      HashMap<String, String> aliases = new HashMap<String, String>();
+      Matcher matcher = TABLE_REFERENCE.matcher(sql);
+      while (matcher.find()) {
+         String table = matcher.group(1).toLowerCase();
+         aliases.put(table, table);
+         if (matcher.group(2) != null) {
+            aliases.put(matcher.group(2).toLowerCase(), table);
+         }
+      }
+      return aliases;
+   }
+}
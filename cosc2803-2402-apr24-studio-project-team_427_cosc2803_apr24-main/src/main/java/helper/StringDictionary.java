@@ -0,0 +1,102 @@
+package helper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Turns UTF-8 bytes into Strings, returning the same String each time the same bytes
+ * are seen.
+ * <p>
+ * The columns of FoodLoss.csv repeat a few hundred names (countries, commodities,
+ * stages, causes) across every row, so looking the bytes up here means a String is
+ * only made the first time a value appears. Lookups hash and compare the bytes and
+ * allocate nothing. Once MAX_ENTRIES values are held, new values are still decoded
+ * but no longer stored, so a column of unique text cannot grow the table without bound.
+ * <p>
+ * Not thread-safe: each reader has its own.
+ */
+public class StringDictionary {
+
+   public static final int MAX_ENTRIES = 1 << 20;
+
+   private byte[][] keys = new byte[1024][];
+   private String[] values = new String[1024];
+   private int[] hashes = new int[1024];
+   private int size = 0;
+
+   private long hits = 0;
+   private long misses = 0;
+
+   /**
+    * The String for length bytes of bytes starting at start.
+    */
+   public String get(byte[] bytes, int start, int length) {
+      int hash = hash(bytes, start, length);
+      int mask = keys.length - 1;
+      for (int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+         if (hashes[slot] == hash && Arrays.equals(keys[slot], 0, keys[slot].length, bytes, start, start + length)) {
+            hits++;
+            return values[slot];
+         }
+      }
+
+      misses++;
+      String value = new String(bytes, start, length, StandardCharsets.UTF_8);
+      if (size < MAX_ENTRIES) {
+         put(Arrays.copyOfRange(bytes, start, start + length), value, hash);
+      }
+      return value;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public long hits() {
+      return hits;
+   }
+
+   public long misses() {
+      return misses;
+   }
+
+   private void put(byte[] key, String value, int hash) {
+      // Keep the table at most half full so probe runs stay short
+      if ((size + 1) * 2 > keys.length) {
+         grow();
+      }
+      int mask = keys.length - 1;
+      int slot = hash & mask;
+      while (keys[slot] != null) {
+         slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      values[slot] = value;
+      hashes[slot] = hash;
+      size++;
+   }
+
+   private void grow() {
+      byte[][] oldKeys = keys;
+      String[] oldValues = values;
+      int[] oldHashes = hashes;
+      keys = new byte[oldKeys.length * 2][];
+      values = new String[oldKeys.length * 2];
+      hashes = new int[oldKeys.length * 2];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+         if (oldKeys[i] != null) {
+            put(oldKeys[i], oldValues[i], oldHashes[i]);
+         }
+      }
+   }
+
+   // FNV-1a, then mixed so that the low bits used for the slot depend on every byte
+   private static int hash(byte[] bytes, int start, int length) {
+      int hash = 0x811c9dc5;
+      for (int i = start; i < start + length; i++) {
+         hash = (hash ^ bytes[i]) * 0x01000193;
+      }
+      return hash ^ (hash >>> 16);
+   }
+}